@@ -0,0 +1,92 @@
+package com.github.gccsv.benchmarks;
+
+import com.github.gccsv.AccessTokenCache;
+import com.github.gccsv.ContactsSession;
+import com.google.gdata.client.Query;
+import com.google.gdata.data.contacts.ContactFeed;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-page latency of a feed query against a local stand-in server: once
+ * building the token request, service and credential for every page (as
+ * GCConnector used to), once through a session shared by all pages.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FeedPageBenchmark {
+
+	@Param({ "50" })
+	public int pageSize;
+
+	private StandInFeedServer server;
+	private File storeDir;
+	private URL feedUrl;
+	private ContactsSession sharedSession;
+	private int page;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		server = new StandInFeedServer(100 * pageSize);
+		server.start();
+		feedUrl = new URL(server.getFeedUrl());
+
+		storeDir = Files.createTempDirectory("gc-csv-bench").toFile();
+		PrintWriter writer = new PrintWriter(new File(storeDir, "rt"));
+		writer.print("stand-in-refresh-token");
+		writer.close();
+
+		sharedSession = new ContactsSession(feedUrl, this.tokenCache());
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		server.stop();
+		new File(storeDir, "rt").delete();
+		storeDir.delete();
+	}
+
+	@Benchmark
+	public ContactFeed sessionPerPage() throws Exception {
+		return new ContactsSession(feedUrl, this.tokenCache()).query(this.nextQuery());
+	}
+
+	@Benchmark
+	public ContactFeed sharedSession() throws Exception {
+		return sharedSession.query(this.nextQuery());
+	}
+
+	private AccessTokenCache tokenCache() {
+		AccessTokenCache tokenCache = new AccessTokenCache("client-id", "client-secret", storeDir);
+		tokenCache.setTokenServerUrl(server.getTokenUrl());
+		return tokenCache;
+	}
+
+	private Query nextQuery() {
+		Query query = new Query(feedUrl);
+		query.setStartIndex((page++ % 100) * pageSize + 1);
+		query.setMaxResults(pageSize);
+		return query;
+	}
+}
@@ -0,0 +1,58 @@
+package com.github.gccsv.benchmarks;
+
+import com.github.gccsv.GC_FIELD;
+import com.github.gccsv.output.ColumnPlan;
+import com.github.gccsv.output.DeAccenter;
+import com.google.gdata.data.contacts.ContactEntry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading a single field of a contact through its {@link ColumnPlan}
+ * column, going round 1k contacts. ADDRESS looks through all the postal
+ * addresses of a contact for the primary one, which is the last.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FieldBenchmark {
+
+	private static final int CONTACTS = 1024;
+
+	@Param({ "NAME", "PHONE_NUMBER", "EMAIL", "ADDRESS" })
+	public GC_FIELD field;
+
+	@Param({ "1", "20" })
+	public int addresses;
+
+	private List<ContactEntry> entries;
+	private ColumnPlan plan;
+	private int next;
+
+	@Setup
+	public void setUp() {
+		entries = SyntheticContacts.entries(CONTACTS, CONTACTS, addresses);
+		plan = new ColumnPlan(Collections.singletonMap(field.name(), field), new DeAccenter());
+	}
+
+	@Benchmark
+	public String read() {
+		return plan.read(0, entries.get(next++ & (CONTACTS - 1)));
+	}
+}
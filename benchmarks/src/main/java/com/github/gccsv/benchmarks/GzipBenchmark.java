@@ -0,0 +1,117 @@
+package com.github.gccsv.benchmarks;
+
+import com.github.gccsv.output.CSVSink;
+import com.github.gccsv.output.ParallelGzipSink;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Gzipping a 32 MiB CSV, in the 64 KiB chunks the writer renders, with
+ * {@link GZIPOutputStream} against {@link ParallelGzipSink} on a growing
+ * number of threads. One operation is the whole CSV, so ops/s times 32 is
+ * the throughput in MiB/s.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GzipBenchmark {
+
+	private static final int CSV_SIZE = 32 << 20;
+	private static final int CHUNK_SIZE = 64 << 10;
+
+	private byte[][] chunks;
+
+	@Setup
+	public void setUp() {
+		StringBuilder csv = new StringBuilder();
+		for (int i = 1; csv.length() < CSV_SIZE; i++) {
+			csv.append('"').append(SyntheticContacts.name(i)).append("\",\"+351 91").append(1000000 + i).append("\",\"+44 20 7")
+					.append(1000000 + i).append("\",\"contact").append(i).append("@example.com\"\n");
+		}
+		byte[] bytes = csv.toString().getBytes(StandardCharsets.UTF_8);
+		chunks = new byte[CSV_SIZE / CHUNK_SIZE][];
+		for (int i = 0; i < chunks.length; i++) {
+			chunks[i] = new byte[CHUNK_SIZE];
+			System.arraycopy(bytes, i * CHUNK_SIZE, chunks[i], 0, CHUNK_SIZE);
+		}
+	}
+
+	@Benchmark
+	public long gzipOutputStream() throws IOException {
+		CountingSink counter = new CountingSink();
+		GZIPOutputStream gzip = new GZIPOutputStream(counter.stream, CHUNK_SIZE);
+		for (byte[] chunk : chunks) {
+			gzip.write(chunk);
+		}
+		gzip.close();
+		return counter.bytes;
+	}
+
+	@Benchmark
+	public long parallelGzipSink(Threads threads) throws IOException {
+		CountingSink counter = new CountingSink();
+		ParallelGzipSink gzip = new ParallelGzipSink(counter, threads.threads);
+		for (byte[] chunk : chunks) {
+			gzip.write(chunk);
+		}
+		gzip.finish();
+		return counter.bytes;
+	}
+
+	/**
+	 * The thread counts, only for {@link #parallelGzipSink(Threads)} so that
+	 * the single threaded baseline runs once.
+	 */
+	@State(Scope.Benchmark)
+	public static class Threads {
+		@Param({ "1", "2", "4", "8" })
+		public int threads;
+	}
+
+	private static class CountingSink implements CSVSink {
+		long bytes;
+		final OutputStream stream = new OutputStream() {
+			@Override
+			public void write(int b) {
+				bytes++;
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+				bytes += len;
+			}
+		};
+
+		public String getName() {
+			return "counter";
+		}
+
+		public void write(byte[] chunk) {
+			bytes += chunk.length;
+		}
+
+		public void finish() {
+		}
+
+		public void abort() {
+		}
+	}
+}
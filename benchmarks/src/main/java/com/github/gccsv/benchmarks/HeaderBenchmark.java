@@ -0,0 +1,58 @@
+package com.github.gccsv.benchmarks;
+
+import com.github.gccsv.GC_FIELD;
+import com.github.gccsv.output.CSVWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creating a {@link CSVWriter}, which plans the columns and encodes the
+ * header, and rendering the header.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HeaderBenchmark {
+
+	@Param({ "4", "40" })
+	public int columns;
+
+	private Map<String, GC_FIELD> mapping;
+	private CSVWriter writer;
+
+	@Setup
+	public void setUp() {
+		mapping = new LinkedHashMap<String, GC_FIELD>();
+		GC_FIELD[] fields = GC_FIELD.values();
+		for (int i = 0; i < columns; i++) {
+			mapping.put("Column \"" + SyntheticContacts.name(i) + "\"", fields[i % fields.length]);
+		}
+		writer = new CSVWriter(mapping, false);
+	}
+
+	@Benchmark
+	public CSVWriter createWriter() {
+		return new CSVWriter(mapping, true);
+	}
+
+	@Benchmark
+	public byte[] renderHeader() {
+		return writer.renderHeader();
+	}
+}
@@ -0,0 +1,276 @@
+package com.github.gccsv.benchmarks;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs whole exports against local stand-ins for google and, optionally, an
+ * ICW1000G, for growing numbers of contacts, and reports how long each took,
+ * how many contacts per second that is and the peak memory of the export.
+ *
+ * Every export runs in a JVM of its own, started with the classpath of the
+ * harness, so that its memory is not mixed up with the stand-ins'. Run with
+ * java -cp target/benchmarks.jar com.github.gccsv.benchmarks.LoadHarness
+ */
+public class LoadHarness {
+
+	private static final String DEFAULT_CONTACTS = "10000,100000,1000000";
+	private static final long POLL_MILLIS = 20;
+
+	public static void main(String[] args) throws Exception {
+		Options options = buildOptions();
+		CommandLine commandLine;
+		try {
+			commandLine = new DefaultParser().parse(options, args);
+		} catch (ParseException e) {
+			System.err.println(e.getMessage());
+			new HelpFormatter().printHelp("LoadHarness", options);
+			System.exit(1);
+			return;
+		}
+		if (commandLine.hasOption("h")) {
+			new HelpFormatter().printHelp("LoadHarness", options);
+			return;
+		}
+
+		List<Result> results = new ArrayList<Result>();
+		for (String contacts : commandLine.getOptionValue("contacts", DEFAULT_CONTACTS).split(",")) {
+			Result result = run(commandLine, Integer.parseInt(contacts.trim()));
+			results.add(result);
+			if (result.exitCode != 0) {
+				break;
+			}
+		}
+
+		System.out.printf("\nLoad test:\n");
+		System.out.printf("\t%10s %10s %10s %12s %12s %10s %s\n", "contacts", "rows", "ms", "contacts/s", "peak RSS MB", "requests", "result");
+		boolean failed = false;
+		for (Result result : results) {
+			failed |= result.exitCode != 0;
+			System.out.printf("\t%10d %10d %10d %12.0f %12s %10d %s\n", result.contacts, result.rows, result.millis,
+					result.contacts * 1000.0 / Math.max(1, result.millis), result.peakRssKb < 0 ? "n/a" : String.valueOf(result.peakRssKb / 1024),
+					result.requests, result.exitCode == 0 ? "OK" : "FAILED, see " + result.log);
+		}
+		System.exit(failed ? 2 : 0);
+	}
+
+	private static Options buildOptions() {
+		Options options = new Options();
+		options.addOption(Option.builder("h").longOpt("help").desc("Prints this message and exits").build());
+		options.addOption(Option.builder().longOpt("contacts")
+				.desc(String.format("The numbers of contacts to export, one export each (default is %s)", DEFAULT_CONTACTS)).hasArg()
+				.argName("n,n,...").build());
+		options.addOption(Option.builder().longOpt("page-size").desc("The page size of the exports").hasArg().argName("size").build());
+		options.addOption(Option.builder().longOpt("fetch-threads").desc("The fetch threads of the exports").hasArg().argName("threads").build());
+		options.addOption(Option.builder().longOpt("latency").desc("How long the stand-in waits before answering each request").hasArg()
+				.argName("ms").build());
+		options.addOption(Option.builder().longOpt("error-rate")
+				.desc("The share of feed requests, between 0 and 1, the stand-in answers with a 503").hasArg().argName("rate").build());
+		options.addOption(Option.builder().longOpt("icw1000").desc("Also upload every export to a stand-in ICW1000G").build());
+		options.addOption(Option.builder().longOpt("jvm-options").desc("Options of the JVM of the exports, e.g. \"-Xmx256m -XX:+UseSerialGC\"")
+				.hasArg().argName("options").build());
+		options.addOption(Option.builder().longOpt("keep").desc("Keep the storage dirs, output and logs of the exports").build());
+		return options;
+	}
+
+	private static Result run(CommandLine commandLine, int contacts) throws Exception {
+		Result result = new Result(contacts);
+		File dir = Files.createTempDirectory("gc-csv-load").toFile();
+		File output = new File(dir, "contacts.csv");
+		result.log = new File(dir, "export.log");
+
+		StandInFeedServer feed = new StandInFeedServer(contacts);
+		if (commandLine.hasOption("latency")) {
+			feed.setLatencyMillis(Long.parseLong(commandLine.getOptionValue("latency")));
+		}
+		if (commandLine.hasOption("error-rate")) {
+			feed.setErrorRate(Double.parseDouble(commandLine.getOptionValue("error-rate")));
+		}
+		StandInICW1000Server phone = commandLine.hasOption("icw1000") ? new StandInICW1000Server() : null;
+		feed.start();
+		if (phone != null) {
+			phone.start();
+		}
+		try {
+			File refreshToken = new File(dir, "gc-csv/rt");
+			refreshToken.getParentFile().mkdirs();
+			PrintWriter writer = new PrintWriter(refreshToken, "UTF-8");
+			writer.print("stand-in-refresh-token");
+			writer.close();
+
+			List<String> command = new ArrayList<String>();
+			command.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+			if (commandLine.hasOption("jvm-options")) {
+				for (String option : commandLine.getOptionValue("jvm-options").trim().split("\\s+")) {
+					command.add(option);
+				}
+			}
+			command.add("-cp");
+			command.add(System.getProperty("java.class.path"));
+			command.add("com.github.gccsv.Main");
+			command.add("-C");
+			command.add("stand-in");
+			command.add("-S");
+			command.add("stand-in");
+			command.add("-d");
+			command.add(dir.getPath() + "/");
+			command.add("--feed-url");
+			command.add(feed.getFeedUrl());
+			command.add("--token-url");
+			command.add(feed.getTokenUrl());
+			command.add("-f");
+			command.add(output.getPath());
+			if (commandLine.hasOption("page-size")) {
+				command.add("--page-size");
+				command.add(commandLine.getOptionValue("page-size"));
+			}
+			if (commandLine.hasOption("fetch-threads")) {
+				command.add("--fetch-threads");
+				command.add(commandLine.getOptionValue("fetch-threads"));
+			}
+			if (phone != null) {
+				command.add("--icw1000");
+				command.add(phone.getConnection());
+			}
+
+			System.out.printf("Exporting %d contacts\n", contacts);
+			long start = System.nanoTime();
+			Process process = new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(result.log).start();
+			File status = statusFile(process);
+			while (!exited(process)) {
+				result.peakRssKb = Math.max(result.peakRssKb, peakRssKb(status));
+				Thread.sleep(POLL_MILLIS);
+			}
+			result.millis = (System.nanoTime() - start) / 1000000;
+			result.exitCode = process.exitValue();
+			result.requests = feed.getFeedRequests();
+			result.rows = output.exists() ? lines(output) - 1 : 0;
+			if (phone != null && result.exitCode == 0) {
+				int imported = 0;
+				for (int entries : phone.getImports()) {
+					imported += entries;
+				}
+				System.out.printf("\tThe ICW1000G imported %d entries\n", imported);
+			}
+		} finally {
+			feed.stop();
+			if (phone != null) {
+				phone.stop();
+			}
+			if (!commandLine.hasOption("keep") && result.exitCode == 0) {
+				delete(dir);
+			}
+		}
+		return result;
+	}
+
+	private static boolean exited(Process process) {
+		try {
+			process.exitValue();
+			return true;
+		} catch (IllegalThreadStateException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * The /proc status of the process, or null where there is none.
+	 */
+	private static File statusFile(Process process) {
+		long pid;
+		try {
+			// Process.pid() from java 9 on, the pid field of UNIXProcess before
+			Method method = Process.class.getMethod("pid");
+			pid = (Long) method.invoke(process);
+		} catch (Exception e) {
+			try {
+				Field field = process.getClass().getDeclaredField("pid");
+				field.setAccessible(true);
+				pid = field.getInt(process);
+			} catch (Exception e2) {
+				return null;
+			}
+		}
+		File status = new File("/proc/" + pid + "/status");
+		return status.exists() ? status : null;
+	}
+
+	/**
+	 * The peak resident set size so far, from VmHWM, or -1 if unknown.
+	 */
+	private static long peakRssKb(File status) {
+		if (status == null) {
+			return -1;
+		}
+		try {
+			for (String line : Files.readAllLines(status.toPath(), StandardCharsets.UTF_8)) {
+				if (line.startsWith("VmHWM:")) {
+					return Long.parseLong(line.substring("VmHWM:".length()).replace("kB", "").trim());
+				}
+			}
+		} catch (IOException e) {
+			// the process is gone
+		}
+		return -1;
+	}
+
+	private static int lines(File file) throws IOException {
+		int lines = 0;
+		InputStream in = new BufferedInputStream(new FileInputStream(file));
+		try {
+			byte[] buffer = new byte[65536];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				for (int i = 0; i < read; i++) {
+					if (buffer[i] == '\n') {
+						lines++;
+					}
+				}
+			}
+		} finally {
+			in.close();
+		}
+		return lines;
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+	private static class Result {
+		final int contacts;
+		File log;
+		int exitCode = -1;
+		int rows;
+		int requests;
+		long millis;
+		long peakRssKb = -1;
+
+		Result(int contacts) {
+			this.contacts = contacts;
+		}
+	}
+}
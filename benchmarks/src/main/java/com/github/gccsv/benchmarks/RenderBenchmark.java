@@ -0,0 +1,83 @@
+package com.github.gccsv.benchmarks;
+
+import com.github.gccsv.GC_FIELD;
+import com.github.gccsv.output.CSVWriter;
+import com.google.gdata.data.contacts.ContactEntry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rendering contacts to CSV rows as an export does, a page at a time through
+ * {@link CSVWriter#renderPage(List)}, going round the whole data set. Scores
+ * are per contact: contacts per second and, with -prof gc,
+ * gc.alloc.rate.norm is the bytes allocated per contact.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@State(Scope.Benchmark)
+public class RenderBenchmark {
+
+	private static final int PAGE_SIZE = 50;
+	private static final int DISTINCT_CONTACTS = 100000;
+
+	@Param({ "1000", "100000", "1000000" })
+	public int contacts;
+
+	/**
+	 * default: name, two numbers and an email; address: the same plus the
+	 * address, of contacts with three postal addresses each.
+	 */
+	@Param({ "default", "address" })
+	public String mapping;
+
+	@Param({ "false", "true" })
+	public boolean deaccent;
+
+	private List<ContactEntry> entries;
+	private CSVWriter writer;
+	private int next;
+
+	@Setup
+	public void setUp() {
+		boolean address = "address".equals(mapping);
+		entries = SyntheticContacts.entries(contacts, DISTINCT_CONTACTS, address ? 3 : 0);
+		Map<String, GC_FIELD> columns = new LinkedHashMap<String, GC_FIELD>();
+		columns.put("Name", GC_FIELD.NAME);
+		columns.put("Number 1", GC_FIELD.PHONE_NUMBER);
+		columns.put("Number 2", GC_FIELD.PHONE_NUMBER);
+		columns.put("Email", GC_FIELD.EMAIL);
+		if (address) {
+			columns.put("Address", GC_FIELD.ADDRESS);
+		}
+		writer = new CSVWriter(columns, deaccent);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(PAGE_SIZE)
+	public byte[] renderPage() {
+		if (next + PAGE_SIZE > contacts) {
+			next = 0;
+		}
+		List<ContactEntry> page = entries.subList(next, next + PAGE_SIZE);
+		next += PAGE_SIZE;
+		return writer.renderPage(page);
+	}
+}
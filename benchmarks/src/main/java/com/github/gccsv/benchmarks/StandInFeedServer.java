@@ -0,0 +1,343 @@
+package com.github.gccsv.benchmarks;
+
+import com.google.gdata.data.DateTime;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A local stand-in for google's token endpoint and contacts feed, serving
+ * synthetic contacts, with about what google sends for a contact with a
+ * couple of phones. Honors start-index, max-results, updated-min,
+ * showdeleted and group, where group n holds every n-th contact, and fields,
+ * leaving out the parts of the entries it does not name. Contacts can
+ * be updated, deleted and added while it runs, and responses can be delayed
+ * or fail on purpose.
+ */
+public class StandInFeedServer {
+
+	public static final String TOKEN_PATH = "/token";
+	public static final String FEED_PATH = "/m8/feeds/contacts/default/full";
+
+	static {
+		// otherwise delayed ACKs dominate the latency of small local responses
+		System.setProperty("sun.net.httpserver.nodelay", "true");
+	}
+
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private static final long INITIAL_UPDATED = 1420070400000L;
+
+	private int totalContacts;
+	private volatile boolean changed;
+	private volatile long latencyMillis;
+	private volatile double errorRate;
+	private final Random random = new Random(1);
+	private final AtomicInteger feedRequests = new AtomicInteger();
+	private final AtomicInteger failedRequests = new AtomicInteger();
+	private final Map<Integer, Long> updated = new HashMap<Integer, Long>();
+	private final Map<Integer, Integer> revisions = new HashMap<Integer, Integer>();
+	private final Set<Integer> deleted = new HashSet<Integer>();
+
+	public StandInFeedServer(int totalContacts) throws IOException {
+		this.totalContacts = totalContacts;
+		this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		this.executor = Executors.newCachedThreadPool();
+		server.setExecutor(executor);
+		server.createContext(TOKEN_PATH, new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				drain(exchange);
+				delay();
+				respond(exchange, "application/json; charset=UTF-8",
+						"{\"access_token\":\"stand-in\",\"token_type\":\"Bearer\",\"expires_in\":3600}");
+			}
+		});
+		server.createContext(FEED_PATH, new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				drain(exchange);
+				delay();
+				feedRequests.incrementAndGet();
+				if (errorRate > 0 && random.nextDouble() < errorRate) {
+					failedRequests.incrementAndGet();
+					exchange.sendResponseHeaders(503, -1);
+					exchange.close();
+					return;
+				}
+				Map<String, String> parameters = parameters(exchange.getRequestURI());
+				int startIndex = intParameter(parameters, "start-index", 1);
+				int maxResults = intParameter(parameters, "max-results", 25);
+				long updatedMin = parameters.containsKey("updated-min") ? DateTime.parseDateTime(parameters.get("updated-min")).getValue() : Long.MIN_VALUE;
+				boolean showDeleted = "true".equals(parameters.get("showdeleted"));
+				int group = group(parameters.get("group"));
+				respond(exchange, "application/atom+xml; charset=UTF-8",
+						feed(startIndex, maxResults, updatedMin, showDeleted, group, parameters.get("fields")));
+			}
+		});
+	}
+
+	public void start() {
+		server.start();
+	}
+
+	public void stop() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	public String getBaseUrl() {
+		return "http://127.0.0.1:" + server.getAddress().getPort();
+	}
+
+	public String getTokenUrl() {
+		return getBaseUrl() + TOKEN_PATH;
+	}
+
+	public String getFeedUrl() {
+		return getBaseUrl() + FEED_PATH;
+	}
+
+	/**
+	 * How long to wait before answering each request.
+	 */
+	public void setLatencyMillis(long latencyMillis) {
+		this.latencyMillis = latencyMillis;
+	}
+
+	/**
+	 * The share of feed requests, between 0 and 1, answered with a 503
+	 * instead of contacts.
+	 */
+	public void setErrorRate(double errorRate) {
+		this.errorRate = errorRate;
+	}
+
+	public int getFeedRequests() {
+		return feedRequests.get();
+	}
+
+	public int getFailedRequests() {
+		return failedRequests.get();
+	}
+
+	/**
+	 * Changes the name of the contact at the (1 based) index.
+	 */
+	public synchronized void updateContact(int index) {
+		Integer revision = revisions.get(index);
+		revisions.put(index, revision == null ? 1 : revision + 1);
+		updated.put(index, System.currentTimeMillis());
+		changed = true;
+	}
+
+	public synchronized void deleteContact(int index) {
+		deleted.add(index);
+		updated.put(index, System.currentTimeMillis());
+		changed = true;
+	}
+
+	public synchronized void addContacts(int count) {
+		for (int i = 0; i < count; i++) {
+			updated.put(++totalContacts, System.currentTimeMillis());
+		}
+		changed = true;
+	}
+
+	private String feed(int startIndex, int maxResults, long updatedMin, boolean showDeleted, int group, String fields) {
+		if (!changed && updatedMin <= INITIAL_UPDATED) {
+			// the selection is every group-th contact, without looking at each
+			// of them, so that pages of a million contacts stay cheap
+			int total = group > 0 ? totalContacts / group : 0;
+			int last = Math.min(total, startIndex + maxResults - 1);
+			int[] page = new int[Math.max(0, last - startIndex + 1)];
+			for (int position = startIndex; position <= last; position++) {
+				page[position - startIndex] = position * group;
+			}
+			return render(startIndex, maxResults, total, page, fields);
+		}
+		synchronized (this) {
+			List<Integer> selected = new ArrayList<Integer>();
+			for (int i = 1; i <= totalContacts; i++) {
+				if (group > 0 && i % group == 0 && (showDeleted || !deleted.contains(i)) && updated(i) >= updatedMin) {
+					selected.add(i);
+				}
+			}
+			int last = Math.min(selected.size(), startIndex + maxResults - 1);
+			int[] page = new int[Math.max(0, last - startIndex + 1)];
+			for (int position = startIndex; position <= last; position++) {
+				page[position - startIndex] = selected.get(position - 1);
+			}
+			return render(startIndex, maxResults, selected.size(), page, fields);
+		}
+	}
+
+	private String render(int startIndex, int maxResults, int total, int[] page, String fields) {
+		StringBuilder feed = new StringBuilder();
+		feed.append("<?xml version='1.0' encoding='UTF-8'?>");
+		feed.append("<feed xmlns='http://www.w3.org/2005/Atom' xmlns:openSearch='http://a9.com/-/spec/opensearch/1.1/'")
+				.append(" xmlns:gd='http://schemas.google.com/g/2005' xmlns:gContact='http://schemas.google.com/contact/2008'>");
+		feed.append("<id>stand-in@example.com</id><updated>").append(timestamp(System.currentTimeMillis())).append("</updated>");
+		feed.append("<title>Stand-in Contacts</title>");
+		feed.append("<openSearch:totalResults>").append(total).append("</openSearch:totalResults>");
+		feed.append("<openSearch:startIndex>").append(startIndex).append("</openSearch:startIndex>");
+		feed.append("<openSearch:itemsPerPage>").append(maxResults).append("</openSearch:itemsPerPage>");
+		for (int i : page) {
+			String id = Integer.toHexString(i);
+			feed.append("<entry");
+			if (selected(fields, "@gd:etag")) {
+				feed.append(" gd:etag='&quot;").append(id).append('.').append(updated(i)).append("&quot;'");
+			}
+			feed.append("><id>http://www.google.com/m8/feeds/contacts/stand-in%40example.com/base/").append(id).append("</id>");
+			feed.append("<updated>").append(timestamp(updated(i))).append("</updated>");
+			if (selected(fields, "category")) {
+				feed.append("<category scheme='http://schemas.google.com/g/2005#kind' term='http://schemas.google.com/contact/2008#contact'/>");
+			}
+			if (deleted.contains(i)) {
+				feed.append("<gd:deleted/></entry>");
+				continue;
+			}
+			Integer revision = revisions.get(i);
+			String name = SyntheticContacts.name(revision == null ? i : i + 1000 * revision);
+			if (selected(fields, "title")) {
+				feed.append("<title>").append(name).append("</title>");
+			}
+			if (selected(fields, "link")) {
+				feed.append("<link rel='http://schemas.google.com/contacts/2008/rel#photo' type='image/*' href='https://www.google.com/m8/feeds/photos/media/stand-in%40example.com/")
+						.append(id).append("'/>");
+				feed.append("<link rel='self' type='application/atom+xml' href='https://www.google.com/m8/feeds/contacts/stand-in%40example.com/full/")
+						.append(id).append("'/>");
+				feed.append("<link rel='edit' type='application/atom+xml' href='https://www.google.com/m8/feeds/contacts/stand-in%40example.com/full/")
+						.append(id).append("'/>");
+			}
+			if (selected(fields, "gd:name")) {
+				feed.append("<gd:name><gd:fullName>").append(name).append("</gd:fullName></gd:name>");
+			}
+			if (selected(fields, "gd:organization")) {
+				feed.append("<gd:organization rel='http://schemas.google.com/g/2005#work'><gd:orgName>Stand-in ").append(i % 100)
+						.append("</gd:orgName></gd:organization>");
+			}
+			if (selected(fields, "gd:email")) {
+				feed.append("<gd:email rel='http://schemas.google.com/g/2005#home' address='contact").append(i).append("@example.com' primary='true'/>");
+			}
+			if (selected(fields, "gd:phoneNumber")) {
+				feed.append("<gd:phoneNumber rel='http://schemas.google.com/g/2005#mobile'>+351 91").append(1000000 + i).append("</gd:phoneNumber>");
+				feed.append("<gd:phoneNumber rel='http://schemas.google.com/g/2005#work'>+44 20 7").append(1000000 + i).append("</gd:phoneNumber>");
+			}
+			if (selected(fields, "gd:structuredPostalAddress")) {
+				feed.append("<gd:structuredPostalAddress rel='http://schemas.google.com/g/2005#home'><gd:formattedAddress>").append(i)
+						.append(" Stand-in Street, Lisbon</gd:formattedAddress><gd:street>").append(i)
+						.append(" Stand-in Street</gd:street><gd:city>Lisbon</gd:city></gd:structuredPostalAddress>");
+			}
+			if (selected(fields, "gContact:groupMembershipInfo")) {
+				feed.append("<gContact:groupMembershipInfo deleted='false' href='http://www.google.com/m8/feeds/groups/stand-in%40example.com/base/6'/>");
+			}
+			if (selected(fields, "gContact:website")) {
+				feed.append("<gContact:website href='http://example.com/").append(id).append("' rel='profile'/>");
+			}
+			feed.append("</entry>");
+		}
+		feed.append("</feed>");
+		return feed.toString();
+	}
+
+	/**
+	 * Whether a part of the entries is sent. Every part is without fields,
+	 * otherwise the parts it names.
+	 */
+	private static boolean selected(String fields, String part) {
+		return fields == null || fields.contains(part);
+	}
+
+	/**
+	 * The group of a group parameter, ending in /base/n, or 1 for all the
+	 * contacts. Groups that are not a number have no contacts.
+	 */
+	private static int group(String group) {
+		if (group == null) {
+			return 1;
+		}
+		try {
+			return Integer.parseInt(group.substring(group.lastIndexOf('/') + 1));
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	private void delay() throws IOException {
+		if (latencyMillis > 0) {
+			try {
+				Thread.sleep(latencyMillis);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted", e);
+			}
+		}
+	}
+
+	private long updated(int index) {
+		Long time = updated.get(index);
+		return time == null ? INITIAL_UPDATED : time;
+	}
+
+	private static String timestamp(long millis) {
+		SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		return format.format(new Date(millis));
+	}
+
+	private static void drain(HttpExchange exchange) throws IOException {
+		byte[] buffer = new byte[4096];
+		while (exchange.getRequestBody().read(buffer) != -1) {
+			// discard
+		}
+	}
+
+	private static void respond(HttpExchange exchange, String contentType, String body) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", contentType);
+		exchange.sendResponseHeaders(200, bytes.length);
+		OutputStream responseBody = exchange.getResponseBody();
+		responseBody.write(bytes);
+		responseBody.close();
+	}
+
+	private static Map<String, String> parameters(URI uri) throws IOException {
+		Map<String, String> parameters = new HashMap<String, String>();
+		String query = uri.getRawQuery();
+		if (query != null) {
+			for (String pair : query.split("&")) {
+				int separator = pair.indexOf('=');
+				if (separator > 0) {
+					parameters.put(URLDecoder.decode(pair.substring(0, separator), "UTF-8"), URLDecoder.decode(pair.substring(separator + 1), "UTF-8"));
+				}
+			}
+		}
+		return parameters;
+	}
+
+	private static int intParameter(Map<String, String> parameters, String name, int defaultValue) {
+		String value = parameters.get(name);
+		return value == null ? defaultValue : Integer.parseInt(value);
+	}
+}
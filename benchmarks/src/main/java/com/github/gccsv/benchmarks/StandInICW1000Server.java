@@ -0,0 +1,174 @@
+package com.github.gccsv.benchmarks;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A local stand-in for an ICW1000G: logs in with a session cookie and
+ * imports phonebooks, replying with the number of entries imported. Keeps
+ * track of the imports and of the connections they came in on.
+ */
+public class StandInICW1000Server {
+
+	static {
+		System.setProperty("sun.net.httpserver.nodelay", "true");
+	}
+
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final Set<String> sessions = Collections.synchronizedSet(new HashSet<String>());
+	private final Set<Integer> connections = Collections.synchronizedSet(new HashSet<Integer>());
+	private final List<Integer> imports = Collections.synchronizedList(new ArrayList<Integer>());
+	private volatile int importLimit = Integer.MAX_VALUE;
+	private volatile long importDelayMillis;
+
+	public StandInICW1000Server() throws IOException {
+		this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		this.executor = Executors.newCachedThreadPool();
+		server.setExecutor(executor);
+		server.createContext("/login.htm", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				connections.add(exchange.getRemoteAddress().getPort());
+				read(exchange.getRequestBody());
+				String session = UUID.randomUUID().toString();
+				sessions.add(session);
+				exchange.getResponseHeaders().add("Set-Cookie", "SESSION=" + session + "; Path=/");
+				respond(exchange, 200, "ok");
+			}
+		});
+		server.createContext("/pbimport.html", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				connections.add(exchange.getRemoteAddress().getPort());
+				String body = new String(read(exchange.getRequestBody()), StandardCharsets.UTF_8);
+				String cookie = exchange.getRequestHeaders().getFirst("Cookie");
+				if (cookie == null || !cookie.startsWith("SESSION=") || !sessions.contains(cookie.substring("SESSION=".length()))) {
+					respond(exchange, 403, "login first");
+					return;
+				}
+				if (importDelayMillis > 0) {
+					try {
+						Thread.sleep(importDelayMillis);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+				int rows = Math.min(importLimit, countRows(body));
+				imports.add(rows);
+				respond(exchange, 200, String.valueOf(rows));
+			}
+		});
+	}
+
+	public void start() {
+		server.start();
+	}
+
+	public void stop() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	/**
+	 * The password@ip:port argument for the connector.
+	 */
+	public String getConnection() {
+		return "stand-in@127.0.0.1:" + server.getAddress().getPort();
+	}
+
+	/**
+	 * The most entries a single import takes, like a full phonebook would.
+	 */
+	public void setImportLimit(int importLimit) {
+		this.importLimit = importLimit;
+	}
+
+	/**
+	 * How long the device takes to import a phonebook.
+	 */
+	public void setImportDelayMillis(long importDelayMillis) {
+		this.importDelayMillis = importDelayMillis;
+	}
+
+	/**
+	 * The number of entries of every import so far.
+	 */
+	public List<Integer> getImports() {
+		synchronized (imports) {
+			return new ArrayList<Integer>(imports);
+		}
+	}
+
+	public int getLogins() {
+		return sessions.size();
+	}
+
+	public int getConnections() {
+		return connections.size();
+	}
+
+	/**
+	 * The CSV rows of the uploaded file, less the header.
+	 */
+	private static int countRows(String body) {
+		int start = body.indexOf("\r\n\r\n", body.indexOf("filename="));
+		int end = body.lastIndexOf("\r\n--");
+		if (start == -1 || end < start) {
+			return 0;
+		}
+		String csv = body.substring(start + 4, end);
+		int rows = 0;
+		boolean quoted = false;
+		boolean content = false;
+		for (int i = 0; i < csv.length(); i++) {
+			char c = csv.charAt(i);
+			if (c == '"') {
+				quoted = !quoted;
+			}
+			if (c == '\n' && !quoted) {
+				rows += content ? 1 : 0;
+				content = false;
+			} else if (c != '\r') {
+				content = true;
+			}
+		}
+		rows += content ? 1 : 0;
+		return Math.max(0, rows - 1);
+	}
+
+	private static byte[] read(InputStream input) throws IOException {
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int read;
+		while ((read = input.read(buffer)) != -1) {
+			result.write(buffer, 0, read);
+		}
+		return result.toByteArray();
+	}
+
+	private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/html");
+		exchange.sendResponseHeaders(status, bytes.length);
+		OutputStream responseBody = exchange.getResponseBody();
+		responseBody.write(bytes);
+		responseBody.close();
+	}
+}
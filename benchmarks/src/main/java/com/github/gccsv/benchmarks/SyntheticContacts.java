@@ -0,0 +1,86 @@
+package com.github.gccsv.benchmarks;
+
+import com.google.gdata.data.PlainTextConstruct;
+import com.google.gdata.data.contacts.ContactEntry;
+import com.google.gdata.data.extensions.Email;
+import com.google.gdata.data.extensions.FormattedAddress;
+import com.google.gdata.data.extensions.PhoneNumber;
+import com.google.gdata.data.extensions.StructuredPostalAddress;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Deterministic, international looking contact names for the benchmarks.
+ */
+public final class SyntheticContacts {
+
+	private static final String[] FIRST_NAMES = { "João", "Maria", "José", "Ana", "François", "Hélène", "Jürgen", "Müller", "Søren", "Zoë",
+			"Łukasz", "Agnieszka", "Dvořák", "Ştefan", "Ömer", "Çağla", "Nuño", "Inés", "John", "Mary", "Peter", "Sarah", "Michael", "Emma",
+			"Олег", "Дмитрий", "Γιώργος", "Αθηνά", "Nguyễn", "Trần" };
+	private static final String[] LAST_NAMES = { "Gonçalves", "Conceição", "Brandão", "Simões", "Lefèvre", "Bérénice", "Schröder", "Größe",
+			"Kjærgaard", "Ångström", "Wałęsa", "Kościuszko", "Novák", "Popescu", "Yılmaz", "Özdemir", "Muñoz", "Peña", "Smith", "Johnson",
+			"Brown", "Taylor", "Wilson", "Davies", "Иванов", "Смирнов", "Παπαδόπουλος", "Οικονόμου", "Văn", "Thị" };
+	private static final String[] STREETS = { "Rua Augusta", "Avenida da Liberdade", "Rue de Rivoli", "Königsallee", "Nørrebrogade",
+			"ulica Piotrkowska", "Calle de Alcalá", "Baker Street", "Тверская улица", "Οδός Ερμού", "Đường Đồng Khởi", "İstiklal Caddesi" };
+	private static final String[] CITIES = { "1100-048 Lisboa\nPortugal", "75001 Paris\nFrance", "40212 Düsseldorf\nDeutschland",
+			"2200 København N\nDanmark", "90-001 Łódź\nPolska", "28014 Madrid\nEspaña", "London NW1 6XE\nUnited Kingdom",
+			"125009 Москва\nРоссия", "105 63 Αθήνα\nΕλλάδα", "Hồ Chí Minh\nViệt Nam", "34430 İstanbul\nTürkiye" };
+
+	private SyntheticContacts() {
+	}
+
+	public static String name(int index) {
+		return FIRST_NAMES[index % FIRST_NAMES.length] + " " + LAST_NAMES[(index / FIRST_NAMES.length) % LAST_NAMES.length];
+	}
+
+	/**
+	 * A multi-line postal address, quotes included, as people type them.
+	 */
+	public static String address(int index) {
+		return (index % 97 + 1) + " " + STREETS[index % STREETS.length] + (index % 5 == 0 ? ", \"Edifício Central\"" : "") + "\n"
+				+ CITIES[(index / STREETS.length) % CITIES.length];
+	}
+
+	/**
+	 * A contact with a name, two phone numbers, an email and the given number
+	 * of postal addresses, the last of which is the primary one.
+	 */
+	public static ContactEntry entry(int index, int addresses) {
+		ContactEntry entry = new ContactEntry();
+		entry.setId("http://www.google.com/m8/feeds/contacts/synthetic%40example.com/base/" + Integer.toHexString(index));
+		entry.setTitle(new PlainTextConstruct(name(index)));
+		PhoneNumber mobile = new PhoneNumber();
+		mobile.setRel("http://schemas.google.com/g/2005#mobile");
+		mobile.setPhoneNumber("+351 91" + (1000000 + index % 9000000));
+		entry.addPhoneNumber(mobile);
+		PhoneNumber work = new PhoneNumber();
+		work.setRel("http://schemas.google.com/g/2005#work");
+		work.setPhoneNumber("+44 20 7" + (1000000 + index % 9000000));
+		entry.addPhoneNumber(work);
+		Email email = new Email();
+		email.setRel("http://schemas.google.com/g/2005#home");
+		email.setAddress("contact" + index + "@example.com");
+		entry.addEmailAddress(email);
+		for (int i = 0; i < addresses; i++) {
+			StructuredPostalAddress address = new StructuredPostalAddress();
+			address.setRel("http://schemas.google.com/g/2005#home");
+			address.setFormattedAddress(new FormattedAddress(address(index + i)));
+			address.setPrimary(i == addresses - 1);
+			entry.addStructuredPostalAddress(address);
+		}
+		return entry;
+	}
+
+	/**
+	 * The given number of contacts. Only the first distinct ones are created,
+	 * and repeated for the rest, so that millions of contacts fit in the heap.
+	 */
+	public static List<ContactEntry> entries(int count, int distinct, int addresses) {
+		List<ContactEntry> entries = new ArrayList<ContactEntry>(count);
+		for (int i = 0; i < count; i++) {
+			entries.add(i < distinct ? entry(i, addresses) : entries.get(i % distinct));
+		}
+		return entries;
+	}
+}
@@ -0,0 +1,230 @@
+package com.github.gccsv;
+
+import com.google.api.client.googleapis.auth.oauth2.GoogleRefreshTokenRequest;
+import com.google.api.client.googleapis.auth.oauth2.GoogleTokenResponse;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.javanet.NetHttpTransport;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.jackson2.JacksonFactory;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * Keeps the OAuth v2 access token obtained from the stored refresh token, so
+ * that it is only refreshed when it is about to expire or when google rejects
+ * it. Optionally the access token is kept on disk, next to the refresh token,
+ * so subsequent runs can reuse it as well.
+ *
+ * Callers share a single refresh: whoever finds the token stale refreshes it
+ * while the others wait for the result.
+ */
+public class AccessTokenCache {
+
+	private static final String ACCESS_TOKEN_FILE = "at";
+	private static final long DEFAULT_EXPIRES_IN_SECONDS = 3600;
+	private static final long EXPIRY_MARGIN_MILLIS = 60 * 1000;
+
+	private final File refreshTokenStore;
+	private final File accessTokenStore;
+	private final String clientId;
+	private final String clientSecret;
+
+	private HttpTransport transport;
+	private JsonFactory jsonFactory;
+	private boolean persistent;
+	private boolean verbose;
+	private String tokenServerUrl;
+	private RunMetrics metrics = new RunMetrics();
+
+	private String refreshToken;
+	private String accessToken;
+	private long expiresAt;
+
+	public AccessTokenCache(String clientId, String clientSecret, File storeDir) {
+		this.clientId = clientId;
+		this.clientSecret = clientSecret;
+		this.refreshTokenStore = new File(storeDir, GCConnector.REFRESH_TOKEN_FILE);
+		this.accessTokenStore = new File(storeDir, ACCESS_TOKEN_FILE);
+	}
+
+	public void setVerbose(boolean verbose) {
+		this.verbose = verbose;
+	}
+
+	/**
+	 * Where to count the refreshes, as token.refresh and
+	 * token.refresh.failures.
+	 */
+	public void setMetrics(RunMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Whether the access token should be kept on disk between runs.
+	 */
+	public void setPersistent(boolean persistent) {
+		this.persistent = persistent;
+	}
+
+	/**
+	 * Overrides google's token endpoint, e.g. to use a local stand-in.
+	 */
+	public void setTokenServerUrl(String tokenServerUrl) {
+		this.tokenServerUrl = tokenServerUrl;
+	}
+
+	/**
+	 * Returns a valid access token, refreshing it only when there is none or
+	 * the one at hand is about to expire.
+	 */
+	public synchronized String getAccessToken() throws GoogleConnectorException {
+		if (accessToken == null && persistent) {
+			this.load();
+		}
+		if (accessToken == null || System.currentTimeMillis() >= expiresAt - EXPIRY_MARGIN_MILLIS) {
+			this.refresh();
+		} else if (verbose) {
+			System.out.println("Reusing cached access token.");
+		}
+		return accessToken;
+	}
+
+	/**
+	 * Discards the given token after google rejected it. If some other caller
+	 * already replaced it, the newer token is kept.
+	 */
+	public synchronized void invalidate(String rejectedToken) {
+		if (accessToken != null && accessToken.equals(rejectedToken)) {
+			if (verbose) {
+				System.out.println("Access token was rejected by google. Will request a new one.");
+			}
+			accessToken = null;
+			expiresAt = 0;
+			if (persistent) {
+				accessTokenStore.delete();
+			}
+		}
+	}
+
+	private void refresh() throws GoogleConnectorException {
+		if (refreshToken == null) {
+			refreshToken = this.readRefreshToken();
+		}
+		if (transport == null) {
+			transport = new NetHttpTransport();
+			jsonFactory = new JacksonFactory();
+		}
+
+		GoogleRefreshTokenRequest refreshTokenRequest = new GoogleRefreshTokenRequest(transport, jsonFactory, refreshToken, clientId, clientSecret);
+		if (tokenServerUrl != null) {
+			refreshTokenRequest.setTokenServerUrl(new GenericUrl(tokenServerUrl));
+		}
+		GoogleTokenResponse tokenResponse;
+		long start = System.nanoTime();
+		Object event = Tracing.beginTokenRefresh();
+		try {
+			tokenResponse = refreshTokenRequest.execute();
+			metrics.timer("token.refresh").recordSince(start);
+			Tracing.endTokenRefresh(event, null);
+		} catch (IOException e) {
+			metrics.counter("token.refresh.failures").increment();
+			Tracing.endTokenRefresh(event, e.getMessage());
+			if (verbose) {
+				System.err.println("Could not refresh the access token. Cause: " + e.getMessage());
+			}
+			throw new GoogleConnectorException("Could not acquire an access token from google", e);
+		}
+
+		Long expiresIn = tokenResponse.getExpiresInSeconds();
+		accessToken = tokenResponse.getAccessToken();
+		expiresAt = System.currentTimeMillis() + (expiresIn != null ? expiresIn : DEFAULT_EXPIRES_IN_SECONDS) * 1000;
+		if (verbose) {
+			System.out.printf("Got access token from google, valid for %d seconds.\n", (expiresAt - System.currentTimeMillis()) / 1000);
+		}
+
+		if (persistent) {
+			this.store();
+		}
+	}
+
+	private String readRefreshToken() throws GoogleConnectorException {
+		BufferedReader fileReader = null;
+		try {
+			fileReader = new BufferedReader(new FileReader(refreshTokenStore));
+			return fileReader.readLine();
+		} catch (IOException e) {
+			if (verbose) {
+				System.err.println("Could not read refresh token from store. Cause: " + e.getMessage());
+			}
+			throw new GoogleConnectorException("An error occurred reading a file", e);
+		} finally {
+			if (fileReader != null) {
+				try {
+					fileReader.close();
+				} catch (IOException e) {
+					// nothing else we can do
+				}
+			}
+		}
+	}
+
+	private void load() {
+		if (!accessTokenStore.exists()) {
+			return;
+		}
+		BufferedReader fileReader = null;
+		try {
+			fileReader = new BufferedReader(new FileReader(accessTokenStore));
+			String token = fileReader.readLine();
+			String expiry = fileReader.readLine();
+			if (token != null && expiry != null) {
+				accessToken = token;
+				expiresAt = Long.parseLong(expiry.trim());
+				if (verbose) {
+					System.out.println("Loaded access token from " + accessTokenStore);
+				}
+			}
+		} catch (IOException e) {
+			if (verbose) {
+				System.err.println("Could not read access token from store, will request a new one. Cause: " + e.getMessage());
+			}
+		} catch (NumberFormatException e) {
+			if (verbose) {
+				System.err.println("Ignoring malformed access token store " + accessTokenStore);
+			}
+		} finally {
+			if (fileReader != null) {
+				try {
+					fileReader.close();
+				} catch (IOException e) {
+					// nothing else we can do
+				}
+			}
+		}
+	}
+
+	private void store() {
+		PrintWriter fileWriter = null;
+		try {
+			GCConnector.createPrivateFile(accessTokenStore);
+			fileWriter = new PrintWriter(accessTokenStore);
+			fileWriter.println(accessToken);
+			fileWriter.println(expiresAt);
+		} catch (IOException e) {
+			// the token is still good for this run
+			if (verbose) {
+				System.err.println("Could not write access token to store. Cause: " + e.getMessage());
+			}
+		} finally {
+			if (fileWriter != null) {
+				fileWriter.flush();
+				fileWriter.close();
+			}
+		}
+	}
+}
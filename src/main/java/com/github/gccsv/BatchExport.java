@@ -0,0 +1,326 @@
+package com.github.gccsv;
+
+import com.github.gccsv.output.CVSWriterException;
+import com.github.gccsv.output.IncomICW1000GConnectorException;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.ParseException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs many exports, e.g. of many accounts, in one go. The batch file has
+ * one export per line, with the options of a single export, quoted as in a
+ * shell. Blank lines and lines starting with # are skipped.
+ *
+ * The exports run on a bounded pool of threads, which also render their
+ * pages, and all fetch their pages from a single shared pool. An export that
+ * fails does not stop the others, and the status of every export is printed
+ * at the end.
+ */
+public class BatchExport {
+	static final int DEFAULT_THREADS = 4;
+
+	private final String file;
+	private final int threads;
+	private final int fetchThreads;
+	private final boolean verbose;
+	private final String reportFile;
+	// kept between the runs of a daemon
+	private List<Job> jobs;
+	private ExecutorService fetchExecutor;
+	private ExecutorService executor;
+
+	public BatchExport(CommandLine commandLine) {
+		this.file = commandLine.getOptionValue("batch");
+		this.threads = commandLine.hasOption("batch-threads") ? new Integer(commandLine.getOptionValue("batch-threads")) : DEFAULT_THREADS;
+		this.fetchThreads = commandLine.hasOption("fetch-threads") ? new Integer(commandLine.getOptionValue("fetch-threads")) : threads;
+		this.verbose = commandLine.hasOption("v");
+		this.reportFile = commandLine.getOptionValue("report");
+	}
+
+	/**
+	 * Runs all the exports and returns whether all succeeded.
+	 */
+	public boolean run() throws GCCSVException {
+		if (jobs == null) {
+			if (System.getProperty("http.maxConnections") == null) {
+				// let every fetch thread keep its connection alive
+				System.setProperty("http.maxConnections", String.valueOf(fetchThreads));
+			}
+			fetchExecutor = Executors.newFixedThreadPool(fetchThreads, threadFactory("batch-fetch"));
+			executor = Executors.newFixedThreadPool(threads, threadFactory("batch-export"));
+			jobs = this.readJobs();
+			for (Job job : jobs) {
+				if (job.invalid == null) {
+					job.main = new Main(job.commandLine);
+					job.main.setFetchExecutor(fetchExecutor, fetchThreads);
+					// the exports share the console, so none can ask the user
+					job.main.setInteractive(false);
+				}
+			}
+		}
+		if (verbose) {
+			System.out.printf("Running %d exports with %d threads, fetching with %d threads\n", jobs.size(), threads, fetchThreads);
+		}
+		long startMillis = System.currentTimeMillis();
+		long start = System.nanoTime();
+		try {
+			List<Future<?>> futures = new ArrayList<Future<?>>();
+			for (final Job job : jobs) {
+				job.failure = job.invalid;
+				if (job.invalid != null) {
+					continue;
+				}
+				futures.add(executor.submit(new Callable<Void>() {
+					public Void call() {
+						job.run();
+						return null;
+					}
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new GCCSVException("Interrupted while running the batch", e);
+		} catch (ExecutionException e) {
+			throw new GCCSVException("Could not run the batch", e);
+		}
+		boolean succeeded = this.report(jobs, (System.nanoTime() - start) / 1000000);
+		if (reportFile != null) {
+			this.writeReport(startMillis);
+		}
+		return succeeded;
+	}
+
+	public void close() {
+		if (jobs != null) {
+			executor.shutdownNow();
+			fetchExecutor.shutdownNow();
+		}
+	}
+
+	private List<Job> readJobs() throws GCCSVException {
+		List<String> lines;
+		try {
+			lines = Files.readAllLines(Paths.get(file));
+		} catch (IOException e) {
+			throw new GCCSVException("Invalid batch file: " + file, e);
+		}
+		List<Job> jobs = new ArrayList<Job>();
+		Map<String, Integer> storageDirs = new HashMap<String, Integer>();
+		Map<String, Integer> outputFiles = new HashMap<String, Integer>();
+		if (reportFile != null) {
+			outputFiles.put(normalize(reportFile), 0);
+		}
+		for (int i = 0; i < lines.size(); i++) {
+			String line = lines.get(i).trim();
+			if (line.isEmpty() || line.startsWith("#")) {
+				continue;
+			}
+			Job job = new Job(i + 1);
+			jobs.add(job);
+			try {
+				job.commandLine = Main.parseJobOptions(split(line));
+			} catch (ParseException e) {
+				job.invalid = e.getMessage();
+				continue;
+			}
+			if (job.commandLine.hasOption("batch") || job.commandLine.hasOption("daemon")) {
+				job.invalid = "batch and daemon cannot be used in a batch file";
+				continue;
+			}
+			job.name = job.commandLine.getOptionValue("d");
+			// the tokens and the snapshot of a storage dir belong to one export
+			Integer other = storageDirs.put(normalize(job.name), job.line);
+			if (other != null) {
+				job.invalid = String.format("storage-dir is already used by line %d", other);
+				continue;
+			}
+			// nor can two exports write the same file
+			Map<String, Integer> files = new HashMap<String, Integer>();
+			for (String option : new String[] { "f", "delta-file", "report" }) {
+				if (!job.commandLine.hasOption(option)) {
+					continue;
+				}
+				String path = job.commandLine.getOptionValue(option);
+				other = outputFiles.get(normalize(path));
+				if (other == null) {
+					other = files.put(normalize(path), job.line);
+				}
+				if (other != null) {
+					if (other == 0) {
+						job.invalid = String.format("%s is already the report of the batch", path);
+					} else if (other == job.line) {
+						job.invalid = String.format("%s is given for two outputs", path);
+					} else {
+						job.invalid = String.format("%s is already written by line %d", path, other);
+					}
+					break;
+				}
+			}
+			if (job.invalid == null) {
+				outputFiles.putAll(files);
+			}
+		}
+		return jobs;
+	}
+
+	private static String normalize(String path) {
+		return Paths.get(path).toAbsolutePath().normalize().toString();
+	}
+
+	private boolean report(List<Job> jobs, long millis) {
+		int failed = 0;
+		int contacts = 0;
+		System.out.printf("\nBatch exports:\n");
+		for (Job job : jobs) {
+			contacts += job.exported;
+			if (job.failure == null) {
+				System.out.printf("\tline %-4d %-30s OK     %8d contacts %7d ms\n", job.line, job.name, job.exported, job.millis);
+			} else {
+				failed++;
+				System.out.printf("\tline %-4d %-30s FAILED %8d contacts %7d ms: %s\n", job.line, job.name, job.exported, job.millis, job.failure);
+			}
+		}
+		System.out.printf("%d of %d exports succeeded, %d contacts in %d ms\n", jobs.size() - failed, jobs.size(), contacts, millis);
+		return failed == 0;
+	}
+
+	/**
+	 * Writes the report of the batch, with the report of every export.
+	 */
+	private void writeReport(long startMillis) {
+		int failed = 0;
+		List<Map<String, Object>> exports = new ArrayList<Map<String, Object>>();
+		for (Job job : jobs) {
+			if (job.failure != null) {
+				failed++;
+			}
+			Map<String, Object> export;
+			if (job.report != null) {
+				export = job.report.toMap();
+			} else {
+				export = new RunReport(startMillis, startMillis, job.failure).toMap();
+				export.put("storage_dir", job.name);
+			}
+			export.put("line", job.line);
+			exports.add(export);
+		}
+		RunReport report = new RunReport(startMillis, System.currentTimeMillis(), failed == 0 ? null : String.format("%d of %d exports failed",
+				failed, jobs.size()));
+		report.put("exports", exports);
+		try {
+			report.write(new File(reportFile));
+		} catch (IOException e) {
+			System.err.println("Could not write the batch report. Cause: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Splits a line into arguments at whitespace outside single or double
+	 * quotes.
+	 */
+	static String[] split(String line) {
+		List<String> args = new ArrayList<String>();
+		StringBuilder arg = new StringBuilder();
+		boolean inArg = false;
+		char quote = 0;
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (quote != 0) {
+				if (c == quote) {
+					quote = 0;
+				} else {
+					arg.append(c);
+				}
+			} else if (c == '"' || c == '\'') {
+				quote = c;
+				inArg = true;
+			} else if (Character.isWhitespace(c)) {
+				if (inArg) {
+					args.add(arg.toString());
+					arg.setLength(0);
+					inArg = false;
+				}
+			} else {
+				arg.append(c);
+				inArg = true;
+			}
+		}
+		if (inArg) {
+			args.add(arg.toString());
+		}
+		return args.toArray(new String[args.size()]);
+	}
+
+	private static ThreadFactory threadFactory(final String name) {
+		final AtomicInteger count = new AtomicInteger();
+		return new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+
+	private static class Job {
+		final int line;
+		String name = "";
+		CommandLine commandLine;
+		Main main;
+		String invalid;
+		String failure;
+		RunReport report;
+		int exported;
+		long millis;
+
+		Job(int line) {
+			this.line = line;
+		}
+
+		void run() {
+			long start = System.nanoTime();
+			Exception cause = null;
+			try {
+				main.execute();
+			} catch (GoogleConnectorException e) {
+				cause = e;
+			} catch (CVSWriterException e) {
+				cause = e;
+			} catch (IncomICW1000GConnectorException e) {
+				cause = e;
+			} catch (GCCSVException e) {
+				cause = e;
+			} catch (RuntimeException e) {
+				cause = e;
+			}
+			if (cause != null) {
+				failure = cause.getMessage() != null ? cause.getMessage() : cause.toString();
+				if (commandLine.hasOption("v")) {
+					System.err.printf("Export of line %d failed:\n", line);
+					cause.printStackTrace();
+				}
+			}
+			exported = main.getExported();
+			report = main.getReport();
+			millis = (System.nanoTime() - start) / 1000000;
+		}
+	}
+}
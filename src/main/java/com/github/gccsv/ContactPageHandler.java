@@ -0,0 +1,14 @@
+package com.github.gccsv;
+
+import com.google.gdata.data.contacts.ContactEntry;
+
+import java.util.List;
+
+/**
+ * Receives the contacts page by page, in feed order, as they are read from
+ * google. Pages are not kept after the handler returns.
+ */
+public interface ContactPageHandler {
+
+	void handlePage(List<ContactEntry> page) throws GCCSVException;
+}
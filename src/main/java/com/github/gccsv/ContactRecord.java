@@ -0,0 +1,180 @@
+package com.github.gccsv;
+
+import com.github.gccsv.output.ColumnPlan;
+import com.google.gdata.data.DateTime;
+import com.google.gdata.data.PlainTextConstruct;
+import com.google.gdata.data.contacts.ContactEntry;
+import com.google.gdata.data.extensions.Email;
+import com.google.gdata.data.extensions.PhoneNumber;
+import com.google.gdata.data.extensions.PostalAddress;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The part of a contact that can be written to the CSV, i.e. what the
+ * {@link GC_FIELD}s map, plus what is needed to keep it in sync. Records are
+ * stored in a compact binary form: numbers and varint length-prefixed UTF-8
+ * strings.
+ */
+public class ContactRecord {
+
+	private String id;
+	private String etag;
+	private long updated;
+	private boolean deleted;
+	private String name;
+	private List<String> phoneNumbers = new ArrayList<String>();
+	private List<String> emails = new ArrayList<String>();
+	private String address;
+
+	public static ContactRecord fromEntry(ContactEntry entry) {
+		ContactRecord record = new ContactRecord();
+		record.id = entry.getId();
+		record.etag = entry.getEtag();
+		record.updated = entry.getUpdated() != null ? entry.getUpdated().getValue() : 0;
+		record.deleted = entry.hasDeleted();
+		record.name = entry.getTitle() != null ? entry.getTitle().getPlainText() : null;
+		for (PhoneNumber phoneNumber : entry.getPhoneNumbers()) {
+			record.phoneNumbers.add(phoneNumber.getPhoneNumber());
+		}
+		for (Email email : entry.getEmailAddresses()) {
+			record.emails.add(email.getAddress());
+		}
+		record.address = ColumnPlan.readAddress(entry);
+		return record;
+	}
+
+	/**
+	 * Rebuilds an entry that renders to the same CSV row as the one the record
+	 * was made from.
+	 */
+	public ContactEntry toEntry() {
+		ContactEntry entry = new ContactEntry();
+		entry.setId(id);
+		entry.setEtag(etag);
+		entry.setUpdated(new DateTime(updated, 0));
+		entry.setTitle(new PlainTextConstruct(name));
+		for (String number : phoneNumbers) {
+			PhoneNumber phoneNumber = new PhoneNumber();
+			phoneNumber.setPhoneNumber(number);
+			entry.addPhoneNumber(phoneNumber);
+		}
+		for (String address : emails) {
+			Email email = new Email();
+			email.setAddress(address);
+			entry.addEmailAddress(email);
+		}
+		if (address == null || address.length() != 0) {
+			PostalAddress postalAddress = new PostalAddress();
+			postalAddress.setValue(address);
+			postalAddress.setPrimary(true);
+			entry.addPostalAddress(postalAddress);
+		}
+		return entry;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public String getEtag() {
+		return etag;
+	}
+
+	public long getUpdated() {
+		return updated;
+	}
+
+	public boolean isDeleted() {
+		return deleted;
+	}
+
+	public void write(DataOutput output) throws IOException {
+		writeString(output, id);
+		writeString(output, etag);
+		output.writeLong(updated);
+		writeString(output, name);
+		writeStrings(output, phoneNumbers);
+		writeStrings(output, emails);
+		writeString(output, address);
+	}
+
+	/**
+	 * Reads a record written by {@link #write(DataOutput)} from the current
+	 * position of the buffer.
+	 */
+	public static ContactRecord read(ByteBuffer input) {
+		ContactRecord record = new ContactRecord();
+		record.id = readString(input);
+		record.etag = readString(input);
+		record.updated = input.getLong();
+		record.name = readString(input);
+		readStrings(input, record.phoneNumbers);
+		readStrings(input, record.emails);
+		record.address = readString(input);
+		return record;
+	}
+
+	/**
+	 * UTF-8 prefixed with its length plus one as a varint, 0 standing for
+	 * null. Unlike {@link DataOutput#writeUTF(String)} there is no 64k limit.
+	 */
+	static void writeString(DataOutput output, String value) throws IOException {
+		if (value == null) {
+			output.writeByte(0);
+		} else {
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			writeVarInt(output, bytes.length + 1);
+			output.write(bytes);
+		}
+	}
+
+	static String readString(ByteBuffer input) {
+		int length = readVarInt(input) - 1;
+		if (length == -1) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		input.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static void writeVarInt(DataOutput output, int value) throws IOException {
+		while ((value & ~0x7F) != 0) {
+			output.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		output.writeByte(value);
+	}
+
+	private static int readVarInt(ByteBuffer input) {
+		int value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = input.get();
+			value |= (b & 0x7F) << shift;
+			shift += 7;
+		} while (b < 0);
+		return value;
+	}
+
+	private static void writeStrings(DataOutput output, List<String> values) throws IOException {
+		writeVarInt(output, values.size());
+		for (String value : values) {
+			writeString(output, value);
+		}
+	}
+
+	private static void readStrings(ByteBuffer input, List<String> values) {
+		int size = readVarInt(input);
+		for (int i = 0; i < size; i++) {
+			values.add(readString(input));
+		}
+	}
+}
@@ -0,0 +1,515 @@
+package com.github.gccsv;
+
+import com.google.gdata.data.DateTime;
+import com.google.gdata.data.contacts.ContactEntry;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The contacts of the last read, kept in the storage dir so that they can be
+ * exported again without google. Only what the {@link GC_FIELD}s can map is
+ * kept, as {@link ContactRecord}s, after a header with the query they were
+ * read with, the time google served them, by google's clock, and the time
+ * they were read, by ours.
+ *
+ * The snapshot is replaced atomically once a read completes, and read back
+ * with a single sequential scan of a memory mapping of the file. Until then
+ * it is written next to it, saved after every page, so that a read that
+ * failed can be resumed from the last page saved.
+ */
+public class ContactSnapshot {
+
+	static final String SNAPSHOT_FILE = "snapshot";
+	private static final int MAGIC = 0x47435331;
+	private static final int VERSION = 2;
+
+	private final File file;
+	private final File partial;
+	private boolean verbose;
+
+	public ContactSnapshot(File storeDir) {
+		this.file = new File(storeDir, SNAPSHOT_FILE);
+		this.partial = new File(file.getPath() + ".tmp");
+	}
+
+	public void setVerbose(boolean verbose) {
+		this.verbose = verbose;
+	}
+
+	public boolean exists() {
+		return file.isFile();
+	}
+
+	/**
+	 * Reads all the contacts with the connector, passing them on to the
+	 * handler and saving them as the new snapshot.
+	 */
+	public void readContacts(GCConnector connector, ContactPageHandler handler) throws GoogleConnectorException, GCCSVException {
+		this.readContacts(connector, handler, false);
+	}
+
+	/**
+	 * Reads all the contacts with the connector, passing them on to the
+	 * handler and saving them as the new snapshot.
+	 *
+	 * A resumed read goes on from an offset, which only holds the same
+	 * contacts if none before it was added or deleted since the read that
+	 * failed. It therefore starts at the last contact saved, and the contacts
+	 * saved are only passed on if google still has that contact there, with
+	 * the same etag. Otherwise all the contacts are read again. Changes to
+	 * the contacts saved before it are only picked up by the next read.
+	 *
+	 * @param resume
+	 *             whether to pass on the contacts saved by a read of the same
+	 *             query that failed, and only read the ones after them
+	 */
+	public void readContacts(final GCConnector connector, final ContactPageHandler handler, boolean resume) throws GoogleConnectorException,
+			GCCSVException {
+		final String queryKey = connector.getQueryKey();
+		final Reader saved = resume ? this.openPartial(queryKey) : null;
+		final ContactRecord last = saved != null ? this.readLast() : null;
+		final Writer[] writer = { saved == null ? this.create(queryKey) : null };
+		// a resumed read keeps the time of its first page, the oldest
+		final long[] checkpoint = { saved == null ? 0 : saved.getCheckpoint() };
+		final boolean[] changed = { false };
+		ContactPageHandler saving = new ContactPageHandler() {
+			public void handlePage(List<ContactEntry> page) throws GCCSVException {
+				if (writer[0] == null) {
+					// the first page starts with the last contact saved
+					ContactRecord first = page.isEmpty() ? null : ContactRecord.fromEntry(page.get(0));
+					if (first == null || !isSame(first, last)) {
+						changed[0] = true;
+						throw new GCCSVException("The contacts changed since the read to resume", null);
+					}
+					writer[0] = resume(saved, handler, connector.getPageSize());
+					page = page.subList(1, page.size());
+				}
+				for (ContactEntry entry : page) {
+					writer[0].add(ContactRecord.fromEntry(entry));
+				}
+				DateTime feedUpdated = connector.getFeedUpdated();
+				if (checkpoint[0] == 0 && feedUpdated != null) {
+					checkpoint[0] = feedUpdated.getValue();
+				}
+				writer[0].save(checkpoint[0]);
+				handler.handlePage(page);
+			}
+		};
+		boolean completed = false;
+		try {
+			if (saved == null) {
+				connector.readContacts(saving, 1);
+			} else {
+				try {
+					connector.readContacts(saving, saved.getCount());
+				} catch (GCCSVException e) {
+					if (!changed[0]) {
+						throw e;
+					}
+					if (verbose) {
+						System.out.println("The contacts changed since the read that failed. Reading all the contacts.");
+					}
+					writer[0] = this.create(queryKey);
+					checkpoint[0] = 0;
+					connector.readContacts(saving, 1);
+				}
+			}
+			writer[0].commit(checkpoint[0]);
+			completed = true;
+		} finally {
+			if (!completed && writer[0] != null) {
+				writer[0].close();
+			}
+		}
+	}
+
+	/**
+	 * The contacts saved by a read of the given query that failed, or null if
+	 * there are none.
+	 */
+	private Reader openPartial(String queryKey) {
+		Reader reader = null;
+		if (partial.isFile()) {
+			try {
+				reader = new Reader(partial);
+			} catch (IOException e) {
+				if (verbose) {
+					System.err.println("Could not read the contacts to resume from. Cause: " + e.getMessage());
+				}
+			}
+		}
+		if (reader == null || !queryKey.equals(reader.getQueryKey()) || reader.getCount() == 0) {
+			if (verbose) {
+				System.out.println("No contacts to resume from. Reading all the contacts.");
+			}
+			return null;
+		}
+		return reader;
+	}
+
+	private static boolean isSame(ContactRecord record, ContactRecord other) {
+		return record.getId().equals(other.getId()) && String.valueOf(record.getEtag()).equals(String.valueOf(other.getEtag()));
+	}
+
+	/**
+	 * The last contact saved by a read that failed.
+	 */
+	private ContactRecord readLast() throws GCCSVException {
+		Reader reader;
+		try {
+			reader = new Reader(partial);
+		} catch (IOException e) {
+			throw new GCCSVException("An error occurred reading the contacts snapshot", e);
+		}
+		ContactRecord last = null;
+		while (reader.hasNext()) {
+			last = reader.next();
+		}
+		return last;
+	}
+
+	/**
+	 * Passes the contacts saved by a read that failed on to the handler and
+	 * returns the writer to go on with.
+	 */
+	private Writer resume(Reader reader, ContactPageHandler handler, int pageSize) throws GCCSVException {
+		if (verbose) {
+			System.out.printf("Resuming after the %d contacts already read\n", reader.getCount());
+		}
+		this.replay(reader, handler, pageSize);
+		try {
+			return new Writer(reader);
+		} catch (IOException e) {
+			if (verbose) {
+				System.err.println("Could not resume the contacts snapshot. Cause: " + e.getMessage());
+			}
+			throw new GCCSVException("An error occurred writing the contacts snapshot", e);
+		}
+	}
+
+	/**
+	 * Passes the contacts of the snapshot on to the handler, in pages of the
+	 * given size. The snapshot has to have been read with all the given
+	 * fields, as the others were neither asked for nor kept.
+	 */
+	public void replay(ContactPageHandler handler, int pageSize, Collection<GC_FIELD> fields) throws GCCSVException {
+		Reader reader = this.openReplay(fields);
+		if (verbose) {
+			System.out.printf("Replaying %d contacts read on %s with %s\n", reader.getCount(), new DateTime(reader.getCheckpoint(), 0),
+					reader.getQueryKey());
+		}
+		this.replay(reader, handler, pageSize);
+	}
+
+	/**
+	 * Fails like {@link #replay(ContactPageHandler, int, Collection)} would
+	 * if there is no snapshot or it was read without some of the fields,
+	 * e.g. to find out before opening the outputs.
+	 */
+	public void checkReplay(Collection<GC_FIELD> fields) throws GCCSVException {
+		this.openReplay(fields);
+	}
+
+	private Reader openReplay(Collection<GC_FIELD> fields) throws GCCSVException {
+		if (!this.exists()) {
+			throw new GCCSVException("No contacts snapshot found at " + file.getPath() + " - export from google first", null);
+		}
+		Reader reader = this.open();
+		Set<GC_FIELD> missing = missingFields(reader.getQueryKey(), fields);
+		if (!missing.isEmpty()) {
+			throw new GCCSVException(String.format("The contacts snapshot at %s was read without the fields %s - export from google with this mapping first",
+					file.getPath(), missing), null);
+		}
+		return reader;
+	}
+
+	/**
+	 * The given fields that the query key, see
+	 * {@link GCConnector#getQueryKey()}, does not read.
+	 */
+	private static Set<GC_FIELD> missingFields(String queryKey, Collection<GC_FIELD> fields) {
+		Set<GC_FIELD> missing = EnumSet.noneOf(GC_FIELD.class);
+		int start = queryKey.indexOf("fields=");
+		// snapshots from before fields could be chosen have all of them
+		String read = start == -1 ? "all" : queryKey.substring(start + "fields=".length());
+		if ("all".equals(read)) {
+			return missing;
+		}
+		List<String> names = Arrays.asList(read.replace("[", "").replace("]", "").split(", "));
+		for (GC_FIELD field : fields) {
+			if (field != GC_FIELD.NONE && !names.contains(field.name())) {
+				missing.add(field);
+			}
+		}
+		return missing;
+	}
+
+	private void replay(Reader reader, ContactPageHandler handler, int pageSize) throws GCCSVException {
+		List<ContactEntry> page = new ArrayList<ContactEntry>(pageSize);
+		while (reader.hasNext()) {
+			page.add(reader.next().toEntry());
+			if (page.size() == pageSize) {
+				handler.handlePage(page);
+				page = new ArrayList<ContactEntry>(pageSize);
+			}
+		}
+		if (!page.isEmpty()) {
+			handler.handlePage(page);
+		}
+	}
+
+	/**
+	 * Starts a new snapshot, which replaces the current one once committed.
+	 */
+	public Writer create(String queryKey) throws GCCSVException {
+		return this.create(queryKey, System.currentTimeMillis());
+	}
+
+	/**
+	 * Starts a new snapshot of contacts read at the given time, which
+	 * replaces the current one once committed.
+	 */
+	public Writer create(String queryKey, long readAt) throws GCCSVException {
+		try {
+			return new Writer(queryKey, readAt);
+		} catch (IOException e) {
+			if (verbose) {
+				System.err.println("Could not create the contacts snapshot. Cause: " + e.getMessage());
+			}
+			throw new GCCSVException("An error occurred writing the contacts snapshot", e);
+		}
+	}
+
+	public Reader open() throws GCCSVException {
+		try {
+			return new Reader(file);
+		} catch (IOException e) {
+			if (verbose) {
+				System.err.println("Could not read the contacts snapshot. Cause: " + e.getMessage());
+			}
+			throw new GCCSVException("An error occurred reading the contacts snapshot", e);
+		}
+	}
+
+	public class Writer {
+		private final File temporary;
+		private final RandomAccessFile output;
+		private final DataOutputStream records;
+		private final long checkpointOffset;
+		private long checkpoint;
+		private int count;
+
+		private Writer(String queryKey, long readAt) throws IOException {
+			temporary = partial;
+			GCConnector.createPrivateFile(temporary);
+			output = new RandomAccessFile(temporary, "rw");
+			output.setLength(0);
+			records = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(output.getChannel()), 1 << 16));
+			records.writeInt(MAGIC);
+			records.writeInt(VERSION);
+			records.writeLong(readAt);
+			ContactRecord.writeString(records, queryKey);
+			checkpointOffset = records.size();
+			// checkpoint and count, filled in on commit
+			records.writeLong(0);
+			records.writeInt(0);
+		}
+
+		/**
+		 * Goes on after the contacts of the reader, which read all of them.
+		 * Contacts added after the last save are dropped.
+		 */
+		private Writer(Reader saved) throws IOException {
+			temporary = partial;
+			output = new RandomAccessFile(temporary, "rw");
+			if (output.length() > saved.getPosition()) {
+				output.setLength(saved.getPosition());
+			}
+			output.seek(saved.getPosition());
+			records = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(output.getChannel()), 1 << 16));
+			checkpointOffset = saved.checkpointOffset;
+			checkpoint = saved.getCheckpoint();
+			count = saved.getCount();
+		}
+
+		public void add(ContactRecord record) throws GCCSVException {
+			try {
+				record.write(records);
+				count++;
+			} catch (IOException e) {
+				throw failure(e);
+			}
+		}
+
+		/**
+		 * Writes the contacts added so far to the file and records their
+		 * number, so that they are kept if the read fails.
+		 *
+		 * @param checkpoint
+		 *             the time google served the contacts, in milliseconds
+		 */
+		public void save(long checkpoint) throws GCCSVException {
+			try {
+				records.flush();
+				ByteBuffer header = ByteBuffer.allocate(12);
+				header.putLong(checkpoint).putInt(count).flip();
+				FileChannel channel = output.getChannel();
+				while (header.hasRemaining()) {
+					channel.write(header, checkpointOffset + header.position());
+				}
+				this.checkpoint = checkpoint;
+			} catch (IOException e) {
+				throw failure(e);
+			}
+		}
+
+		/**
+		 * @param checkpoint
+		 *             the time google served the contacts, in milliseconds
+		 */
+		public void commit(long checkpoint) throws GCCSVException {
+			try {
+				records.flush();
+				output.seek(checkpointOffset);
+				output.writeLong(checkpoint);
+				output.writeInt(count);
+				output.close();
+				try {
+					Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				} catch (AtomicMoveNotSupportedException e) {
+					Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+				}
+			} catch (IOException e) {
+				this.abort();
+				throw failure(e);
+			}
+			if (verbose) {
+				System.out.printf("Stored a snapshot of %d contacts\n", count);
+			}
+		}
+
+		public void abort() {
+			this.close();
+			temporary.delete();
+		}
+
+		/**
+		 * Stops writing, keeping the contacts saved so far to resume from.
+		 */
+		public void close() {
+			try {
+				output.close();
+			} catch (IOException e) {
+				// nothing else we can do
+			}
+		}
+
+		private GCCSVException failure(IOException e) {
+			if (verbose) {
+				System.err.println("Could not write the contacts snapshot. Cause: " + e.getMessage());
+			}
+			return new GCCSVException("An error occurred writing the contacts snapshot", e);
+		}
+	}
+
+	public class Reader {
+		private final File source;
+		private final ByteBuffer buffer;
+		private final String queryKey;
+		private final long readAt;
+		private final int checkpointOffset;
+		private final long checkpoint;
+		private final int count;
+		private int read;
+
+		private Reader(File source) throws IOException {
+			this.source = source;
+			RandomAccessFile input = new RandomAccessFile(source, "r");
+			try {
+				// the mapping stays valid once the file is closed
+				buffer = input.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, input.length());
+			} finally {
+				input.close();
+			}
+			try {
+				if (buffer.getInt() != MAGIC) {
+					throw new IOException("Not a contacts snapshot: " + source.getPath());
+				}
+				int version = buffer.getInt();
+				if (version != 1 && version != VERSION) {
+					throw new IOException("Not a contacts snapshot: " + source.getPath());
+				}
+				// the first version did not keep when the contacts were read
+				long time = version == 1 ? -1 : buffer.getLong();
+				queryKey = ContactRecord.readString(buffer);
+				checkpointOffset = buffer.position();
+				checkpoint = buffer.getLong();
+				count = buffer.getInt();
+				readAt = time == -1 ? checkpoint : time;
+			} catch (BufferUnderflowException e) {
+				throw new IOException("Not a contacts snapshot: " + source.getPath(), e);
+			}
+		}
+
+		public String getQueryKey() {
+			return queryKey;
+		}
+
+		/**
+		 * The time google served the contacts, in milliseconds.
+		 */
+		public long getCheckpoint() {
+			return checkpoint;
+		}
+
+		/**
+		 * When the contacts were read, by the local clock, in milliseconds.
+		 */
+		public long getReadAt() {
+			return readAt;
+		}
+
+		public int getCount() {
+			return count;
+		}
+
+		public boolean hasNext() {
+			return read < count;
+		}
+
+		public ContactRecord next() throws GCCSVException {
+			try {
+				ContactRecord record = ContactRecord.read(buffer);
+				read++;
+				return record;
+			} catch (RuntimeException e) {
+				// a truncated or corrupt file underflows the buffer
+				throw new GCCSVException("The contacts snapshot is corrupt: " + source.getPath(), e);
+			}
+		}
+
+		/**
+		 * Where the next contact starts in the file.
+		 */
+		private long getPosition() {
+			return buffer.position();
+		}
+	}
+}
@@ -0,0 +1,151 @@
+package com.github.gccsv;
+
+import com.google.api.client.googleapis.auth.oauth2.GoogleCredential;
+import com.google.gdata.client.Query;
+import com.google.gdata.client.contacts.ContactsService;
+import com.google.gdata.data.ParseSource;
+import com.google.gdata.data.contacts.ContactFeed;
+import com.google.gdata.util.AuthenticationException;
+import com.google.gdata.util.ServiceException;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The state needed to query the contacts feed, created once per connector
+ * and shared by all the page queries: the contacts service (and the extension
+ * profile it builds), the OAuth credential and the feed URL.
+ *
+ * Sharing it saves every page from building the extension profile of the
+ * contacts service, which loads and initializes most of gdata, and from
+ * setting up the credential again; the credential only changes when the
+ * access token does.
+ */
+public class ContactsSession {
+
+	private final ContactsService contactsService;
+	private final GoogleCredential credential;
+	private final AccessTokenCache tokenCache;
+	private final URL feedUrl;
+	private boolean verbose;
+	private volatile LongAdder bytes = new LongAdder();
+	private final ThreadLocal<long[]> lastBytes = new ThreadLocal<long[]>() {
+		@Override
+		protected long[] initialValue() {
+			return new long[1];
+		}
+	};
+
+	public ContactsSession(URL feedUrl, AccessTokenCache tokenCache) {
+		this.feedUrl = feedUrl;
+		this.tokenCache = tokenCache;
+		this.credential = new GoogleCredential();
+		this.contactsService = new ContactsService("gc-csv") {
+			@Override
+			public <E> E parseResponseData(GDataRequest request, Class<E> resultType) throws IOException, ServiceException {
+				// count the bytes of the feed as they are parsed
+				CountingInputStream in = new CountingInputStream(request.getResponseStream());
+				try {
+					return parseResponseData(new ParseSource(in), request.getResponseContentType(), resultType);
+				} finally {
+					bytes.add(in.count);
+					lastBytes.get()[0] = in.count;
+				}
+			}
+		};
+		this.contactsService.setOAuth2Credentials(credential);
+	}
+
+	public void setVerbose(boolean verbose) {
+		this.verbose = verbose;
+	}
+
+	/**
+	 * Parses the feeds with only the extensions of the given fields.
+	 */
+	public void setFields(FeedFields fields) {
+		this.contactsService.setExtensionProfile(fields.createExtensionProfile());
+	}
+
+	/**
+	 * Where to count the bytes of the feeds read, as fetch.bytes.
+	 */
+	public void setMetrics(RunMetrics metrics) {
+		this.bytes = metrics.counter("fetch.bytes");
+	}
+
+	/**
+	 * The size of the last feed read by the calling thread.
+	 */
+	public long getLastBytes() {
+		return lastBytes.get()[0];
+	}
+
+	public URL getFeedUrl() {
+		return feedUrl;
+	}
+
+	/**
+	 * Runs the query with the cached access token. If google rejects the token
+	 * it is refreshed and the query is retried once.
+	 */
+	public ContactFeed query(Query query) throws GoogleConnectorException, IOException, ServiceException {
+		String at = this.authorize();
+		try {
+			return contactsService.query(query, ContactFeed.class);
+		} catch (AuthenticationException e) {
+			if (verbose) {
+				System.err.println("Google rejected the access token. Cause: " + e.getMessage());
+			}
+			tokenCache.invalidate(at);
+		}
+		this.authorize();
+		return contactsService.query(query, ContactFeed.class);
+	}
+
+	private String authorize() throws GoogleConnectorException {
+		String at = tokenCache.getAccessToken();
+		synchronized (credential) {
+			if (!at.equals(credential.getAccessToken())) {
+				credential.setAccessToken(at);
+			}
+		}
+		return at;
+	}
+
+	private static class CountingInputStream extends FilterInputStream {
+		private long count;
+
+		CountingInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int read = super.read();
+			if (read != -1) {
+				count++;
+			}
+			return read;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			int read = super.read(buffer, offset, length);
+			if (read > 0) {
+				count += read;
+			}
+			return read;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = super.skip(n);
+			count += skipped;
+			return skipped;
+		}
+	}
+}
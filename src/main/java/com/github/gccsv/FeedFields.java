@@ -0,0 +1,85 @@
+package com.github.gccsv;
+
+import com.google.gdata.data.ExtensionDescription;
+import com.google.gdata.data.ExtensionProfile;
+import com.google.gdata.data.contacts.ContactEntry;
+import com.google.gdata.data.extensions.Deleted;
+import com.google.gdata.data.extensions.Email;
+import com.google.gdata.data.extensions.PhoneNumber;
+import com.google.gdata.data.extensions.PostalAddress;
+import com.google.gdata.data.extensions.StructuredPostalAddress;
+
+import java.util.Collection;
+import java.util.EnumSet;
+
+/**
+ * The parts of the contacts the {@link GC_FIELD}s of the mapping read. Google
+ * is asked for only those, with a partial response (the fields parameter),
+ * and the feed is parsed with only their extensions declared, so that e.g.
+ * the photo links, group memberships and custom fields of every contact are
+ * neither sent nor parsed. Anything else a feed still has is kept as
+ * unparsed XML.
+ *
+ * The id, etag, updated and deleted of the contacts are always asked for, to
+ * keep them in sync.
+ */
+public class FeedFields {
+
+	private final EnumSet<GC_FIELD> fields;
+
+	public FeedFields(Collection<GC_FIELD> fields) {
+		this.fields = fields.isEmpty() ? EnumSet.noneOf(GC_FIELD.class) : EnumSet.copyOf(fields);
+		this.fields.remove(GC_FIELD.NONE);
+	}
+
+	/**
+	 * The partial response selector of the feed, e.g.
+	 * openSearch:totalResults,updated,entry(@gd:etag,id,updated,title).
+	 */
+	public String getSelector() {
+		StringBuilder entry = new StringBuilder("@gd:etag,id,updated,gd:deleted");
+		if (fields.contains(GC_FIELD.NAME)) {
+			entry.append(",title");
+		}
+		if (fields.contains(GC_FIELD.PHONE_NUMBER)) {
+			entry.append(",gd:phoneNumber");
+		}
+		if (fields.contains(GC_FIELD.EMAIL)) {
+			entry.append(",gd:email");
+		}
+		if (fields.contains(GC_FIELD.ADDRESS)) {
+			entry.append(",gd:postalAddress,gd:structuredPostalAddress");
+		}
+		return "openSearch:totalResults,updated,entry(" + entry + ")";
+	}
+
+	/**
+	 * An extension profile with only the contact extensions of the fields.
+	 */
+	public ExtensionProfile createExtensionProfile() {
+		ExtensionProfile profile = new ExtensionProfile();
+		profile.declare(ContactEntry.class, Deleted.class);
+		if (fields.contains(GC_FIELD.PHONE_NUMBER)) {
+			profile.declare(ContactEntry.class, repeatable(PhoneNumber.getDefaultDescription()));
+		}
+		if (fields.contains(GC_FIELD.EMAIL)) {
+			profile.declare(ContactEntry.class, repeatable(Email.getDefaultDescription()));
+		}
+		if (fields.contains(GC_FIELD.ADDRESS)) {
+			profile.declare(ContactEntry.class, repeatable(PostalAddress.getDefaultDescription()));
+			profile.declare(ContactEntry.class, StructuredPostalAddress.getDefaultDescription(false, true));
+			new StructuredPostalAddress().declareExtensions(profile);
+		}
+		return profile;
+	}
+
+	@Override
+	public String toString() {
+		return fields.toString();
+	}
+
+	private static ExtensionDescription repeatable(ExtensionDescription description) {
+		description.setRepeatable(true);
+		return description;
+	}
+}
@@ -2,8 +2,6 @@ package com.github.gccsv;
 
 import com.google.api.client.googleapis.auth.oauth2.GoogleAuthorizationCodeRequestUrl;
 import com.google.api.client.googleapis.auth.oauth2.GoogleAuthorizationCodeTokenRequest;
-import com.google.api.client.googleapis.auth.oauth2.GoogleCredential;
-import com.google.api.client.googleapis.auth.oauth2.GoogleRefreshTokenRequest;
 import com.google.api.client.googleapis.auth.oauth2.GoogleTokenResponse;
 import com.google.api.client.http.HttpTransport;
 import com.google.api.client.http.javanet.NetHttpTransport;
@@ -11,40 +9,66 @@ import com.google.api.client.json.JsonFactory;
 import com.google.api.client.json.jackson2.JacksonFactory;
 import com.google.gdata.client.Query;
 import com.google.gdata.client.Query.CustomParameter;
-import com.google.gdata.client.contacts.ContactsService;
+import com.google.gdata.data.DateTime;
 import com.google.gdata.data.contacts.ContactEntry;
 import com.google.gdata.data.contacts.ContactFeed;
+import com.google.gdata.util.ParseException;
+import com.google.gdata.util.RateLimitExceededException;
 import com.google.gdata.util.ServiceException;
+import com.google.gdata.util.ServiceUnavailableException;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadLocalRandom;
 
 public class GCConnector {
 
 	private static String STORE_DIR = "gc-csv/";
-	private static String REFRESH_TOKEN_FILE = "rt";
+	static final String REFRESH_TOKEN_FILE = "rt";
+	private static final long FIRST_RETRY_DELAY_MILLIS = 500;
+	private static final long MAX_RETRY_DELAY_MILLIS = 30000;
 
 	private boolean verbose;
 
+	private final static String FEED_URL = "http://www.google.com/m8/feeds/contacts/default/full";
 	private final static String groupIdTemplate = "http://www.google.com/m8/feeds/groups/%s/base/%s";
 
+	private String feedUrl = FEED_URL;
 	private String tokenStore;
 	private String groupId;
 	private String email;
 	private String clientSecret;
 	private String clientId;
 	private int pageSize;
+	private PageSizer pageSizer;
+	private FeedFields fields;
 	private int maxResults;
+	private int fetchThreads = 1;
+	private int fetchAttempts = 1;
+	private ExecutorService fetchExecutor;
+	private boolean interactive = true;
+	private AccessTokenCache tokenCache;
+	private ContactsSession session;
+	private DateTime updatedMin;
+	private boolean showDeleted;
+	private volatile DateTime feedUpdated;
+	private RunMetrics metrics = new RunMetrics();
 
 	public GCConnector(String clientId, String clientSecret, int pageSize, int maxResults, String tokenStorageDir) {
 		this.clientId = clientId;
@@ -52,10 +76,152 @@ public class GCConnector {
 		this.pageSize = pageSize;
 		this.maxResults = maxResults;
 		this.tokenStore = tokenStorageDir;
+		this.tokenCache = new AccessTokenCache(clientId, clientSecret, new File(tokenStorageDir + STORE_DIR));
 	}
 
 	public void setVerbose(boolean verbose) {
 		this.verbose = verbose;
+		this.tokenCache.setVerbose(verbose);
+		if (pageSizer != null) {
+			pageSizer.setVerbose(verbose);
+		}
+	}
+
+	/**
+	 * Whether the access token should be kept in the storage dir, next to the
+	 * refresh token, so that it can be reused by the next runs.
+	 */
+	public void setPersistAccessToken(boolean persistAccessToken) {
+		this.tokenCache.setPersistent(persistAccessToken);
+	}
+
+	/**
+	 * The number of pages to fetch concurrently once the total number of
+	 * contacts is known. 1 fetches them one after the other.
+	 */
+	public void setFetchThreads(int fetchThreads) {
+		this.fetchThreads = fetchThreads;
+	}
+
+	/**
+	 * How many times to ask for a page before giving up, when google is busy
+	 * or the connection fails. 1 does not retry.
+	 */
+	public void setFetchAttempts(int fetchAttempts) {
+		this.fetchAttempts = fetchAttempts;
+	}
+
+	/**
+	 * Fetches the pages on the given executor, shared e.g. by other
+	 * connectors, instead of on threads of its own. Fetch threads still
+	 * limits how many pages are asked for at a time.
+	 */
+	public void setFetchExecutor(ExecutorService fetchExecutor) {
+		this.fetchExecutor = fetchExecutor;
+	}
+
+	/**
+	 * Starts from the page size and then sizes every page so that it takes
+	 * about the given time, see {@link PageSizer}. The size learned is kept
+	 * for the next reads.
+	 */
+	public void setAdaptivePageSize(long targetMillis) {
+		this.pageSizer = new PageSizer(pageSize, targetMillis);
+		this.pageSizer.setVerbose(verbose);
+	}
+
+	/**
+	 * Whether the user can be asked to authorize the access when there is no
+	 * refresh token yet. If not, reading fails instead.
+	 */
+	public void setInteractive(boolean interactive) {
+		this.interactive = interactive;
+	}
+
+	/**
+	 * Reads the contacts from the given feed instead of google's, e.g. from a
+	 * proxy or a local stand-in.
+	 */
+	public void setFeedUrl(String feedUrl) {
+		this.feedUrl = feedUrl;
+		this.session = null;
+	}
+
+	/**
+	 * Only asks google for, and parses, the parts of the contacts the given
+	 * fields read, see {@link FeedFields}. All of them are read by default.
+	 */
+	public void setFields(Collection<GC_FIELD> fields) {
+		this.fields = new FeedFields(fields);
+		this.session = null;
+	}
+
+	/**
+	 * Refreshes the access token at the given endpoint instead of google's.
+	 */
+	public void setTokenServerUrl(String tokenServerUrl) {
+		this.tokenCache.setTokenServerUrl(tokenServerUrl);
+	}
+
+	/**
+	 * Where to count the pages fetched, their entries, bytes and times, and
+	 * the token refreshes. Set before every read to count each on its own.
+	 */
+	public void setMetrics(RunMetrics metrics) {
+		this.metrics = metrics;
+		this.tokenCache.setMetrics(metrics);
+		if (session != null) {
+			session.setMetrics(metrics);
+		}
+	}
+
+	/**
+	 * Only reads the contacts updated since the given time, or all if null.
+	 */
+	public void setUpdatedMin(DateTime updatedMin) {
+		this.updatedMin = updatedMin;
+	}
+
+	/**
+	 * Whether contacts deleted since updated-min are included. They are marked
+	 * with {@link ContactEntry#hasDeleted()}.
+	 */
+	public void setShowDeleted(boolean showDeleted) {
+		this.showDeleted = showDeleted;
+	}
+
+	/**
+	 * The time google served the first page of the last read, as reported by
+	 * google itself, e.g. to ask for the contacts updated since on google's
+	 * clock. It changes with every request, so it does not tell whether any
+	 * contact changed.
+	 */
+	public DateTime getFeedUpdated() {
+		return feedUpdated;
+	}
+
+	File getStoreDir() {
+		return storeDir(tokenStore);
+	}
+
+	/**
+	 * Where the tokens and the contacts snapshot are kept for the given
+	 * storage dir.
+	 */
+	static File storeDir(String tokenStorageDir) {
+		return new File(tokenStorageDir + STORE_DIR);
+	}
+
+	int getPageSize() {
+		return pageSize;
+	}
+
+	/**
+	 * Identifies the set of contacts read, e.g. to tell whether stored state
+	 * belongs to the same query.
+	 */
+	String getQueryKey() {
+		return String.format("group=%s;email=%s;max-results=%d;fields=%s", groupId, email, maxResults, fields != null ? fields : "all");
 	}
 
 	public void setGroupId(String groupId) {
@@ -72,6 +238,10 @@ public class GCConnector {
 			System.out.println("Using the following path as the refresh token: " + refreshTokenStore);
 		}
 		if (!refreshTokenStore.exists()) {
+			if (!interactive) {
+				throw new GoogleConnectorException("Refresh token not found at " + refreshTokenStore
+						+ ". Run a single export with this storage dir first to authorize the access", null);
+			}
 			if (verbose) {
 				System.out.println("Refresh token not found. Requesting one. User action and input is necessary.");
 			}
@@ -115,15 +285,9 @@ public class GCConnector {
 				System.out.println("Got a refresh token. Will write it to " + refreshTokenStore.getParent());
 			}
 
-			refreshTokenStore.getParentFile().mkdirs();
 			PrintWriter fileWriter = null;
 			try {
-				refreshTokenStore.createNewFile();
-				refreshTokenStore.setExecutable(false, false);
-				refreshTokenStore.setWritable(false, false);
-				refreshTokenStore.setReadable(false, false);
-				refreshTokenStore.setWritable(true, true);
-				refreshTokenStore.setReadable(true, true);
+				createPrivateFile(refreshTokenStore);
 				fileWriter = new PrintWriter(refreshTokenStore);
 				fileWriter.print(refreshToken);
 			} catch (IOException e) {
@@ -145,57 +309,23 @@ public class GCConnector {
 
 	}
 
-	private ContactFeed produceFeed(int startIndex, int querySize) throws GoogleConnectorException {
-		File refreshTokenStore = new File(tokenStore + STORE_DIR + REFRESH_TOKEN_FILE);
-		BufferedReader fileReader = null;
-		String refreshToken;
-
-		try {
-			fileReader = new BufferedReader(new FileReader(refreshTokenStore));
-			refreshToken = fileReader.readLine();
-		} catch (IOException e) {
-			if (verbose) {
-				System.err.println("Could not read refresh token from store. Cause: " + e.getMessage());
-			}
-			throw new GoogleConnectorException("An error occurred reading a file", e);
-		} finally {
-			if (fileReader != null) {
-				try {
-					fileReader.close();
-				} catch (IOException e) {
-					// nothing else we can do
-				}
-			}
-		}
-
-		HttpTransport transport = new NetHttpTransport();
-		JsonFactory jsonFactory = new JacksonFactory();
-
-		GoogleRefreshTokenRequest refreshTokenRequest = new GoogleRefreshTokenRequest(transport, jsonFactory, refreshToken, clientId, clientSecret);
-		GoogleTokenResponse tokenResponse;
-
-		try {
-			tokenResponse = refreshTokenRequest.execute();
-		} catch (IOException e) {
-			if (verbose) {
-				System.err.println("Could not read refresh token from store. Cause: " + e.getMessage());
-			}
-			throw new GoogleConnectorException("An error occurred reading a file", e);
-		}
-		String at = tokenResponse.getAccessToken();
-		if (verbose) {
-			System.out.println("Got access token from google.");
-		}
-
-		GoogleCredential gc = new GoogleCredential();
-		gc.setAccessToken(at);
-
-		ContactsService contactsService = new ContactsService("gc-csv");
-		contactsService.setOAuth2Credentials(gc);
+	/**
+	 * Creates the file, if needed, readable and writable only by its owner.
+	 */
+	static void createPrivateFile(File file) throws IOException {
+		file.getParentFile().mkdirs();
+		file.createNewFile();
+		file.setExecutable(false, false);
+		file.setWritable(false, false);
+		file.setReadable(false, false);
+		file.setWritable(true, true);
+		file.setReadable(true, true);
+	}
 
-		URL feedUrl;
+	private ContactsSession createSession() throws GoogleConnectorException {
+		URL url;
 		try {
-			feedUrl = new URL("http://www.google.com/m8/feeds/contacts/default/full");
+			url = new URL(feedUrl);
 		} catch (MalformedURLException e) {
 			if (verbose) {
 				System.err.println(String
@@ -204,10 +334,47 @@ public class GCConnector {
 			}
 			throw new GoogleConnectorException("Could not read the feed", e);
 		}
+		ContactsSession session = new ContactsSession(url, tokenCache);
+		session.setVerbose(verbose);
+		session.setMetrics(metrics);
+		if (fields != null) {
+			session.setFields(fields);
+		}
+		return session;
+	}
 
+	/**
+	 * Creating the contacts service loads and initializes most of gdata, which
+	 * takes longer than anything else before the first request. It is done on
+	 * a thread of its own while the access token is asked for.
+	 */
+	private ContactsSession openSession() throws GoogleConnectorException {
+		FutureTask<ContactsSession> session = new FutureTask<ContactsSession>(new Callable<ContactsSession>() {
+			public ContactsSession call() throws GoogleConnectorException {
+				return createSession();
+			}
+		});
+		Thread thread = new Thread(session, "gc-csv-session");
+		thread.setDaemon(true);
+		thread.start();
+		tokenCache.getAccessToken();
+		try {
+			return session.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new GoogleConnectorException("Interrupted while creating the contacts service", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof GoogleConnectorException) {
+				throw (GoogleConnectorException) e.getCause();
+			}
+			throw new GoogleConnectorException("Could not create the contacts service", e);
+		}
+	}
+
+	private ContactFeed produceFeed(ContactsSession session, int startIndex, int querySize) throws GoogleConnectorException {
 		String version = "3.0";
 
-		Query myQuery = new Query(feedUrl);
+		Query myQuery = new Query(session.getFeedUrl());
 		myQuery.setMaxResults(querySize);
 		myQuery.setStartIndex(startIndex);
 		myQuery.addCustomParameter(new CustomParameter("v", version));
@@ -217,62 +384,244 @@ public class GCConnector {
 		if ((email != null && email.length() != 0) && (groupId != null && groupId.length() != 0)) {
 			myQuery.addCustomParameter(new CustomParameter("group", String.format(groupIdTemplate, email, groupId)));
 		}
+		if (updatedMin != null) {
+			myQuery.setUpdatedMin(updatedMin);
+		}
+		if (showDeleted) {
+			myQuery.addCustomParameter(new CustomParameter("showdeleted", "true"));
+		}
+		if (fields != null) {
+			myQuery.setFields(fields.getSelector());
+		}
 
-		ContactFeed queryFeed;
-		try {
-			queryFeed = contactsService.query(myQuery, ContactFeed.class);
-		} catch (IOException e) {
-			if (verbose) {
-				System.err.println("Could not query google. Cause: " + e.getMessage());
+		ContactFeed queryFeed = null;
+		for (int attempt = 1; queryFeed == null; attempt++) {
+			long start = System.nanoTime();
+			Object event = Tracing.beginFeedPage();
+			try {
+				queryFeed = session.query(myQuery);
+			} catch (IOException e) {
+				this.pageFailed(event, startIndex, querySize, attempt, true, e);
+				continue;
+			} catch (ServiceException e) {
+				this.pageFailed(event, startIndex, querySize, attempt, isTransient(e), e);
+				continue;
 			}
-			throw new GoogleConnectorException("Could not query google", e);
-		} catch (ServiceException e) {
+			Tracing.endFeedPage(event, startIndex, querySize, queryFeed.getEntries().size(), null);
+			if (pageSizer != null) {
+				pageSizer.pageRead(querySize, queryFeed.getEntries().size(), System.nanoTime() - start, session.getLastBytes());
+			}
+			metrics.timer("fetch.page").recordSince(start);
+			metrics.counter("fetch.entries").add(queryFeed.getEntries().size());
+		}
+
+		return queryFeed;
+
+	}
+
+	/**
+	 * Counts a page that could not be read and waits before it is asked for
+	 * again, or gives up if the error will not go away or it was the last
+	 * attempt. Waits double with every attempt, up to
+	 * {@link #MAX_RETRY_DELAY_MILLIS}, and are spread randomly over their
+	 * second half so that the fetch threads do not all retry at once.
+	 */
+	private void pageFailed(Object event, int startIndex, int querySize, int attempt, boolean retry, Exception e)
+			throws GoogleConnectorException {
+		metrics.counter("fetch.failures").increment();
+		Tracing.endFeedPage(event, startIndex, querySize, 0, e.getMessage());
+		if (pageSizer != null) {
+			pageSizer.pageFailed(querySize);
+		}
+		if (!retry || attempt >= fetchAttempts) {
 			if (verbose) {
 				System.err.println("Could not query google. Cause: " + e.getMessage());
 			}
 			throw new GoogleConnectorException("Could not query google", e);
 		}
+		long delay = Math.min(MAX_RETRY_DELAY_MILLIS, FIRST_RETRY_DELAY_MILLIS << (attempt - 1));
+		delay = delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+		if (verbose) {
+			System.err.printf("Could not query google, retrying start index %d in %d ms. Cause: %s\n", startIndex, delay, e.getMessage());
+		}
+		metrics.counter("fetch.retries").increment();
+		try {
+			Thread.sleep(delay);
+		} catch (InterruptedException interrupted) {
+			Thread.currentThread().interrupt();
+			throw new GoogleConnectorException("Interrupted while querying google", interrupted);
+		}
+	}
 
-		return queryFeed;
-
+	/**
+	 * Whether google could answer the same query next time: it was busy,
+	 * failed itself or sent a response cut short. Errors of the query or
+	 * the access, such as 400, 403 or 404, are not.
+	 */
+	private static boolean isTransient(ServiceException e) {
+		return e.getClass() == ServiceException.class || e instanceof ServiceUnavailableException || e instanceof RateLimitExceededException
+				|| e instanceof ParseException;
 	}
 
+	/**
+	 * Reads all the contacts into memory. Prefer
+	 * {@link #readContacts(ContactPageHandler)} for big accounts.
+	 */
 	public List<ContactEntry> readContacts() throws GoogleConnectorException {
+		final List<ContactEntry> entries = new ArrayList<ContactEntry>();
+		try {
+			this.readContacts(new ContactPageHandler() {
+				public void handlePage(List<ContactEntry> page) {
+					entries.addAll(page);
+				}
+			});
+		} catch (GCCSVException e) {
+			// the handler above does not throw
+			throw new IllegalStateException(e);
+		}
+		return entries;
+	}
+
+	/**
+	 * Reads the contacts page by page, handing each page to the handler as
+	 * soon as it (and all the ones before it) arrived. At most a couple of
+	 * pages per fetch thread are kept in memory.
+	 */
+	public void readContacts(ContactPageHandler handler) throws GoogleConnectorException, GCCSVException {
+		this.readContacts(handler, 1);
+	}
+
+	/**
+	 * Reads the contacts from the given index on, e.g. to resume a read that
+	 * failed after the contacts before it were handled.
+	 */
+	public void readContacts(ContactPageHandler handler, int firstIndex) throws GoogleConnectorException, GCCSVException {
 		this.ensureAccessKey();
-		List<ContactEntry> entries = new ArrayList<ContactEntry>();
-		int contactsSoFar = 0;
+		if (session == null) {
+			// kept for the next reads, e.g. of a daemon, with the service it built
+			session = this.openSession();
+		}
+		int contactsSoFar = firstIndex - 1;
 		int totalContacts = 0;
 
 		if (verbose) {
 			System.out.println("Will query google with the following parameters:");
 			System.out.printf("\tMax Results: %d\n", maxResults);
-			System.out.printf("\tPage size: %d\n", pageSize);
+			System.out.printf("\tPage size: %d%s\n", this.nextPageSize(), pageSizer != null ? ", adaptive" : "");
+			System.out.printf("\tFetch threads: %d\n", fetchThreads);
 			System.out.printf("\tGroup id: %s\n", groupId);
 			System.out.printf("\tEmail: %s\n", email);
+			if (fields != null) {
+				System.out.printf("\tFields: %s\n", fields.getSelector());
+			}
+			if (firstIndex > 1) {
+				System.out.printf("\tStart index: %d\n", firstIndex);
+			}
 
 		}
+		if (contactsSoFar >= maxResults) {
+			if (verbose) {
+				System.out.printf("Querying finished. Already retreived %d contacts\n", contactsSoFar);
+			}
+			return;
+		}
 
 		do {
 			int startIndex = contactsSoFar + 1;
-			int querySize = pageSize > (maxResults - contactsSoFar) ? (maxResults - contactsSoFar) : pageSize;
+			int size = this.nextPageSize();
+			int querySize = size > (maxResults - contactsSoFar) ? (maxResults - contactsSoFar) : size;
 			if (verbose) {
 				System.out.printf("Initiating query. Start index: %d, query size: %d\n", startIndex, querySize);
 			}
-			ContactFeed feed = this.produceFeed(startIndex, querySize);
-			entries.addAll(feed.getEntries());
+			ContactFeed feed = this.produceFeed(session, startIndex, querySize);
+			if (startIndex == firstIndex) {
+				feedUpdated = feed.getUpdated();
+			}
+			handler.handlePage(feed.getEntries());
 			totalContacts = feed.getTotalResults();
-			contactsSoFar = entries.size();
+			contactsSoFar += feed.getEntries().size();
 			if (verbose) {
 				System.out.println(String.format(
 						"Got %d contacts in this page, and %d so far. There is a total of %d contacts to retreive, %s will retreive %d", feed
 								.getEntries().size(), contactsSoFar, totalContacts, totalContacts > maxResults ? "but" : "and",
 						maxResults > totalContacts ? totalContacts : maxResults));
 			}
-		} while ((totalContacts > contactsSoFar) && (maxResults > contactsSoFar));
+		} while ((totalContacts > contactsSoFar) && (maxResults > contactsSoFar) && fetchThreads <= 1);
+
+		if ((totalContacts > contactsSoFar) && (maxResults > contactsSoFar)) {
+			contactsSoFar = this.fetchConcurrently(session, handler, contactsSoFar, maxResults > totalContacts ? totalContacts : maxResults);
+		}
 
 		if (verbose) {
 			System.out.printf("Querying finished. Retreived %d contacts\n", contactsSoFar);
 		}
-		return entries;
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Once the first page told how many contacts there are, the remaining
+	 * pages are known upfront and can be fetched concurrently. Pages are
+	 * handed over in index order, so the result is the same as fetching them
+	 * one after the other.
+	 */
+	private int fetchConcurrently(final ContactsSession session, ContactPageHandler handler, int contactsSoFar, int lastIndex)
+			throws GoogleConnectorException, GCCSVException {
+		if (verbose) {
+			System.out.printf("Fetching the remaining %d contacts with %d threads\n", lastIndex - contactsSoFar, fetchThreads);
+		}
+		ExecutorService executor = fetchExecutor != null ? fetchExecutor : Executors.newFixedThreadPool(fetchThreads);
+		LinkedList<Future<ContactFeed>> pages = new LinkedList<Future<ContactFeed>>();
+		int nextIndex = contactsSoFar + 1;
+		try {
+			while (nextIndex <= lastIndex || !pages.isEmpty()) {
+				// keep the threads busy while waiting for the oldest page
+				while (nextIndex <= lastIndex && pages.size() < 2 * fetchThreads) {
+					final int startIndex = nextIndex;
+					int size = this.nextPageSize();
+					final int querySize = size > (lastIndex - startIndex + 1) ? (lastIndex - startIndex + 1) : size;
+					pages.add(executor.submit(new Callable<ContactFeed>() {
+						public ContactFeed call() throws GoogleConnectorException {
+							if (verbose) {
+								System.out.printf("Initiating query. Start index: %d, query size: %d\n", startIndex, querySize);
+							}
+							return produceFeed(session, startIndex, querySize);
+						}
+					}));
+					nextIndex += querySize;
+				}
+				ContactFeed feed = this.awaitPage(pages.removeFirst());
+				handler.handlePage(feed.getEntries());
+				contactsSoFar += feed.getEntries().size();
+				if (verbose) {
+					System.out.printf("Got %d contacts in this page, and %d so far\n", feed.getEntries().size(), contactsSoFar);
+				}
+			}
+		} finally {
+			if (executor == fetchExecutor) {
+				for (Future<ContactFeed> page : pages) {
+					page.cancel(true);
+				}
+			} else {
+				executor.shutdownNow();
+			}
+		}
+		return contactsSoFar;
+	}
+
+	private int nextPageSize() {
+		return pageSizer != null ? pageSizer.getPageSize() : pageSize;
+	}
+
+	private ContactFeed awaitPage(Future<ContactFeed> page) throws GoogleConnectorException {
+		try {
+			return page.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new GoogleConnectorException("Interrupted while querying google", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof GoogleConnectorException) {
+				throw (GoogleConnectorException) e.getCause();
+			}
+			throw new GoogleConnectorException("Could not query google", e);
+		}
+	}
+}
@@ -1,5 +1,7 @@
 package com.github.gccsv;
 
+import java.net.MalformedURLException;
+import java.net.URL;
 import java.util.Properties;
 
 import org.apache.commons.cli.CommandLine;
@@ -18,9 +20,33 @@ public class GCToCSVParser extends DefaultParser {
 	}
 
 	private void checkCombinations(CommandLine commandLine) throws ParseException {
+		this.checkNumericOption(commandLine, "daemon");
+		if (commandLine.hasOption("batch")) {
+			this.checkNumericOption(commandLine, "batch-threads");
+			this.checkNumericOption(commandLine, "fetch-threads");
+			return;
+		}
+		if (!commandLine.hasOption("storage-dir")) {
+			throw new ParseException("Missing required option: d");
+		}
+		this.checkCredentials(commandLine);
 		this.checkGroupOptions(commandLine);
+		this.checkSnapshotOptions(commandLine);
+		this.checkResumeOptions(commandLine);
 		this.checkNumericOption(commandLine, "page-size");
 		this.checkNumericOption(commandLine, "max-results");
+		this.checkNumericOption(commandLine, "fetch-threads");
+		this.checkNumericOption(commandLine, "fetch-attempts");
+		this.checkNumericOption(commandLine, "target-page-time");
+		this.checkNumericOption(commandLine, "gzip-threads");
+		this.checkNumericOption(commandLine, "icw1000-batch-rows");
+		this.checkNumericOption(commandLine, "icw1000-batch-bytes");
+		this.checkNumericOption(commandLine, "icw1000-threads");
+		this.checkNumericOption(commandLine, "icw1000-timeout");
+		this.checkNumericOption(commandLine, "icw1000-attempts");
+		this.checkNumericOption(commandLine, "icw1000-deadline");
+		this.checkUrlOption(commandLine, "feed-url");
+		this.checkUrlOption(commandLine, "token-url");
 		this.checkHeaderAndFields(commandLine);
 
 	}
@@ -70,6 +96,51 @@ public class GCToCSVParser extends DefaultParser {
 		}
 	}
 
+	private void checkUrlOption(CommandLine commandLine, String optionName) throws ParseException {
+		if (commandLine.hasOption(optionName)) {
+			try {
+				new URL(commandLine.getOptionValue(optionName));
+			} catch (MalformedURLException e) {
+				throw new ParseException(String.format("%s has to be a valid URL.", optionName));
+			}
+		}
+	}
+
+	private void checkCredentials(CommandLine commandLine) throws ParseException {
+		if (commandLine.hasOption("from-snapshot")) {
+			if (commandLine.hasOption("incremental")) {
+				throw new ParseException("from-snapshot and incremental cannot be used together");
+			}
+			return;
+		}
+		if (!commandLine.hasOption("client-id") && !commandLine.hasOption("client-id-file")) {
+			throw new ParseException("Missing mandatory option: client-id or client-id-file. This option is mandatory unless from-snapshot is specified");
+		}
+		if (!commandLine.hasOption("client-secret") && !commandLine.hasOption("client-secret-file")) {
+			throw new ParseException(
+					"Missing mandatory option: client-secret or client-secret-file. This option is mandatory unless from-snapshot is specified");
+		}
+	}
+
+	private void checkSnapshotOptions(CommandLine commandLine) throws ParseException {
+		if (commandLine.hasOption("from-snapshot")) {
+			// the snapshot holds the contacts of the query it was read with
+			for (String optionName : new String[] { "group-id", "email", "max-results" }) {
+				if (commandLine.hasOption(optionName)) {
+					throw new ParseException(String.format("%s cannot be used with from-snapshot", optionName));
+				}
+			}
+		}
+	}
+
+	private void checkResumeOptions(CommandLine commandLine) throws ParseException {
+		if (commandLine.hasOption("resume")) {
+			if (commandLine.hasOption("from-snapshot") || commandLine.hasOption("incremental")) {
+				throw new ParseException("resume cannot be used with from-snapshot or incremental");
+			}
+		}
+	}
+
 	private void checkGroupOptions(CommandLine commandLine) throws ParseException {
 		if (commandLine.hasOption("group-id") || commandLine.hasOption("email")) {
 			if (!commandLine.hasOption("group-id")) {
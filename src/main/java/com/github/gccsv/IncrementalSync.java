@@ -0,0 +1,131 @@
+package com.github.gccsv;
+
+import com.google.gdata.data.DateTime;
+import com.google.gdata.data.contacts.ContactEntry;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the contacts incrementally. The {@link ContactSnapshot} of the
+ * previous run holds the contacts and the time google served them, by
+ * google's own clock. Later runs only ask google for the contacts updated or
+ * deleted since then (updated-min and showdeleted) and merge them into the
+ * snapshot, so the handler still gets every contact, as with a full read.
+ *
+ * Google only remembers deleted contacts for about 30 days, so snapshots
+ * read longer ago than that, by the local clock, as well as snapshots of a
+ * different query, are ignored and the contacts read in full.
+ */
+public class IncrementalSync {
+
+	private static final long MAX_CHECKPOINT_AGE_MILLIS = 25L * 24 * 60 * 60 * 1000;
+
+	private final GCConnector connector;
+	private final ContactSnapshot snapshot;
+	private boolean verbose;
+
+	public IncrementalSync(GCConnector connector, ContactSnapshot snapshot) {
+		this.connector = connector;
+		this.snapshot = snapshot;
+	}
+
+	public void setVerbose(boolean verbose) {
+		this.verbose = verbose;
+	}
+
+	public void readContacts(ContactPageHandler handler) throws GoogleConnectorException, GCCSVException {
+		final Map<String, ContactRecord> records = new LinkedHashMap<String, ContactRecord>();
+		long readAt = System.currentTimeMillis();
+		DateTime checkpoint = this.load(records);
+
+		if (checkpoint == null) {
+			if (verbose) {
+				System.out.println("No usable snapshot to sync with. Reading all the contacts.");
+			}
+			connector.setUpdatedMin(null);
+			connector.setShowDeleted(false);
+			snapshot.readContacts(connector, handler);
+			return;
+		}
+
+		if (verbose) {
+			System.out.printf("Reading the contacts updated since %s\n", checkpoint);
+		}
+		final int[] changes = new int[2];
+		connector.setUpdatedMin(checkpoint);
+		connector.setShowDeleted(true);
+		connector.readContacts(new ContactPageHandler() {
+			public void handlePage(List<ContactEntry> page) {
+				for (ContactEntry entry : page) {
+					if (entry.hasDeleted()) {
+						if (records.remove(entry.getId()) != null) {
+							changes[1]++;
+						}
+					} else {
+						records.put(entry.getId(), ContactRecord.fromEntry(entry));
+						changes[0]++;
+					}
+				}
+			}
+		});
+		if (verbose) {
+			System.out.printf("Merged %d updated and %d deleted contacts into %d contacts\n", changes[0], changes[1], records.size());
+		}
+
+		ContactSnapshot.Writer writer = snapshot.create(connector.getQueryKey(), readAt);
+		boolean completed = false;
+		try {
+			int pageSize = connector.getPageSize();
+			List<ContactEntry> page = new ArrayList<ContactEntry>(pageSize);
+			for (ContactRecord record : records.values()) {
+				writer.add(record);
+				page.add(record.toEntry());
+				if (page.size() == pageSize) {
+					handler.handlePage(page);
+					page = new ArrayList<ContactEntry>(pageSize);
+				}
+			}
+			if (!page.isEmpty()) {
+				handler.handlePage(page);
+			}
+			DateTime feedUpdated = connector.getFeedUpdated();
+			writer.commit(feedUpdated != null ? feedUpdated.getValue() : 0);
+			completed = true;
+		} finally {
+			if (!completed) {
+				writer.abort();
+			}
+		}
+	}
+
+	/**
+	 * Loads the contacts of the snapshot and returns its checkpoint, or null
+	 * if it cannot be synced with.
+	 */
+	private DateTime load(Map<String, ContactRecord> records) {
+		if (!snapshot.exists()) {
+			return null;
+		}
+		try {
+			ContactSnapshot.Reader reader = snapshot.open();
+			if (!connector.getQueryKey().equals(reader.getQueryKey())
+					|| System.currentTimeMillis() - reader.getReadAt() > MAX_CHECKPOINT_AGE_MILLIS) {
+				return null;
+			}
+			while (reader.hasNext()) {
+				ContactRecord record = reader.next();
+				records.put(record.getId(), record);
+			}
+			return new DateTime(reader.getCheckpoint(), 0);
+		} catch (GCCSVException e) {
+			if (verbose) {
+				System.err.println("Could not sync with the snapshot. Cause: " + e.getMessage());
+			}
+			records.clear();
+			return null;
+		}
+	}
+}
@@ -0,0 +1,155 @@
+package com.github.gccsv;
+
+import jdk.jfr.Category;
+import jdk.jfr.Configuration;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+/**
+ * The Flight Recorder events, only loaded through {@link Tracing} once it
+ * checked the JVM has a Flight Recorder.
+ */
+final class JfrEvents {
+
+	private JfrEvents() {
+	}
+
+	static void startRecording(String destination) throws GCCSVException {
+		try {
+			Recording recording = new Recording(Configuration.getConfiguration("default"));
+			recording.setName("gc-csv");
+			recording.setDestination(Paths.get(destination));
+			recording.setDumpOnExit(true);
+			recording.start();
+		} catch (IOException e) {
+			throw new GCCSVException("Could not record to " + destination, e);
+		} catch (java.text.ParseException e) {
+			throw new GCCSVException("Could not read the default Flight Recorder settings", e);
+		}
+	}
+
+	static Object beginFeedPage() {
+		FeedPage event = new FeedPage();
+		event.begin();
+		return event;
+	}
+
+	static void endFeedPage(Object begun, int startIndex, int querySize, int entries, String error) {
+		FeedPage event = (FeedPage) begun;
+		event.end();
+		if (event.shouldCommit()) {
+			event.startIndex = startIndex;
+			event.querySize = querySize;
+			event.entries = entries;
+			event.error = error;
+			event.commit();
+		}
+	}
+
+	static Object beginTokenRefresh() {
+		TokenRefresh event = new TokenRefresh();
+		event.begin();
+		return event;
+	}
+
+	static void endTokenRefresh(Object begun, String error) {
+		TokenRefresh event = (TokenRefresh) begun;
+		event.end();
+		if (event.shouldCommit()) {
+			event.error = error;
+			event.commit();
+		}
+	}
+
+	static Object beginRender() {
+		Render event = new Render();
+		event.begin();
+		return event;
+	}
+
+	static void endRender(Object begun, int rows, int bytes) {
+		Render event = (Render) begun;
+		event.end();
+		if (event.shouldCommit()) {
+			event.rows = rows;
+			event.bytes = bytes;
+			event.commit();
+		}
+	}
+
+	static Object beginICW1000Request() {
+		ICW1000Request event = new ICW1000Request();
+		event.begin();
+		return event;
+	}
+
+	static void endICW1000Request(Object begun, String address, String request, int entries, String error) {
+		ICW1000Request event = (ICW1000Request) begun;
+		event.end();
+		if (event.shouldCommit()) {
+			event.address = address;
+			event.request = request;
+			event.entries = entries;
+			event.error = error;
+			event.commit();
+		}
+	}
+
+	@Name("com.github.gccsv.FeedPage")
+	@Label("Feed Page")
+	@Category({ "gc-csv", "Google" })
+	@Description("A page of contacts read from the feed")
+	static class FeedPage extends Event {
+		@Label("Start Index")
+		int startIndex;
+		@Label("Query Size")
+		int querySize;
+		@Label("Entries")
+		int entries;
+		@Label("Error")
+		String error;
+	}
+
+	@Name("com.github.gccsv.TokenRefresh")
+	@Label("Token Refresh")
+	@Category({ "gc-csv", "Google" })
+	@Description("An access token asked for with the refresh token")
+	static class TokenRefresh extends Event {
+		@Label("Error")
+		String error;
+	}
+
+	@Name("com.github.gccsv.Render")
+	@Label("Render")
+	@Category({ "gc-csv", "CSV" })
+	@Description("A chunk of CSV rows rendered from a page of contacts")
+	static class Render extends Event {
+		@Label("Rows")
+		int rows;
+		@Label("Bytes")
+		@DataAmount
+		int bytes;
+	}
+
+	@Name("com.github.gccsv.ICW1000Request")
+	@Label("ICW1000G Request")
+	@Category({ "gc-csv", "ICW1000G" })
+	@Description("A login or a phonebook import sent to an ICW1000G")
+	static class ICW1000Request extends Event {
+		@Label("Address")
+		String address;
+		@Label("Request")
+		String request;
+		@Label("Entries")
+		int entries;
+		@Label("Error")
+		String error;
+	}
+}
@@ -2,10 +2,14 @@ package com.github.gccsv;
 
 import com.github.gccsv.output.CSVWriter;
 import com.github.gccsv.output.CVSWriterException;
+import com.github.gccsv.output.DeltaWriter;
+import com.github.gccsv.output.ICW1000FanOutSink;
 import com.github.gccsv.output.IncomICW1000GConnector;
 import com.github.gccsv.output.IncomICW1000GConnectorException;
+import com.github.gccsv.output.ICW1000Sink;
+import com.github.gccsv.output.MultiSinkOutput;
+import com.github.gccsv.output.StreamSink;
 import com.google.gdata.data.contacts.ContactEntry;
-import com.google.gdata.util.NotImplementedException;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
 import org.apache.commons.cli.HelpFormatter;
@@ -14,24 +18,74 @@ import org.apache.commons.cli.OptionGroup;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 
+import java.io.File;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
 
 public class Main {
 	private CommandLine commandLine;
+	private ExecutorService fetchExecutor;
+	private int fetchExecutorThreads;
+	private boolean interactive = true;
+	private volatile int exported;
+	private RunReport report;
+	// kept between the runs of a daemon
+	private GCConnector connector;
+	private CSVWriter writer;
 
 	public Main(CommandLine commandLine) {
 		this.commandLine = commandLine;
 	}
 
+	/**
+	 * Fetches the pages on the given executor, shared with other exports,
+	 * asking for as many pages at a time as it has threads unless
+	 * fetch-threads says otherwise.
+	 */
+	void setFetchExecutor(ExecutorService fetchExecutor, int threads) {
+		this.fetchExecutor = fetchExecutor;
+		this.fetchExecutorThreads = threads;
+	}
+
+	/**
+	 * Whether the user can be asked to authorize the access to google.
+	 */
+	void setInteractive(boolean interactive) {
+		this.interactive = interactive;
+	}
+
+	/**
+	 * The number of contacts exported so far.
+	 */
+	int getExported() {
+		return exported;
+	}
+
+	/**
+	 * The report of the last run, or null before the first one finished.
+	 */
+	RunReport getReport() {
+		return report;
+	}
+
 	private static Map<String, GC_FIELD> DEFAULT_MAPPING;
 	private static int DEFAULT_PAGE_SIZE = 50;
 	private static int DEFAULT_MAX_RESULTS = Integer.MAX_VALUE;
+	private static int DEFAULT_FETCH_THREADS = 1;
+	private static int DEFAULT_TARGET_PAGE_TIME = 1000;
+	private static int DEFAULT_FETCH_ATTEMPTS = 5;
+	private static int DEFAULT_ICW1000_THREADS = 8;
+	private static int DEFAULT_ICW1000_TIMEOUT = 30;
+	private static int DEFAULT_ICW1000_ATTEMPTS = 3;
+	private static int DEFAULT_ICW1000_DEADLINE = 300;
 
 	static {
 		DEFAULT_MAPPING = new LinkedHashMap<String, GC_FIELD>();
@@ -79,20 +133,18 @@ public class Main {
 		formatter.printHelp(" ", options, true);
 	}
 
-	private static CommandLine parseOptions(String[] args) {
+	static Options buildOptions() {
 		Options options = new Options();
 
 		options.addOption(Option.builder("h").optionalArg(true).longOpt("help").desc("Prints this message and exits").build());
 
 		OptionGroup clientId = new OptionGroup();
-		clientId.setRequired(true);
 		clientId.addOption(Option.builder("C").longOpt("client-id").desc("The OAuth v2 client id").hasArg().argName("id").build());
 		clientId.addOption(Option.builder("c").longOpt("client-id-file").desc("The file containing the OAuth v2 client id").hasArg()
 				.argName("path").build());
 		options.addOptionGroup(clientId);
 
 		OptionGroup clientSecret = new OptionGroup();
-		clientSecret.setRequired(true);
 		clientSecret.addOption(Option.builder("s").longOpt("client-secret").desc("The OAuth v2 client secret").hasArg().argName("secret").build());
 		clientSecret.addOption(Option.builder("S").longOpt("client-secret-file").desc("The file containing the OAuth v2 client secret").hasArg()
 				.argName("path").build());
@@ -106,15 +158,67 @@ public class Main {
 
 						DEFAULT_MAX_RESULTS)).hasArg().argName("max").type(Integer.class).build());
 
+		options.addOption(Option.builder().longOpt("adaptive-page-size")
+				.desc("Start from page-size and then grow or shrink the pages so that each takes about target-page-time, smaller after errors")
+				.build());
+		options.addOption(Option.builder().longOpt("target-page-time")
+				.desc(String.format("How long a page should take with adaptive-page-size, in milliseconds (default is %d)", DEFAULT_TARGET_PAGE_TIME))
+				.hasArg().argName("ms").build());
+
+		options.addOption(Option.builder().longOpt("fetch-threads")
+				.desc(String.format("The number of pages to fetch concurrently from Google Contacts (default is %d)", DEFAULT_FETCH_THREADS))
+				.hasArg().argName("threads").type(Integer.class).build());
+
+		options.addOption(Option.builder().longOpt("fetch-attempts")
+				.desc(String.format("How many times to ask for a page when Google Contacts is busy or the connection fails, waiting longer after every attempt (default is %d)",
+						DEFAULT_FETCH_ATTEMPTS)).hasArg().argName("attempts").build());
+
 		options.addOption(Option.builder().longOpt("group-id").desc("The group id to filter the contacts with (requires email)").hasArg()
 				.argName("id").build());
 		options.addOption(Option.builder().longOpt("email").desc("The email to filter the contacts with (requires group-id)").hasArg()
 				.argName("email").build());
 
+		options.addOption(Option.builder().longOpt("feed-url")
+				.desc("Read the contacts from this feed instead of Google Contacts, e.g. from a proxy or a local stand-in").hasArg().argName("url")
+				.build());
+		options.addOption(Option.builder().longOpt("token-url")
+				.desc("Refresh the OAuth V2 access token at this endpoint instead of Google's, e.g. at a proxy or a local stand-in").hasArg()
+				.argName("url").build());
+
 		options.addOption(Option.builder("f").longOpt("output-file")
 				.desc("The file to write the CSV output to. If not set, no file will be written.").hasArg().argName("path").build());
-		options.addOption(Option.builder().longOpt("icw1000").desc("Send the results to a ICW1000G (VOIP Phone)").hasArg()
-				.argName("password@ip:port").build());
+		options.addOption(Option.builder().longOpt("mmap-output")
+				.desc("Write the output file through memory mapping. Useful for very large exports.").build());
+		options.addOption(Option.builder().longOpt("gzip").desc("Gzip the output file").build());
+		options.addOption(Option.builder().longOpt("gzip-threads")
+				.desc("The number of threads to gzip the output file with. Default is the number of processors").hasArg().argName("threads")
+				.build());
+		options.addOption(Option.builder().longOpt("delta-file")
+				.desc("The file to write only the rows added, changed or removed since the previous run to, with the change in the first column. An index is kept next to it")
+				.hasArg().argName("path").build());
+		options.addOption(Option.builder().longOpt("icw1000")
+				.desc("Send the results to a ICW1000G (VOIP Phone). Several phones can be given, separated by commas").hasArgs()
+				.valueSeparator(',').argName("password@ip:port").build());
+		options.addOption(Option.builder().longOpt("icw1000-file")
+				.desc("Send the results to the ICW1000G phones in this file, one password@ip:port per line").hasArg().argName("path").build());
+		options.addOption(Option.builder().longOpt("icw1000-threads")
+				.desc("The most ICW1000G phones to send the results to at the same time. Default is " + DEFAULT_ICW1000_THREADS).hasArg()
+				.argName("threads").build());
+		options.addOption(Option.builder().longOpt("icw1000-timeout")
+				.desc("How long to wait for an ICW1000G to connect or reply. Default is " + DEFAULT_ICW1000_TIMEOUT).hasArg().argName("seconds")
+				.build());
+		options.addOption(Option.builder().longOpt("icw1000-attempts")
+				.desc("How many times to try each ICW1000G when sending to several, unless it already took a batch. Default is " + DEFAULT_ICW1000_ATTEMPTS).hasArg()
+				.argName("attempts").build());
+		options.addOption(Option.builder().longOpt("icw1000-deadline")
+				.desc("How long to keep at each ICW1000G when sending to several, all attempts included, or 0 for no limit. Default is "
+						+ DEFAULT_ICW1000_DEADLINE).hasArg().argName("seconds").build());
+		options.addOption(Option.builder().longOpt("icw1000-batch-rows")
+				.desc("Send the phonebook to the ICW1000G in batches of at most this many rows").hasArg().argName("rows").build());
+		options.addOption(Option.builder().longOpt("icw1000-batch-bytes")
+				.desc("Send the phonebook to the ICW1000G in batches of at most this many bytes").hasArg().argName("bytes").build());
+		options.addOption(Option.builder().longOpt("icw1000-streaming")
+				.desc("Send the rows to the ICW1000G as they are read, with chunked transfer encoding, instead of once all are read").build());
 		options.addOption(Option.builder("p").longOpt("print").desc("Whether to print the output").build());
 		options.addOption(Option.builder().longOpt("deaccent").desc("Replace diacritics into plain ASCII counterparts").build());
 
@@ -133,11 +237,52 @@ public class Main {
 
 		options.addOption(Option.builder("d").optionalArg(true).longOpt("storage-dir")
 				.desc("The directory to keep the OAuth V2refresh token in. It is recommended to use a full path with leading and trailing slash")
-				.required().hasArg().argName("path").build());
+				.hasArg().argName("path").build());
+		options.addOption(Option.builder().longOpt("persist-access-token")
+				.desc("Keep the OAuth V2 access token in the storage dir so that the next runs can reuse it until it expires").build());
+		options.addOption(Option.builder().longOpt("incremental")
+				.desc("Only read the contacts updated since the previous run and merge them into its snapshot").build());
+		options.addOption(Option.builder().longOpt("resume")
+				.desc("Go on after the contacts a failed export of the same query already read, kept in the storage dir, instead of reading them all again")
+				.build());
+		options.addOption(Option.builder().longOpt("from-snapshot")
+				.desc("Export the contacts of the previous run, kept in the storage dir, instead of reading them from google").build());
+
+		options.addOption(Option.builder().longOpt("report")
+				.desc("Write a JSON report of every run to this file, with its result and the counters and timings of its token refreshes, page fetches, rendering, outputs and uploads")
+				.hasArg().argName("path").build());
+
+		options.addOption(Option.builder().longOpt("jfr")
+				.desc("Record the run with Java Flight Recorder to this file, written on exit, including the gc-csv events of every page fetch, token refresh, rendered chunk and ICW 1000G request")
+				.hasArg().argName("path").build());
+
+		options.addOption(Option.builder().longOpt("batch")
+				.desc("Run the exports in this file instead, one per line, each with the options of a single export. Other options are ignored, except for batch-threads, fetch-threads, report, jfr and verbose")
+				.hasArg().argName("path").build());
+		options.addOption(Option.builder().longOpt("batch-threads")
+				.desc(String.format("The number of batch exports to run, and render, at the same time (default is %d)", BatchExport.DEFAULT_THREADS))
+				.hasArg().argName("threads").build());
+
+		options.addOption(Option.builder().longOpt("daemon")
+				.desc("Keep running and export again this many seconds after the previous export finished, e.g. 900 for every 15 minutes")
+				.hasArg().argName("seconds").build());
+		options.addOption(Option.builder().longOpt("daemon-status")
+				.desc("The file to keep the state, health and last run of the daemon in").hasArg().argName("path").build());
 
 		options.addOption(Option.builder("v").optionalArg(true).longOpt("verbose")
 				.desc("Verbose mode. Includes java stack traces if an exception occurs").build());
+		return options;
+	}
 
+	/**
+	 * Parses the options of one export of a batch.
+	 */
+	static CommandLine parseJobOptions(String[] args) throws ParseException {
+		return new GCToCSVParser().parse(buildOptions(), args);
+	}
+
+	private static CommandLine parseOptions(String[] args) {
+		Options options = buildOptions();
 		CommandLine commandLine = null;
 		try {
 			CommandLineParser parser = new GCToCSVParser();
@@ -154,12 +299,35 @@ public class Main {
 		return commandLine;
 	}
 
-	public static void main(String[] args) throws NotImplementedException {
+	public static void main(String[] args) {
 		CommandLine commandLine = Main.parseOptions(args);
 		if (commandLine == null) {
 			System.exit(1);
 		}
 
+		if (commandLine.hasOption("jfr")) {
+			try {
+				Tracing.startRecording(commandLine.getOptionValue("jfr"));
+			} catch (GCCSVException e) {
+				processException(commandLine, e);
+			}
+		}
+
+		if (commandLine.hasOption("daemon")) {
+			runDaemon(commandLine);
+		}
+
+		if (commandLine.hasOption("batch")) {
+			try {
+				BatchExport batch = new BatchExport(commandLine);
+				boolean succeeded = batch.run();
+				batch.close();
+				System.exit(succeeded ? 0 : 2);
+			} catch (GCCSVException e) {
+				processException(commandLine, e);
+			}
+		}
+
 		Main main = new Main(commandLine);
 		try {
 			main.execute();
@@ -176,6 +344,33 @@ public class Main {
 		System.exit(0);
 	}
 
+	private static void runDaemon(CommandLine commandLine) {
+		Callable<Boolean> export;
+		if (commandLine.hasOption("batch")) {
+			final BatchExport batch = new BatchExport(commandLine);
+			export = new Callable<Boolean>() {
+				public Boolean call() throws GCCSVException {
+					return batch.run();
+				}
+			};
+		} else {
+			final Main main = new Main(commandLine);
+			export = new Callable<Boolean>() {
+				public Boolean call() throws Exception {
+					main.execute();
+					return true;
+				}
+			};
+		}
+		SyncDaemon daemon = new SyncDaemon(export, new Long(commandLine.getOptionValue("daemon")) * 1000);
+		daemon.setVerbose(commandLine.hasOption("v"));
+		if (commandLine.hasOption("daemon-status")) {
+			daemon.setStatusFile(new File(commandLine.getOptionValue("daemon-status")));
+		}
+		daemon.run();
+		System.exit(0);
+	}
+
 	private static void processException(CommandLine commandLine, Exception e) {
 		if (commandLine.hasOption("v")) {
 			e.printStackTrace();
@@ -185,14 +380,39 @@ public class Main {
 		System.exit(2);
 	}
 
-	private void execute() throws GoogleConnectorException, CVSWriterException, IncomICW1000GConnectorException, GCCSVException {
+	void execute() throws GoogleConnectorException, CVSWriterException, IncomICW1000GConnectorException, GCCSVException {
+		RunMetrics metrics = new RunMetrics();
+		long start = System.currentTimeMillis();
+		String error = null;
+		try {
+			this.export(metrics);
+		} catch (Exception e) {
+			error = e.getMessage() != null ? e.getMessage() : e.toString();
+			throw e;
+		} finally {
+			report = new RunReport(start, System.currentTimeMillis(), error);
+			report.put("storage_dir", commandLine.getOptionValue("d"));
+			report.put("exported", exported);
+			report.putMetrics(metrics);
+			if (commandLine.hasOption("report")) {
+				try {
+					report.write(new File(commandLine.getOptionValue("report")));
+				} catch (IOException e) {
+					System.err.println("Could not write the run report. Cause: " + e.getMessage());
+				}
+			}
+		}
+	}
+
+	private void export(RunMetrics metrics) throws GoogleConnectorException, CVSWriterException, IncomICW1000GConnectorException,
+			GCCSVException {
 		boolean verbose = false;
 		if (commandLine.hasOption("v")) {
 			verbose = true;
 		}
+		exported = 0;
 		String clientId = null;
 		String clientSecret = null;
-		List<ContactEntry> contacts = null;
 
 		if (commandLine.hasOption("C")) {
 			clientId = commandLine.getOptionValue("C");
@@ -223,56 +443,210 @@ public class Main {
 			}
 		}
 
-		if (clientId != null && clientSecret != null) {
+		boolean fromSnapshot = commandLine.hasOption("from-snapshot");
+		if (fromSnapshot || (clientId != null && clientSecret != null)) {
 			int pageSize = commandLine.hasOption("page-size") ? new Integer(commandLine.getOptionValue("page-size")) : DEFAULT_PAGE_SIZE;
 			int maxResults = commandLine.hasOption("max-results") ? new Integer(commandLine.getOptionValue("max-results")) : DEFAULT_MAX_RESULTS;
 
-			GCConnector connector = new GCConnector(clientId, clientSecret, pageSize, maxResults, commandLine.getOptionValue("d"));
-			connector.setVerbose(verbose);
-			if (commandLine.hasOption("group-id") && commandLine.hasOption("email")) {
-				connector.setGroupId(commandLine.getOptionValue("group-id"));
-				connector.setEmail(commandLine.getOptionValue("email"));
+			Map<String, GC_FIELD> mapping = this.readMapping();
+			ContactSnapshot snapshot = new ContactSnapshot(GCConnector.storeDir(commandLine.getOptionValue("d")));
+			snapshot.setVerbose(verbose);
+			if (fromSnapshot) {
+				// before any output is opened and written to
+				snapshot.checkReplay(mapping.values());
 			}
-			if (verbose) {
-				System.out.println("#Stage 1 - reading the google contacts feed");
-			}
-			contacts = connector.readContacts();
-		}
-		if (contacts != null) {
-			Map<String, GC_FIELD> mapping = DEFAULT_MAPPING;
-			if (commandLine.hasOption("output-header") && commandLine.hasOption("output-mapping")) {
-				String[] columns = commandLine.getOptionValues("output-header");
-				String[] fields = commandLine.getOptionValues("output-mapping");
-				if (columns.length == fields.length) {
-					mapping.clear();
-					for (int i = 0; i < columns.length; i++) {
-						mapping.put(columns[i], GC_FIELD.valueOf(fields[i]));
-					}
+
+			if (!fromSnapshot && connector == null) {
+				int fetchThreads = commandLine.hasOption("fetch-threads") ? new Integer(commandLine.getOptionValue("fetch-threads"))
+						: DEFAULT_FETCH_THREADS;
+				if (fetchExecutor != null && !commandLine.hasOption("fetch-threads")) {
+					fetchThreads = fetchExecutorThreads;
+				}
+				if (fetchExecutor == null && fetchThreads > 1 && System.getProperty("http.maxConnections") == null) {
+					// let every fetch thread keep its connection alive
+					System.setProperty("http.maxConnections", String.valueOf(fetchThreads));
+				}
+
+				connector = new GCConnector(clientId, clientSecret, pageSize, maxResults, commandLine.getOptionValue("d"));
+				connector.setVerbose(verbose);
+				connector.setFetchThreads(fetchThreads);
+				connector.setFetchExecutor(fetchExecutor);
+				connector.setFields(mapping.values());
+				connector.setFetchAttempts(commandLine.hasOption("fetch-attempts") ? new Integer(commandLine.getOptionValue("fetch-attempts"))
+						: DEFAULT_FETCH_ATTEMPTS);
+				connector.setInteractive(interactive);
+				connector.setPersistAccessToken(commandLine.hasOption("persist-access-token"));
+				if (commandLine.hasOption("adaptive-page-size")) {
+					connector.setAdaptivePageSize(commandLine.hasOption("target-page-time") ? new Integer(commandLine.getOptionValue("target-page-time"))
+							: DEFAULT_TARGET_PAGE_TIME);
+				}
+				if (commandLine.hasOption("feed-url")) {
+					connector.setFeedUrl(commandLine.getOptionValue("feed-url"));
+				}
+				if (commandLine.hasOption("token-url")) {
+					connector.setTokenServerUrl(commandLine.getOptionValue("token-url"));
+				}
+				if (commandLine.hasOption("group-id") && commandLine.hasOption("email")) {
+					connector.setGroupId(commandLine.getOptionValue("group-id"));
+					connector.setEmail(commandLine.getOptionValue("email"));
 				}
 			}
+			if (connector != null) {
+				connector.setMetrics(metrics);
+			}
 
-			CSVWriter writer = new CSVWriter(mapping, commandLine.hasOption("deaccent"));
-			writer.setVerbose(verbose);
-			if (verbose) {
-				System.out.printf("\n\n\n");
-				System.out.println("#Stage 2 - writing the results");
+			if (writer == null) {
+				writer = new CSVWriter(mapping, commandLine.hasOption("deaccent"));
+				writer.setVerbose(verbose);
 			}
+			writer.setMetrics(metrics);
+
+			final MultiSinkOutput output = new MultiSinkOutput();
+			output.setVerbose(verbose);
+			output.setMetrics(metrics);
 			if (commandLine.hasOption("f")) {
-				writer.write(contacts, commandLine.getOptionValue("f"));
+				if (commandLine.hasOption("gzip")) {
+					int gzipThreads = commandLine.hasOption("gzip-threads") ? new Integer(commandLine.getOptionValue("gzip-threads")) : Runtime
+							.getRuntime().availableProcessors();
+					output.addSink(writer.openCompressedFile(commandLine.getOptionValue("f"), commandLine.hasOption("mmap-output"), gzipThreads));
+				} else {
+					output.addSink(writer.openFile(commandLine.getOptionValue("f"), commandLine.hasOption("mmap-output")));
+				}
 			}
 			if (commandLine.hasOption("p")) {
 				System.out.printf("\n-----\nResult:\n");
-				writer.write(contacts, System.out);
+				output.addSink(new StreamSink("stdout", System.out, false));
+			}
+			List<String> devices = this.readDevices();
+			if (!devices.isEmpty()) {
+				int batchRows = commandLine.hasOption("icw1000-batch-rows") ? new Integer(commandLine.getOptionValue("icw1000-batch-rows")) : 0;
+				int batchBytes = commandLine.hasOption("icw1000-batch-bytes") ? new Integer(commandLine.getOptionValue("icw1000-batch-bytes")) : 0;
+				int timeout = commandLine.hasOption("icw1000-timeout") ? new Integer(commandLine.getOptionValue("icw1000-timeout"))
+						: DEFAULT_ICW1000_TIMEOUT;
+				if (devices.size() == 1) {
+					IncomICW1000GConnector icw1000 = new IncomICW1000GConnector(devices.get(0), timeout * 1000);
+					icw1000.setVerbose(verbose);
+					icw1000.setStreaming(commandLine.hasOption("icw1000-streaming"));
+					icw1000.setMetrics(metrics);
+					if (batchRows > 0 || batchBytes > 0) {
+						output.addSink(new ICW1000Sink(icw1000, batchRows, batchBytes));
+					} else {
+						output.addSink(new ICW1000Sink(icw1000));
+					}
+				} else {
+					int threads = commandLine.hasOption("icw1000-threads") ? new Integer(commandLine.getOptionValue("icw1000-threads"))
+							: DEFAULT_ICW1000_THREADS;
+					ICW1000FanOutSink fanOut = new ICW1000FanOutSink(devices, threads);
+					fanOut.setVerbose(verbose);
+					fanOut.setStreaming(commandLine.hasOption("icw1000-streaming"));
+					fanOut.setMetrics(metrics);
+					fanOut.setBatches(batchRows, batchBytes);
+					fanOut.setTimeoutMillis(timeout * 1000);
+					fanOut.setDeadlineMillis(1000L * (commandLine.hasOption("icw1000-deadline") ? new Integer(commandLine.getOptionValue("icw1000-deadline"))
+							: DEFAULT_ICW1000_DEADLINE));
+					fanOut.setAttempts(commandLine.hasOption("icw1000-attempts") ? new Integer(commandLine.getOptionValue("icw1000-attempts"))
+							: DEFAULT_ICW1000_ATTEMPTS);
+					output.addSink(fanOut);
+				}
 			}
 
-			if (commandLine.hasOption("icw1000")) {
-				IncomICW1000GConnector connector = new IncomICW1000GConnector(commandLine.getOptionValue("icw1000"));
-				connector.setVerbose(verbose);
-				OutputStream s = connector.getOutputStream();
-				writer.write(contacts, s);
-				connector.sendFile();
+			DeltaWriter deltaWriter = null;
+			if (commandLine.hasOption("delta-file")) {
+				deltaWriter = new DeltaWriter(writer, commandLine.getOptionValue("delta-file"));
+				deltaWriter.setVerbose(verbose);
 			}
+			final DeltaWriter delta = deltaWriter;
 
+			if (verbose) {
+				System.out.println(fromSnapshot ? "#Stage 1 - reading the contacts snapshot and writing the results"
+						: "#Stage 1 - reading the google contacts feed and writing the results");
+			}
+			boolean completed = false;
+			try {
+				output.write(writer.renderHeader());
+				if (delta != null) {
+					delta.open();
+				}
+				ContactPageHandler handler = new ContactPageHandler() {
+					public void handlePage(List<ContactEntry> page) throws GCCSVException {
+						try {
+							output.write(writer.renderPage(page), page.size());
+							exported += page.size();
+							if (delta != null) {
+								delta.writePage(page);
+							}
+						} catch (CVSWriterException e) {
+							throw new GCCSVException(e.getMessage(), e);
+						}
+					}
+				};
+				if (fromSnapshot) {
+					snapshot.replay(handler, pageSize, mapping.values());
+				} else if (commandLine.hasOption("incremental")) {
+					IncrementalSync sync = new IncrementalSync(connector, snapshot);
+					sync.setVerbose(verbose);
+					sync.readContacts(handler);
+				} else {
+					snapshot.readContacts(connector, handler, commandLine.hasOption("resume"));
+				}
+				if (delta != null) {
+					delta.finish();
+				}
+				completed = true;
+			} finally {
+				if (!completed) {
+					output.abort();
+					if (delta != null) {
+						delta.abort();
+					}
+				}
+			}
+			if (verbose) {
+				System.out.println("#Stage 2 - waiting for the outputs to finish");
+			}
+			output.close();
+		}
+	}
+
+	/**
+	 * The header to field mapping given with output-header and
+	 * output-mapping, or the default one.
+	 */
+	private Map<String, GC_FIELD> readMapping() {
+		Map<String, GC_FIELD> mapping = new LinkedHashMap<String, GC_FIELD>(DEFAULT_MAPPING);
+		if (commandLine.hasOption("output-header") && commandLine.hasOption("output-mapping")) {
+			String[] columns = commandLine.getOptionValues("output-header");
+			String[] fields = commandLine.getOptionValues("output-mapping");
+			if (columns.length == fields.length) {
+				mapping.clear();
+				for (int i = 0; i < columns.length; i++) {
+					mapping.put(columns[i], GC_FIELD.valueOf(fields[i]));
+				}
+			}
+		}
+		return mapping;
+	}
+
+	/**
+	 * The ICW1000G phones given with icw1000 and in icw1000-file.
+	 */
+	private List<String> readDevices() throws GCCSVException {
+		List<String> devices = new ArrayList<String>();
+		if (commandLine.hasOption("icw1000")) {
+			devices.addAll(Arrays.asList(commandLine.getOptionValues("icw1000")));
+		}
+		if (commandLine.hasOption("icw1000-file")) {
+			try {
+				for (String line : Files.readAllLines(Paths.get(commandLine.getOptionValue("icw1000-file")))) {
+					line = line.trim();
+					if (!line.isEmpty() && !line.startsWith("#")) {
+						devices.add(line);
+					}
+				}
+			} catch (IOException e) {
+				throw new GCCSVException("Invalid file for ICW1000G phones: " + commandLine.getOptionValue("icw1000-file"), e);
+			}
 		}
+		return devices;
 	}
 }
\ No newline at end of file
@@ -0,0 +1,92 @@
+package com.github.gccsv;
+
+/**
+ * Picks the size of the next page from how long the last pages took and how
+ * big they were. A page faster than the target makes the next ones bigger,
+ * a slower one smaller, by at most twice at a time, and a failed one halves
+ * them. Pages within a quarter of the target keep the size. Pages are also
+ * kept under {@link #MAX_PAGE_BYTES}, so that the pages in flight do not take
+ * too much memory.
+ *
+ * Pages are measured as they arrive, from any fetch thread, and the pages
+ * asked for after that get the new size.
+ */
+public class PageSizer {
+	static final int MIN_PAGE_SIZE = 10;
+	static final int MAX_PAGE_SIZE = 10000;
+	static final long MAX_PAGE_BYTES = 4 * 1024 * 1024;
+	private static final double MAX_STEP = 2.0;
+	private static final double CLOSE_ENOUGH = 1.25;
+
+	private final long targetNanos;
+	private final int minPageSize;
+	private int pageSize;
+	private boolean verbose;
+
+	/**
+	 * @param pageSize
+	 *             the size of the first page
+	 * @param targetMillis
+	 *             how long a page should take
+	 */
+	public PageSizer(int pageSize, long targetMillis) {
+		this.minPageSize = Math.min(MIN_PAGE_SIZE, pageSize);
+		this.pageSize = this.clamp(pageSize);
+		this.targetNanos = targetMillis * 1000000;
+	}
+
+	public void setVerbose(boolean verbose) {
+		this.verbose = verbose;
+	}
+
+	public synchronized int getPageSize() {
+		return pageSize;
+	}
+
+	/**
+	 * Adjusts the page size to a page that arrived.
+	 *
+	 * @param bytes
+	 *             the size of the page, or 0 if unknown
+	 */
+	public synchronized void pageRead(int querySize, int entries, long nanos, long bytes) {
+		if (entries < querySize || entries == 0 || nanos <= 0) {
+			// the last page says little about the time per entry
+			return;
+		}
+		double step = Math.max(1 / MAX_STEP, Math.min(MAX_STEP, (double) targetNanos / nanos));
+		if (step > 1 / CLOSE_ENOUGH && step < CLOSE_ENOUGH && bytes * querySize <= MAX_PAGE_BYTES * entries) {
+			// near the target, the time of a page varies more than a resize would change it
+			return;
+		}
+		long size = Math.round(querySize * step);
+		if (step >= 1 && size < pageSize) {
+			// a smaller page, e.g. asked for before the last change, was fast
+			return;
+		}
+		if (bytes > 0) {
+			size = Math.min(size, MAX_PAGE_BYTES * entries / bytes);
+		}
+		this.resize(this.clamp(size), String.format("a page of %d took %d ms", querySize, nanos / 1000000));
+	}
+
+	/**
+	 * Halves the page size after a page could not be read, e.g. timed out.
+	 */
+	public synchronized void pageFailed(int querySize) {
+		this.resize(this.clamp(Math.min(pageSize, querySize) / 2), String.format("a page of %d failed", querySize));
+	}
+
+	private void resize(int size, String reason) {
+		if (size != pageSize) {
+			if (verbose) {
+				System.out.printf("Page size changed from %d to %d, %s\n", pageSize, size, reason);
+			}
+			pageSize = size;
+		}
+	}
+
+	private int clamp(long size) {
+		return (int) Math.max(minPageSize, Math.min(MAX_PAGE_SIZE, size));
+	}
+}
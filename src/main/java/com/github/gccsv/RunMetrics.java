@@ -0,0 +1,138 @@
+package com.github.gccsv;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The counters and latency histograms of one run, e.g. the pages fetched and
+ * how long each took. Components look their counters and timers up once,
+ * when the metrics are set, and update them from any thread.
+ */
+public class RunMetrics {
+	/**
+	 * The upper bounds of the buckets of every timer, in milliseconds. Longer
+	 * times fall in a last bucket of their own.
+	 */
+	static final long[] BUCKETS_MILLIS = { 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 30000, 60000 };
+
+	private final ConcurrentMap<String, LongAdder> counters = new ConcurrentHashMap<String, LongAdder>();
+	private final ConcurrentMap<String, Timer> timers = new ConcurrentHashMap<String, Timer>();
+
+	public LongAdder counter(String name) {
+		LongAdder counter = counters.get(name);
+		if (counter == null) {
+			LongAdder other = counters.putIfAbsent(name, counter = new LongAdder());
+			if (other != null) {
+				counter = other;
+			}
+		}
+		return counter;
+	}
+
+	public Timer timer(String name) {
+		Timer timer = timers.get(name);
+		if (timer == null) {
+			Timer other = timers.putIfAbsent(name, timer = new Timer());
+			if (other != null) {
+				timer = other;
+			}
+		}
+		return timer;
+	}
+
+	public long getCount(String name) {
+		LongAdder counter = counters.get(name);
+		return counter == null ? 0 : counter.sum();
+	}
+
+	SortedMap<String, Long> getCounters() {
+		SortedMap<String, Long> values = new TreeMap<String, Long>();
+		for (Map.Entry<String, LongAdder> counter : counters.entrySet()) {
+			values.put(counter.getKey(), counter.getValue().sum());
+		}
+		return values;
+	}
+
+	SortedMap<String, Timer> getTimers() {
+		return new TreeMap<String, Timer>(timers);
+	}
+
+	/**
+	 * Counts how many times something happened and how long each took.
+	 */
+	public static class Timer {
+		private final LongAdder count = new LongAdder();
+		private final LongAdder totalNanos = new LongAdder();
+		private final AtomicLong maxNanos = new AtomicLong();
+		private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS_MILLIS.length + 1);
+
+		public void record(long nanos) {
+			count.increment();
+			totalNanos.add(nanos);
+			long max;
+			while (nanos > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, nanos)) {
+				// another thread got there first
+			}
+			long millis = nanos / 1000000;
+			int bucket = 0;
+			while (bucket < BUCKETS_MILLIS.length && millis >= BUCKETS_MILLIS[bucket]) {
+				bucket++;
+			}
+			buckets.incrementAndGet(bucket);
+		}
+
+		/**
+		 * Records the time since the given {@link System#nanoTime()}.
+		 */
+		public void recordSince(long startNanos) {
+			this.record(System.nanoTime() - startNanos);
+		}
+
+		public long getCount() {
+			return count.sum();
+		}
+
+		public double getTotalMillis() {
+			return totalNanos.sum() / 1000000.0;
+		}
+
+		public double getMaxMillis() {
+			return maxNanos.get() / 1000000.0;
+		}
+
+		long getBucket(int bucket) {
+			return buckets.get(bucket);
+		}
+
+		/**
+		 * The upper bound of the bucket the given share of the times fall in,
+		 * or the max for the last bucket.
+		 */
+		public double getPercentileMillis(double share) {
+			long total = 0;
+			long[] counts = new long[BUCKETS_MILLIS.length + 1];
+			for (int i = 0; i < counts.length; i++) {
+				counts[i] = buckets.get(i);
+				total += counts[i];
+			}
+			if (total == 0) {
+				return 0;
+			}
+			long rank = (long) Math.ceil(share * total);
+			long seen = 0;
+			for (int i = 0; i < BUCKETS_MILLIS.length; i++) {
+				seen += counts[i];
+				if (seen >= rank) {
+					return Math.min(BUCKETS_MILLIS[i], this.getMaxMillis());
+				}
+			}
+			return this.getMaxMillis();
+		}
+	}
+}
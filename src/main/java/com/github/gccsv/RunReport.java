@@ -0,0 +1,105 @@
+package com.github.gccsv;
+
+import com.google.api.client.json.JsonGenerator;
+import com.google.api.client.json.jackson2.JacksonFactory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * The machine readable report of a run: when it ran, whether it succeeded,
+ * and its counters and timers, written as a JSON object once the run
+ * finished. Timers have their count, total, mean, max and percentiles, in
+ * milliseconds, and the number of times in each bucket of
+ * {@link RunMetrics#BUCKETS_MILLIS}.
+ */
+public class RunReport {
+	private final Map<String, Object> report = new LinkedHashMap<String, Object>();
+
+	/**
+	 * @param error
+	 *             why the run failed, or null if it succeeded
+	 */
+	public RunReport(long startMillis, long endMillis, String error) {
+		report.put("started", format(new Date(startMillis)));
+		report.put("finished", format(new Date(endMillis)));
+		report.put("duration_ms", endMillis - startMillis);
+		report.put("result", error == null ? "OK" : "FAILED");
+		report.put("error", error);
+	}
+
+	public void put(String name, Object value) {
+		report.put(name, value);
+	}
+
+	public void putMetrics(RunMetrics metrics) {
+		report.put("counters", metrics.getCounters());
+		Map<String, Object> timers = new LinkedHashMap<String, Object>();
+		for (Map.Entry<String, RunMetrics.Timer> timer : metrics.getTimers().entrySet()) {
+			timers.put(timer.getKey(), toMap(timer.getValue()));
+		}
+		report.put("timers", timers);
+	}
+
+	Map<String, Object> toMap() {
+		return report;
+	}
+
+	/**
+	 * Writes the report to a temporary file first and then moves it over the
+	 * given one, so that readers never see half a report.
+	 */
+	public void write(File file) throws IOException {
+		File tmp = new File(file.getPath() + ".tmp");
+		Writer writer = new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8);
+		try {
+			JsonGenerator generator = new JacksonFactory().createJsonGenerator(writer);
+			generator.enablePrettyPrint();
+			generator.serialize(report);
+			generator.flush();
+		} finally {
+			writer.close();
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static Map<String, Object> toMap(RunMetrics.Timer timer) {
+		Map<String, Object> values = new LinkedHashMap<String, Object>();
+		long count = timer.getCount();
+		values.put("count", count);
+		values.put("total_ms", round(timer.getTotalMillis()));
+		values.put("mean_ms", count == 0 ? 0 : round(timer.getTotalMillis() / count));
+		values.put("max_ms", round(timer.getMaxMillis()));
+		values.put("p50_ms", round(timer.getPercentileMillis(0.5)));
+		values.put("p90_ms", round(timer.getPercentileMillis(0.9)));
+		values.put("p99_ms", round(timer.getPercentileMillis(0.99)));
+		Map<String, Long> buckets = new LinkedHashMap<String, Long>();
+		for (int i = 0; i < RunMetrics.BUCKETS_MILLIS.length; i++) {
+			buckets.put("lt_" + RunMetrics.BUCKETS_MILLIS[i], timer.getBucket(i));
+		}
+		buckets.put("ge_" + RunMetrics.BUCKETS_MILLIS[RunMetrics.BUCKETS_MILLIS.length - 1], timer.getBucket(RunMetrics.BUCKETS_MILLIS.length));
+		values.put("buckets_ms", buckets);
+		return values;
+	}
+
+	private static double round(double millis) {
+		return Math.round(millis * 1000) / 1000.0;
+	}
+
+	private static String format(Date date) {
+		SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		return format.format(date);
+	}
+}
@@ -0,0 +1,107 @@
+package com.github.gccsv;
+
+import com.github.gccsv.output.CSVWriter;
+import com.github.gccsv.output.CVSWriterException;
+import com.github.gccsv.output.MultiSinkOutput;
+import com.github.gccsv.output.StreamSink;
+import com.google.api.client.googleapis.auth.oauth2.GoogleTokenResponse;
+import com.google.api.client.http.javanet.NetHttpTransport;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.gdata.client.contacts.ContactsService;
+import com.google.gdata.data.contacts.ContactEntry;
+import com.google.gdata.data.contacts.ContactFeed;
+import org.apache.commons.cli.CommandLine;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The training run of the class data sharing archive built by the appcds
+ * profile. Goes through what an export does before and after its requests,
+ * offline: parsing the options, creating the contacts service, parsing a
+ * token response and a feed, keeping a snapshot and rendering the CSV. The
+ * classes it loads are the ones archived.
+ */
+public class StartupTraining {
+
+	private static final String TOKEN_RESPONSE = "{\"access_token\":\"training\",\"token_type\":\"Bearer\",\"expires_in\":3600}";
+
+	private static final String FEED = "<?xml version='1.0' encoding='UTF-8'?>"
+			+ "<feed xmlns='http://www.w3.org/2005/Atom' xmlns:openSearch='http://a9.com/-/spec/opensearch/1.1/'"
+			+ " xmlns:gd='http://schemas.google.com/g/2005' xmlns:gContact='http://schemas.google.com/contact/2008'>"
+			+ "<id>training@example.com</id><updated>2016-01-01T00:00:00.000Z</updated><title>Training</title>"
+			+ "<openSearch:totalResults>1</openSearch:totalResults><openSearch:startIndex>1</openSearch:startIndex>"
+			+ "<openSearch:itemsPerPage>50</openSearch:itemsPerPage><entry>"
+			+ "<id>http://www.google.com/m8/feeds/contacts/training%40example.com/base/1</id>"
+			+ "<updated>2016-01-01T00:00:00.000Z</updated>"
+			+ "<category scheme='http://schemas.google.com/g/2005#kind' term='http://schemas.google.com/contact/2008#contact'/>"
+			+ "<title>José Training</title>"
+			+ "<gd:email rel='http://schemas.google.com/g/2005#home' address='training@example.com' primary='true'/>"
+			+ "<gd:phoneNumber rel='http://schemas.google.com/g/2005#mobile'>+351 911000000</gd:phoneNumber>"
+			+ "<gd:structuredPostalAddress rel='http://schemas.google.com/g/2005#home'><gd:formattedAddress>1 Training Street\nLisbon</gd:formattedAddress></gd:structuredPostalAddress>"
+			+ "</entry></feed>";
+
+	public static void main(String[] args) throws Exception {
+		File storageDir = File.createTempFile("gc-csv-training", "");
+		storageDir.delete();
+		try {
+			CommandLine commandLine = Main.parseJobOptions(new String[] { "-C", "id", "-S", "secret", "-d", storageDir.getPath() + "/",
+					"--deaccent" });
+
+			JsonFactory jsonFactory = new JacksonFactory();
+			new NetHttpTransport();
+			jsonFactory.fromString(TOKEN_RESPONSE, GoogleTokenResponse.class).getAccessToken();
+
+			Map<String, GC_FIELD> mapping = new LinkedHashMap<String, GC_FIELD>();
+			for (GC_FIELD field : GC_FIELD.values()) {
+				mapping.put(field.name(), field);
+			}
+			FeedFields fields = new FeedFields(mapping.values());
+			ContactsService contactsService = new ContactsService("gc-csv");
+			contactsService.setExtensionProfile(fields.createExtensionProfile());
+			ContactFeed feed = new ContactFeed();
+			feed.parseAtom(contactsService.getExtensionProfile(), new ByteArrayInputStream(FEED.getBytes(StandardCharsets.UTF_8)));
+			List<ContactEntry> page = feed.getEntries();
+
+			ContactSnapshot snapshot = new ContactSnapshot(GCConnector.storeDir(commandLine.getOptionValue("d")));
+			ContactSnapshot.Writer snapshotWriter = snapshot.create("training");
+			for (ContactEntry entry : page) {
+				snapshotWriter.add(ContactRecord.fromEntry(entry));
+			}
+			snapshotWriter.commit(feed.getUpdated().getValue());
+
+			final CSVWriter writer = new CSVWriter(mapping, commandLine.hasOption("deaccent"));
+			final MultiSinkOutput output = new MultiSinkOutput();
+			output.addSink(new StreamSink("training", new ByteArrayOutputStream(), true));
+			output.write(writer.renderHeader());
+			snapshot.replay(new ContactPageHandler() {
+				public void handlePage(List<ContactEntry> page) throws GCCSVException {
+					try {
+						output.write(writer.renderPage(page));
+					} catch (CVSWriterException e) {
+						throw new GCCSVException(e.getMessage(), e);
+					}
+				}
+			}, 50, mapping.values());
+			output.close();
+		} finally {
+			delete(storageDir);
+		}
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+}
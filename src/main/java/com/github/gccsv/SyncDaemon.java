@@ -0,0 +1,186 @@
+package com.github.gccsv;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+
+/**
+ * Keeps the process alive and runs an export, or a batch of them, over and
+ * over. The export is given as a task that returns whether it succeeded, and
+ * keeps its connectors, tokens and writers between runs.
+ *
+ * Runs happen one after the other on the calling thread, so they never
+ * overlap, and the next run starts an interval after the previous one
+ * finished. A run that fails, or takes longer than the interval, doubles the
+ * wait, up to {@link #MAX_BACKOFF} intervals, and the first good run resets
+ * it.
+ *
+ * The state of the daemon can be followed in a status file of key=value
+ * lines, rewritten as runs start and finish. The state is only changed
+ * while holding the lock the status is written with, as the shutdown hook
+ * writes it from a thread of its own.
+ */
+public class SyncDaemon {
+	static final int MAX_BACKOFF = 8;
+	private static final int UNHEALTHY_FAILURES = 3;
+
+	private final Callable<Boolean> export;
+	private final long intervalMillis;
+	private File statusFile;
+	private boolean verbose;
+
+	private final Date started = new Date();
+	private String state = "starting";
+	private int runs;
+	private int failures;
+	private int consecutiveFailures;
+	private int backoff = 1;
+	private Date lastStart;
+	private Date lastEnd;
+	private String lastResult;
+	private String lastError;
+	private Date nextRun;
+
+	public SyncDaemon(Callable<Boolean> export, long intervalMillis) {
+		this.export = export;
+		this.intervalMillis = intervalMillis;
+	}
+
+	public void setVerbose(boolean verbose) {
+		this.verbose = verbose;
+	}
+
+	/**
+	 * Where to keep the status of the daemon, or null for nowhere.
+	 */
+	public void setStatusFile(File statusFile) {
+		this.statusFile = statusFile;
+	}
+
+	/**
+	 * Runs the export until interrupted.
+	 */
+	public void run() {
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			public void run() {
+				synchronized (SyncDaemon.this) {
+					state = "stopped";
+					writeStatus();
+				}
+			}
+		});
+		while (!Thread.currentThread().isInterrupted()) {
+			long duration = this.runOnce();
+			long delay;
+			synchronized (this) {
+				if (consecutiveFailures > 0 || duration > intervalMillis) {
+					backoff = Math.min(backoff * 2, MAX_BACKOFF);
+				} else {
+					backoff = 1;
+				}
+				delay = intervalMillis * backoff;
+				nextRun = new Date(System.currentTimeMillis() + delay);
+				state = "idle";
+				this.writeStatus();
+			}
+			if (verbose) {
+				System.out.printf("Next run at %s\n", format(nextRun));
+			}
+			try {
+				Thread.sleep(delay);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private long runOnce() {
+		synchronized (this) {
+			lastStart = new Date();
+			state = "running";
+			this.writeStatus();
+		}
+		if (verbose) {
+			System.out.printf("Run %d started at %s\n", runs + 1, format(lastStart));
+		}
+		String error = null;
+		try {
+			if (!export.call()) {
+				error = "Some exports failed";
+			}
+		} catch (Exception e) {
+			error = e.getMessage() != null ? e.getMessage() : e.toString();
+			if (verbose) {
+				e.printStackTrace();
+			}
+		}
+		synchronized (this) {
+			lastEnd = new Date();
+			runs++;
+			if (error == null) {
+				lastResult = "OK";
+				consecutiveFailures = 0;
+			} else {
+				lastResult = "FAILED";
+				failures++;
+				consecutiveFailures++;
+			}
+			lastError = error;
+		}
+		if (error != null) {
+			System.err.printf("Run %d failed. Cause: %s\n", runs, error);
+		}
+		return lastEnd.getTime() - lastStart.getTime();
+	}
+
+	private synchronized void writeStatus() {
+		if (statusFile == null) {
+			return;
+		}
+		File tmp = new File(statusFile.getPath() + ".tmp");
+		PrintWriter writer = null;
+		try {
+			writer = new PrintWriter(tmp, "UTF-8");
+			writer.printf("state=%s\n", state);
+			writer.printf("health=%s\n", consecutiveFailures < UNHEALTHY_FAILURES ? "ok" : "failing");
+			writer.printf("started=%s\n", format(started));
+			writer.printf("interval_ms=%d\n", intervalMillis);
+			writer.printf("runs=%d\n", runs);
+			writer.printf("failures=%d\n", failures);
+			writer.printf("consecutive_failures=%d\n", consecutiveFailures);
+			writer.printf("backoff=%d\n", backoff);
+			writer.printf("last_start=%s\n", format(lastStart));
+			writer.printf("last_end=%s\n", format(lastEnd));
+			writer.printf("last_duration_ms=%s\n", lastEnd == null || lastEnd.before(lastStart) ? "" : lastEnd.getTime() - lastStart.getTime());
+			writer.printf("last_result=%s\n", lastResult == null ? "" : lastResult);
+			writer.printf("last_error=%s\n", lastError == null ? "" : lastError.replace('\n', ' '));
+			writer.printf("next_run=%s\n", "idle".equals(state) ? format(nextRun) : "");
+			writer.close();
+			writer = null;
+			Files.move(tmp.toPath(), statusFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			if (verbose) {
+				System.err.println("Could not write the daemon status. Cause: " + e.getMessage());
+			}
+		} finally {
+			if (writer != null) {
+				writer.close();
+			}
+		}
+	}
+
+	private static String format(Date date) {
+		if (date == null) {
+			return "";
+		}
+		SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		return format.format(date);
+	}
+}
@@ -0,0 +1,92 @@
+package com.github.gccsv;
+
+/**
+ * Emits Java Flight Recorder events for the pages fetched, the token
+ * refreshes, the chunks rendered and the ICW1000G requests, so that a
+ * recording shows them next to the GC pauses, allocations and socket reads
+ * of the same export.
+ *
+ * Events are begun before what they time and ended after it. Older java 8
+ * JVMs have no Flight Recorder, so the event classes, in {@link JfrEvents},
+ * are only loaded once it is known to be there; otherwise nothing is
+ * recorded and begin returns null. When no recording is running an event is
+ * a couple of field writes.
+ */
+public final class Tracing {
+	private static final boolean AVAILABLE = isAvailable();
+
+	private Tracing() {
+	}
+
+	public static boolean isAvailable() {
+		try {
+			Class.forName("jdk.jfr.Event", false, Tracing.class.getClassLoader());
+			return true;
+		} catch (ClassNotFoundException e) {
+			return false;
+		} catch (LinkageError e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Records the whole run, with the default settings of the JVM and these
+	 * events, to the given file, written when the JVM exits.
+	 */
+	public static void startRecording(String destination) throws GCCSVException {
+		if (!AVAILABLE) {
+			throw new GCCSVException("This JVM has no Flight Recorder, use java 8u262 or later", null);
+		}
+		JfrEvents.startRecording(destination);
+	}
+
+	public static Object beginFeedPage() {
+		return AVAILABLE ? JfrEvents.beginFeedPage() : null;
+	}
+
+	/**
+	 * @param error
+	 *             why the page could not be read, or null
+	 */
+	public static void endFeedPage(Object event, int startIndex, int querySize, int entries, String error) {
+		if (event != null) {
+			JfrEvents.endFeedPage(event, startIndex, querySize, entries, error);
+		}
+	}
+
+	public static Object beginTokenRefresh() {
+		return AVAILABLE ? JfrEvents.beginTokenRefresh() : null;
+	}
+
+	public static void endTokenRefresh(Object event, String error) {
+		if (event != null) {
+			JfrEvents.endTokenRefresh(event, error);
+		}
+	}
+
+	public static Object beginRender() {
+		return AVAILABLE ? JfrEvents.beginRender() : null;
+	}
+
+	public static void endRender(Object event, int rows, int bytes) {
+		if (event != null) {
+			JfrEvents.endRender(event, rows, bytes);
+		}
+	}
+
+	public static Object beginICW1000Request() {
+		return AVAILABLE ? JfrEvents.beginICW1000Request() : null;
+	}
+
+	/**
+	 * @param request
+	 *             login or import
+	 * @param entries
+	 *             the entries the device imported, if any
+	 */
+	public static void endICW1000Request(Object event, String address, String request, int entries, String error) {
+		if (event != null) {
+			JfrEvents.endICW1000Request(event, address, request, entries, error);
+		}
+	}
+}
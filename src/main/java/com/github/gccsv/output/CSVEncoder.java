@@ -0,0 +1,139 @@
+package com.github.gccsv.output;
+
+import java.util.Arrays;
+
+/**
+ * Encodes text straight into a reusable UTF-8 byte buffer, without the
+ * intermediate String and char[] copies. ASCII, which is all there is once
+ * names are de-accented, is copied byte by byte.
+ */
+public class CSVEncoder {
+	private byte[] buffer;
+	private int size;
+
+	public CSVEncoder(int initialCapacity) {
+		this.buffer = new byte[initialCapacity];
+	}
+
+	public void reset() {
+		size = 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public byte[] toByteArray() {
+		return Arrays.copyOf(buffer, size);
+	}
+
+	public CSVEncoder append(char c) {
+		if (c < 0x80) {
+			ensureCapacity(1);
+			buffer[size++] = (byte) c;
+		} else {
+			append(String.valueOf(c));
+		}
+		return this;
+	}
+
+	/**
+	 * Appends the text, or "null" like a StringBuilder would.
+	 */
+	public CSVEncoder append(String text) {
+		if (text == null) {
+			text = "null";
+		}
+		int length = text.length();
+		ensureCapacity(length);
+		int i = 0;
+		byte[] bytes = buffer;
+		int position = size;
+		for (; i < length; i++) {
+			char c = text.charAt(i);
+			if (c >= 0x80) {
+				break;
+			}
+			bytes[position++] = (byte) c;
+		}
+		size = position;
+		if (i < length) {
+			appendNonAscii(text, i);
+		}
+		return this;
+	}
+
+	/**
+	 * Appends the text as a CSV field: enclosed in quotes, with the quotes in
+	 * it doubled.
+	 */
+	public CSVEncoder appendEnclosed(String text) {
+		append('"');
+		if (text == null || text.indexOf('"') < 0) {
+			append(text);
+		} else {
+			int from = 0;
+			int quote;
+			while ((quote = text.indexOf('"', from)) >= 0) {
+				append(text.substring(from, quote + 1)).append('"');
+				from = quote + 1;
+			}
+			append(text.substring(from));
+		}
+		return append('"');
+	}
+
+	/**
+	 * Appends bytes that are already encoded.
+	 */
+	public CSVEncoder append(byte[] bytes, int offset, int length) {
+		ensureCapacity(length);
+		System.arraycopy(bytes, offset, buffer, size, length);
+		size += length;
+		return this;
+	}
+
+	/**
+	 * The encoded bytes, valid until the next change. Use
+	 * {@link #toByteArray()} for a copy.
+	 */
+	byte[] buffer() {
+		return buffer;
+	}
+
+	private void appendNonAscii(String text, int from) {
+		int length = text.length();
+		ensureCapacity(3 * (length - from));
+		byte[] bytes = buffer;
+		int position = size;
+		for (int i = from; i < length; i++) {
+			char c = text.charAt(i);
+			if (c < 0x80) {
+				bytes[position++] = (byte) c;
+			} else if (c < 0x800) {
+				bytes[position++] = (byte) (0xC0 | (c >> 6));
+				bytes[position++] = (byte) (0x80 | (c & 0x3F));
+			} else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+				int codePoint = Character.toCodePoint(c, text.charAt(++i));
+				bytes[position++] = (byte) (0xF0 | (codePoint >> 18));
+				bytes[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+				bytes[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+				bytes[position++] = (byte) (0x80 | (codePoint & 0x3F));
+			} else if (Character.isSurrogate(c)) {
+				// same replacement as String.getBytes for malformed input
+				bytes[position++] = (byte) '?';
+			} else {
+				bytes[position++] = (byte) (0xE0 | (c >> 12));
+				bytes[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+				bytes[position++] = (byte) (0x80 | (c & 0x3F));
+			}
+		}
+		size = position;
+	}
+
+	private void ensureCapacity(int additional) {
+		if (size + additional > buffer.length) {
+			buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + additional));
+		}
+	}
+}
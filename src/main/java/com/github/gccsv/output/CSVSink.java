@@ -0,0 +1,26 @@
+package com.github.gccsv.output;
+
+import java.io.IOException;
+
+/**
+ * A destination for the rendered CSV. Chunks arrive in order and are shared
+ * between sinks, so they must not be modified.
+ */
+public interface CSVSink {
+
+	String getName();
+
+	void write(byte[] chunk) throws IOException;
+
+	/**
+	 * Called once after the last chunk.
+	 */
+	void finish() throws IOException;
+
+	/**
+	 * Called instead of {@link #finish()} when the CSV will not be complete,
+	 * or after a write failed. Releases whatever the sink holds without
+	 * publishing what was written so far, where possible.
+	 */
+	void abort();
+}
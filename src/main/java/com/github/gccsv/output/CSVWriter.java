@@ -1,61 +1,166 @@
 package com.github.gccsv.output;
 
 import com.github.gccsv.GC_FIELD;
+import com.github.gccsv.RunMetrics;
+import com.github.gccsv.Tracing;
 import com.google.gdata.data.contacts.ContactEntry;
-import com.google.gdata.data.extensions.PostalAddress;
-import com.google.gdata.data.extensions.StructuredPostalAddress;
 
-import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.text.Normalizer;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Pattern;
 
+/**
+ * Renders contacts as CSV rows. The mapping is compiled into a
+ * {@link ColumnPlan} when the writer is created; rendering keeps no state, so
+ * a writer can be reused and shared between threads.
+ */
 public class CSVWriter {
 
-	private boolean deaccent = true;
-	private Map<String, GC_FIELD> mapping;
-	private String fieldSepparator = ",";
-	private String newLine = System.getProperty("line.separator");
-
-	private StringBuffer csv = new StringBuffer();
-	private int numberIndex;
-	private int emailIndex;
+	private final ColumnPlan plan;
+	private final DeAccenter deAccenter;
+	private final String fieldSepparator = ",";
+	private final String newLine = System.getProperty("line.separator");
+	private final byte[] header;
+	private final ThreadLocal<CSVEncoder> encoders = new ThreadLocal<CSVEncoder>() {
+		@Override
+		protected CSVEncoder initialValue() {
+			return new CSVEncoder(64 * 1024);
+		}
+	};
 	private boolean verbose;
+	private RunMetrics metrics = new RunMetrics();
 
 	public CSVWriter(Map<String, GC_FIELD> mapping, boolean deaccent) {
-		this.deaccent = deaccent;
-		this.mapping = mapping;
+		this.deAccenter = deaccent ? new DeAccenter() : null;
+		this.plan = new ColumnPlan(mapping, deAccenter);
+
+		CSVEncoder encoder = new CSVEncoder(256);
+		appendHeader(encoder);
+		encoder.append(newLine);
+		this.header = encoder.toByteArray();
 	}
 
 	public void setVerbose(boolean verbose) {
 		this.verbose = verbose;
+		this.plan.setVerbose(verbose);
+	}
+
+	/**
+	 * Where to count the rows and bytes rendered, the time of every page, as
+	 * render.rows, render.bytes and render.page, and the de-accenting.
+	 */
+	public void setMetrics(RunMetrics metrics) {
+		this.metrics = metrics;
+		if (deAccenter != null) {
+			deAccenter.setMetrics(metrics);
+		}
+	}
+
+	public ColumnPlan getPlan() {
+		return plan;
 	}
 
 	public void write(List<ContactEntry> entries, OutputStream outputStream) throws CVSWriterException {
 		if (verbose) {
 			System.out.printf("Got %d entries to write\n", entries.size());
 		}
-		if (csv == null || csv.length() == 0) {
-			csv = this.generateCSV(entries);
+		try {
+			outputStream.write(this.renderHeader());
+			outputStream.write(this.renderPage(entries));
+			outputStream.flush();
+		} catch (IOException e) {
+			if (verbose) {
+				System.err.println("Could not write to file. Cause: " + e.getMessage());
+			}
+			throw new CVSWriterException(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Encodes the header line. Together with {@link #renderPage(List)} it
+	 * allows rendering the CSV page by page, as the contacts arrive, and
+	 * handing the same bytes to every destination.
+	 */
+	public byte[] renderHeader() {
+		return header.clone();
+	}
+
+	/**
+	 * Encodes the rows of a page of contacts, without the header.
+	 */
+	public byte[] renderPage(List<ContactEntry> entries) {
+		if (verbose) {
+			System.out.printf("Rendering %d entries\n", entries.size());
+		}
+		long start = System.nanoTime();
+		Object event = Tracing.beginRender();
+		CSVEncoder encoder = encoders.get();
+		encoder.reset();
+		appendRows(encoder, entries);
+		byte[] rows = encoder.toByteArray();
+		Tracing.endRender(event, entries.size(), rows.length);
+		metrics.timer("render.page").recordSince(start);
+		metrics.counter("render.rows").add(entries.size());
+		metrics.counter("render.bytes").add(rows.length);
+		return rows;
+	}
+
+	/**
+	 * Opens the destination file as a sink. Regular files are written to a
+	 * temporary file which replaces the destination once complete; anything
+	 * else (e.g. a named pipe or a device) is written in place.
+	 * 
+	 * @param mapped
+	 *             whether to write the file through memory mapping
+	 */
+	public CSVSink openFile(String destination, boolean mapped) throws CVSWriterException {
+		File file = new File(destination);
+		if (file.exists() && !file.isFile()) {
+			return new StreamSink(destination, this.open(destination), true);
+		}
+		if (verbose) {
+			System.out.println("Will write CSV file to " + destination + (mapped ? " through memory mapping" : ""));
 		}
 		try {
-			BufferedWriter bufferedWriter = new BufferedWriter(new OutputStreamWriter(outputStream, "UTF-8"));
-			bufferedWriter.write(csv.toString());
-			bufferedWriter.flush();
+			return new ChannelFileSink(file, mapped);
 		} catch (IOException e) {
 			if (verbose) {
 				System.err.println("Could not write to file. Cause: " + e.getMessage());
 			}
 			throw new CVSWriterException(e.getMessage(), e);
 		}
+	}
 
+	/**
+	 * Opens the destination file as a sink that gzips the CSV, compressing
+	 * blocks of it on the given number of threads.
+	 */
+	public CSVSink openCompressedFile(String destination, boolean mapped, int threads) throws CVSWriterException {
+		if (verbose) {
+			System.out.printf("Will gzip the CSV file with %d threads\n", threads);
+		}
+		return new ParallelGzipSink(this.openFile(destination, mapped), threads);
+	}
+
+	/**
+	 * Opens the destination file to write the CSV page by page.
+	 */
+	public OutputStream open(String destination) throws CVSWriterException {
+		if (verbose) {
+			System.out.println("Will write CSV file to " + destination);
+		}
+		try {
+			return new FileOutputStream(new File(destination));
+		} catch (FileNotFoundException e) {
+			if (verbose) {
+				System.err.println("Could not write to file. Cause: " + e.getMessage());
+			}
+			throw new CVSWriterException(e.getMessage(), e);
+		}
 	}
 
 	public void write(List<ContactEntry> entries, String destination) throws CVSWriterException {
@@ -76,106 +181,32 @@ public class CSVWriter {
 		}
 	}
 
-	private void appendEnclosed(StringBuffer buffer, String text) {
-		buffer.append("\"").append(text).append("\"");
+	private void appendEnclosed(CSVEncoder buffer, String text) {
+		buffer.appendEnclosed(text);
 	}
 
-	private String deAccent(String str) {
-		String result = str;
-		String nfdNormalizedString = Normalizer.normalize(str, Normalizer.Form.NFD);
-		Pattern pattern = Pattern.compile("\\p{InCombiningDiacriticalMarks}+");
-		result = pattern.matcher(nfdNormalizedString).replaceAll("");
-		if (verbose && (!result.equals(str))) {
-			System.out.printf("De-accented  %s to %s\n", str, result);
+	private void appendHeader(CSVEncoder buffer) {
+		for (int i = 0; i < plan.size(); i++) {
+			if (i > 0) {
+				buffer.append(fieldSepparator);
+			}
+			appendEnclosed(buffer, plan.getHeader(i));
 		}
-		return result;
 	}
 
-	private void appendHeader(StringBuffer buffer) {
-		for (String field : mapping.keySet()) {
-			appendEnclosed(buffer, field);
-			buffer.append(fieldSepparator);
+	private void appendRows(CSVEncoder buffer, List<ContactEntry> entries) {
+		for (ContactEntry entry : entries) {
+			appendRow(buffer, entry);
 		}
-		buffer.setLength(buffer.length() - 1);
 	}
 
-	private StringBuffer generateCSV(List<ContactEntry> entries) {
-		StringBuffer buffer = new StringBuffer();
-
-		appendHeader(buffer);
-		buffer.append(newLine);
-
-		for (ContactEntry entry : entries) {
-			numberIndex = 0;
-			emailIndex = 0;
-			for (String field : mapping.keySet()) {
-				GC_FIELD source = mapping.get(field);
-				appendEnclosed(buffer, readField(entry, source));
+	void appendRow(CSVEncoder buffer, ContactEntry entry) {
+		for (int i = 0; i < plan.size(); i++) {
+			if (i > 0) {
 				buffer.append(fieldSepparator);
 			}
-			buffer.setLength(buffer.length() - 1);
-			buffer.append(newLine);
+			appendEnclosed(buffer, plan.read(i, entry));
 		}
-
-		return buffer;
-	}
-
-	private String readField(ContactEntry entry, GC_FIELD source) {
-		String result = "";
-
-		switch (source) {
-			case NAME:
-				String title = entry.getTitle().getPlainText();
-				result = deaccent ? deAccent(title) : title;
-				break;
-			case PHONE_NUMBER:
-				if (numberIndex < entry.getPhoneNumbers().size()) {
-					result = entry.getPhoneNumbers().get(numberIndex).getPhoneNumber();
-				}
-				numberIndex++;
-				break;
-			case EMAIL:
-				if (emailIndex < entry.getEmailAddresses().size()) {
-					result = entry.getEmailAddresses().get(emailIndex).getAddress();
-				}
-				emailIndex++;
-				break;
-			case ADDRESS:
-				PostalAddress primary = null;
-				StructuredPostalAddress primaryStructured = null;
-
-				for (PostalAddress address : entry.getPostalAddresses()) {
-					if (primary == null) {
-						primary = address;
-					}
-					if (address.getPrimary()) {
-						primary = address;
-					}
-				}
-				if (primary == null) {
-					for (StructuredPostalAddress address : entry.getStructuredPostalAddresses()) {
-						if (primaryStructured == null) {
-							primaryStructured = address;
-						}
-						if (primaryStructured.getPrimary()) {
-							primaryStructured = address;
-						}
-					}
-				}
-
-
-				if (primary != null) {
-					result = primary.getValue();
-				}
-				if (primaryStructured != null) {
-					result = primaryStructured.getFormattedAddress().getValue();
-				}
-
-				break;
-			case NONE:
-				break;
-		}
-
-		return result;
+		buffer.append(newLine);
 	}
 }
@@ -0,0 +1,135 @@
+package com.github.gccsv.output;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Random;
+
+/**
+ * Writes the CSV to a temporary file next to the destination, through a
+ * large direct buffer drained to its {@link FileChannel}, and renames it over
+ * the destination once finished, so that readers never see a partial export.
+ *
+ * In mapped mode the file is written through memory-mapped windows instead,
+ * which avoids the copy into the buffer for very large exports. Mapping a
+ * window grows the file to its end, so the first window is small and every
+ * next one twice the last, up to {@link #MAX_MAP_WINDOW}. The file then never
+ * grows to much more than twice what was written, and is truncated to it
+ * once finished.
+ */
+public class ChannelFileSink implements CSVSink {
+	private static final int BUFFER_SIZE = 1 << 20;
+	private static final long FIRST_MAP_WINDOW = 1L << 20;
+	private static final long MAX_MAP_WINDOW = 64L << 20;
+
+	private final File destination;
+	private final File temporary;
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final boolean mapped;
+	private ByteBuffer buffer;
+	private long windowStart;
+	private long window = FIRST_MAP_WINDOW;
+
+	public ChannelFileSink(File destination, boolean mapped) throws IOException {
+		this.destination = destination;
+		this.mapped = mapped;
+		this.temporary = temporaryFile(destination);
+		this.file = new RandomAccessFile(temporary, "rw");
+		this.channel = file.getChannel();
+		if (mapped) {
+			buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, window);
+		} else {
+			buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		}
+	}
+
+	public String getName() {
+		return destination.getPath();
+	}
+
+	public void write(byte[] chunk) throws IOException {
+		if (mapped) {
+			int offset = 0;
+			while (offset < chunk.length) {
+				if (!buffer.hasRemaining()) {
+					windowStart += buffer.position();
+					window = Math.min(2 * window, MAX_MAP_WINDOW);
+					buffer = channel.map(FileChannel.MapMode.READ_WRITE, windowStart, window);
+				}
+				int length = Math.min(buffer.remaining(), chunk.length - offset);
+				buffer.put(chunk, offset, length);
+				offset += length;
+			}
+		} else {
+			if (chunk.length > buffer.remaining()) {
+				drain();
+			}
+			if (chunk.length > buffer.capacity()) {
+				ByteBuffer wrapped = ByteBuffer.wrap(chunk);
+				while (wrapped.hasRemaining()) {
+					channel.write(wrapped);
+				}
+			} else {
+				buffer.put(chunk);
+			}
+		}
+	}
+
+	public void finish() throws IOException {
+		try {
+			if (mapped) {
+				long size = windowStart + buffer.position();
+				((MappedByteBuffer) buffer).force();
+				buffer = null;
+				channel.truncate(size);
+			} else {
+				drain();
+			}
+		} finally {
+			file.close();
+		}
+		try {
+			Files.move(temporary.toPath(), destination.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(temporary.toPath(), destination.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	public void abort() {
+		try {
+			file.close();
+		} catch (IOException e) {
+			// nothing else we can do
+		}
+		temporary.delete();
+	}
+
+	/**
+	 * A new file in the same directory, so that the rename is atomic, created
+	 * with the default permissions, unlike File.createTempFile.
+	 */
+	private static File temporaryFile(File destination) throws IOException {
+		File directory = destination.getAbsoluteFile().getParentFile();
+		Random random = new Random();
+		File temporary;
+		do {
+			temporary = new File(directory, "." + destination.getName() + "." + Integer.toHexString(random.nextInt()) + ".tmp");
+		} while (!temporary.createNewFile());
+		return temporary;
+	}
+
+	private void drain() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+}
@@ -0,0 +1,179 @@
+package com.github.gccsv.output;
+
+import com.github.gccsv.GC_FIELD;
+import com.google.gdata.data.contacts.ContactEntry;
+import com.google.gdata.data.extensions.PostalAddress;
+import com.google.gdata.data.extensions.StructuredPostalAddress;
+
+import java.util.Map;
+
+/**
+ * The header to {@link GC_FIELD} mapping compiled into one extractor per
+ * column. Repeated fields are resolved upfront to the list index they read,
+ * e.g. the second PHONE_NUMBER column reads the second phone number. A plan
+ * holds no per-row state and can be shared between threads.
+ */
+public class ColumnPlan {
+
+	private final String[] headers;
+	private final GC_FIELD[] fields;
+	private final Column[] columns;
+	private boolean verbose;
+
+	/**
+	 * @param deAccenter
+	 *             applied to the names, or null to keep them as they are
+	 */
+	public ColumnPlan(Map<String, GC_FIELD> mapping, DeAccenter deAccenter) {
+		headers = new String[mapping.size()];
+		fields = new GC_FIELD[mapping.size()];
+		columns = new Column[mapping.size()];
+
+		int numberIndex = 0;
+		int emailIndex = 0;
+		int i = 0;
+		for (Map.Entry<String, GC_FIELD> column : mapping.entrySet()) {
+			headers[i] = column.getKey();
+			fields[i] = column.getValue();
+			switch (column.getValue()) {
+				case NAME:
+					columns[i] = new NameColumn(deAccenter);
+					break;
+				case PHONE_NUMBER:
+					columns[i] = new PhoneNumberColumn(numberIndex++);
+					break;
+				case EMAIL:
+					columns[i] = new EmailColumn(emailIndex++);
+					break;
+				case ADDRESS:
+					columns[i] = new AddressColumn();
+					break;
+				case NONE:
+					columns[i] = new NoneColumn();
+					break;
+			}
+			i++;
+		}
+	}
+
+	public void setVerbose(boolean verbose) {
+		this.verbose = verbose;
+	}
+
+	public int size() {
+		return columns.length;
+	}
+
+	public String getHeader(int column) {
+		return headers[column];
+	}
+
+	public GC_FIELD getField(int column) {
+		return fields[column];
+	}
+
+	public String read(int column, ContactEntry entry) {
+		return columns[column].read(entry);
+	}
+
+	/**
+	 * The primary postal address of the contact, as written to ADDRESS columns.
+	 */
+	public static String readAddress(ContactEntry entry) {
+		String result = "";
+		PostalAddress primary = null;
+		StructuredPostalAddress primaryStructured = null;
+
+		for (PostalAddress address : entry.getPostalAddresses()) {
+			if (primary == null) {
+				primary = address;
+			}
+			if (address.getPrimary()) {
+				primary = address;
+			}
+		}
+		if (primary == null) {
+			for (StructuredPostalAddress address : entry.getStructuredPostalAddresses()) {
+				if (primaryStructured == null) {
+					primaryStructured = address;
+				}
+				if (primaryStructured.getPrimary()) {
+					primaryStructured = address;
+				}
+			}
+		}
+
+		if (primary != null) {
+			result = primary.getValue();
+		}
+		if (primaryStructured != null) {
+			result = primaryStructured.getFormattedAddress().getValue();
+		}
+		return result;
+	}
+
+	private abstract static class Column {
+		abstract String read(ContactEntry entry);
+	}
+
+	private class NameColumn extends Column {
+		private final DeAccenter deAccenter;
+
+		NameColumn(DeAccenter deAccenter) {
+			this.deAccenter = deAccenter;
+		}
+
+		@Override
+		String read(ContactEntry entry) {
+			String title = entry.getTitle().getPlainText();
+			if (deAccenter == null) {
+				return title;
+			}
+			String result = deAccenter.deAccent(title);
+			if (verbose && (!result.equals(title))) {
+				System.out.printf("De-accented  %s to %s\n", title, result);
+			}
+			return result;
+		}
+	}
+
+	private static class PhoneNumberColumn extends Column {
+		private final int index;
+
+		PhoneNumberColumn(int index) {
+			this.index = index;
+		}
+
+		@Override
+		String read(ContactEntry entry) {
+			return index < entry.getPhoneNumbers().size() ? entry.getPhoneNumbers().get(index).getPhoneNumber() : "";
+		}
+	}
+
+	private static class EmailColumn extends Column {
+		private final int index;
+
+		EmailColumn(int index) {
+			this.index = index;
+		}
+
+		@Override
+		String read(ContactEntry entry) {
+			return index < entry.getEmailAddresses().size() ? entry.getEmailAddresses().get(index).getAddress() : "";
+		}
+	}
+
+	private static class AddressColumn extends Column {
+		@Override
+		String read(ContactEntry entry) {
+			return readAddress(entry);
+		}
+	}
+
+	private static class NoneColumn extends Column {
+		@Override
+		String read(ContactEntry entry) {
+			return "";
+		}
+	}
+}
@@ -0,0 +1,134 @@
+package com.github.gccsv.output;
+
+import com.github.gccsv.RunMetrics;
+
+import java.text.Normalizer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * Removes the diacritics from text, i.e. the combining diacritical marks left
+ * after the NFD normalization.
+ *
+ * Most names are plain ASCII and are returned as they are. Latin-1 and Latin
+ * Extended letters are translated with a table computed once from their NFD
+ * form. Only the remaining words are normalized, and those are kept in a
+ * small cache since the same first and last names keep coming back.
+ */
+public class DeAccenter {
+	private static final Pattern COMBINING_DIACRITICAL_MARKS = Pattern.compile("\\p{InCombiningDiacriticalMarks}+");
+	private static final char FIRST_MAPPED = '\u0080';
+	private static final char LAST_MAPPED = '\u024F';
+	private static final char NOT_MAPPED = '\0';
+	private static final char[] TABLE = new char[LAST_MAPPED - FIRST_MAPPED + 1];
+	private static final int DEFAULT_CACHE_SIZE = 4096;
+
+	static {
+		for (char c = FIRST_MAPPED; c <= LAST_MAPPED; c++) {
+			String stripped = normalize(String.valueOf(c));
+			TABLE[c - FIRST_MAPPED] = stripped.length() == 1 ? stripped.charAt(0) : NOT_MAPPED;
+		}
+	}
+
+	private final Map<String, String> cache;
+	private volatile LongAdder calls = new LongAdder();
+	private volatile LongAdder normalized = new LongAdder();
+
+	public DeAccenter() {
+		this(DEFAULT_CACHE_SIZE);
+	}
+
+	public DeAccenter(final int cacheSize) {
+		this.cache = new LinkedHashMap<String, String>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+				return size() > cacheSize;
+			}
+		};
+	}
+
+	/**
+	 * Where to count the calls, as deaccent.calls, and the words that had to
+	 * be normalized, as deaccent.normalized.
+	 */
+	public void setMetrics(RunMetrics metrics) {
+		this.calls = metrics.counter("deaccent.calls");
+		this.normalized = metrics.counter("deaccent.normalized");
+	}
+
+	public String deAccent(String str) {
+		calls.increment();
+		String result = translate(str);
+		return result != null ? result : this.deAccentWords(str);
+	}
+
+	/**
+	 * Slow path, for text with characters out of the table. NFD does not
+	 * reorder across spaces, so words can be handled (and cached) one by one.
+	 */
+	private String deAccentWords(String str) {
+		StringBuilder result = new StringBuilder(str.length());
+		int start = 0;
+		while (start < str.length()) {
+			int end = str.indexOf(' ', start);
+			if (end == -1) {
+				end = str.length();
+			}
+			String word = str.substring(start, end);
+			String deAccented = translate(word);
+			if (deAccented == null) {
+				synchronized (cache) {
+					deAccented = cache.get(word);
+				}
+				if (deAccented == null) {
+					normalized.increment();
+					deAccented = normalize(word);
+					synchronized (cache) {
+						cache.put(word, deAccented);
+					}
+				}
+			}
+			result.append(deAccented);
+			if (end < str.length()) {
+				result.append(' ');
+			}
+			start = end + 1;
+		}
+		return result.toString();
+	}
+
+	/**
+	 * Returns the text itself if it is ASCII, the translated text if all its
+	 * characters are in the table, or null otherwise.
+	 */
+	private static String translate(String str) {
+		int length = str.length();
+		int i = 0;
+		while (i < length && str.charAt(i) < FIRST_MAPPED) {
+			i++;
+		}
+		if (i == length) {
+			return str;
+		}
+
+		char[] result = str.toCharArray();
+		for (; i < length; i++) {
+			char c = result[i];
+			if (c >= FIRST_MAPPED) {
+				if (c > LAST_MAPPED || TABLE[c - FIRST_MAPPED] == NOT_MAPPED) {
+					return null;
+				}
+				result[i] = TABLE[c - FIRST_MAPPED];
+			}
+		}
+		return new String(result);
+	}
+
+	private static String normalize(String str) {
+		return COMBINING_DIACRITICAL_MARKS.matcher(Normalizer.normalize(str, Normalizer.Form.NFD)).replaceAll("");
+	}
+}
@@ -0,0 +1,272 @@
+package com.github.gccsv.output;
+
+import com.google.gdata.data.contacts.ContactEntry;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes only the rows that were added, changed or removed since the previous
+ * run, with the kind of change in an extra first column.
+ *
+ * Rows are compared through an index kept next to the delta file, holding
+ * the contact id, a digest of the rendered row and the row itself, which is
+ * what gets written for removed contacts. The previous index is mapped and
+ * looked up by id, so the comparison is linear and only the ids and digests
+ * are held in memory. The new index replaces it once the delta is complete.
+ * An index written with different columns is ignored, which makes every row
+ * an addition.
+ */
+public class DeltaWriter {
+	public static final String CHANGE_HEADER = "Change";
+	public static final String ADDED = "ADDED";
+	public static final String CHANGED = "CHANGED";
+	public static final String REMOVED = "REMOVED";
+
+	private static final String INDEX_SUFFIX = ".index";
+	private static final int MAGIC = 0x47434458;
+	private static final int VERSION = 1;
+	private static final String fieldSepparator = ",";
+
+	private final CSVWriter writer;
+	private final String destination;
+	private final File index;
+	private final File temporaryIndex;
+	private final byte[] header;
+	private final Map<String, IndexEntry> previous = new LinkedHashMap<String, IndexEntry>();
+	private final MessageDigest digest;
+	private final CSVEncoder row = new CSVEncoder(1024);
+	private final CSVEncoder chunk = new CSVEncoder(64 * 1024);
+	private CSVSink sink;
+	private ByteBuffer previousRows;
+	private DataOutputStream indexOutput;
+	private boolean verbose;
+	private int added;
+	private int changed;
+	private int removed;
+
+	public DeltaWriter(CSVWriter writer, String destination) throws CVSWriterException {
+		this.writer = writer;
+		this.destination = destination;
+		this.header = writer.renderHeader();
+		this.index = new File(destination + INDEX_SUFFIX);
+		this.temporaryIndex = new File(destination + INDEX_SUFFIX + ".tmp");
+		try {
+			this.digest = MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			throw new CVSWriterException("No MD5 digest available", e);
+		}
+	}
+
+	public void setVerbose(boolean verbose) {
+		this.verbose = verbose;
+	}
+
+	/**
+	 * Reads the previous index and starts the delta with its header.
+	 */
+	public void open() throws CVSWriterException {
+		this.loadIndex();
+		this.sink = writer.openFile(destination, false);
+		try {
+			indexOutput = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporaryIndex), 1 << 16));
+			indexOutput.writeInt(MAGIC);
+			indexOutput.writeInt(VERSION);
+			writeBytes(indexOutput, header, 0, header.length);
+
+			chunk.reset();
+			appendEnclosed(chunk, CHANGE_HEADER).append(fieldSepparator).append(header, 0, header.length);
+			sink.write(chunk.toByteArray());
+		} catch (IOException e) {
+			this.abort();
+			throw failure(e);
+		}
+	}
+
+	public void writePage(List<ContactEntry> entries) throws CVSWriterException {
+		chunk.reset();
+		try {
+			for (ContactEntry entry : entries) {
+				row.reset();
+				writer.appendRow(row, entry);
+				digest.update(row.buffer(), 0, row.size());
+				byte[] rowDigest = digest.digest();
+
+				IndexEntry before = previous.remove(entry.getId());
+				if (before == null) {
+					appendChange(ADDED, row.buffer(), 0, row.size());
+					added++;
+				} else if (!Arrays.equals(before.digest, rowDigest)) {
+					appendChange(CHANGED, row.buffer(), 0, row.size());
+					changed++;
+				}
+
+				writeBytes(indexOutput, entry.getId().getBytes(StandardCharsets.UTF_8));
+				indexOutput.write(rowDigest);
+				writeBytes(indexOutput, row.buffer(), 0, row.size());
+			}
+			if (chunk.size() > 0) {
+				sink.write(chunk.toByteArray());
+			}
+		} catch (IOException e) {
+			throw failure(e);
+		}
+	}
+
+	/**
+	 * Writes the rows of the contacts that were not seen this time and
+	 * replaces the previous index.
+	 */
+	public void finish() throws CVSWriterException {
+		try {
+			chunk.reset();
+			byte[] bytes = new byte[0];
+			for (IndexEntry entry : previous.values()) {
+				if (bytes.length < entry.rowLength) {
+					bytes = new byte[entry.rowLength];
+				}
+				previousRows.position(entry.rowOffset);
+				previousRows.get(bytes, 0, entry.rowLength);
+				appendChange(REMOVED, bytes, 0, entry.rowLength);
+				removed++;
+			}
+			if (chunk.size() > 0) {
+				sink.write(chunk.toByteArray());
+			}
+			sink.finish();
+
+			indexOutput.close();
+			indexOutput = null;
+			try {
+				Files.move(temporaryIndex.toPath(), index.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temporaryIndex.toPath(), index.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (IOException e) {
+			this.abort();
+			throw failure(e);
+		}
+		if (verbose) {
+			System.out.printf("Delta has %d added, %d changed and %d removed rows\n", added, changed, removed);
+		}
+	}
+
+	/**
+	 * Drops the delta and keeps the previous index, so that the next run is
+	 * compared to the last complete one.
+	 */
+	public void abort() {
+		if (sink != null) {
+			sink.abort();
+		}
+		if (indexOutput != null) {
+			try {
+				indexOutput.close();
+			} catch (IOException e) {
+				// nothing else we can do
+			}
+			indexOutput = null;
+		}
+		temporaryIndex.delete();
+	}
+
+	private void loadIndex() {
+		if (!index.isFile()) {
+			return;
+		}
+		try {
+			RandomAccessFile input = new RandomAccessFile(index, "r");
+			try {
+				previousRows = input.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, input.length());
+			} finally {
+				input.close();
+			}
+			ByteBuffer buffer = previousRows;
+			if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+				throw new IOException("Not a delta index");
+			}
+			byte[] previousHeader = new byte[buffer.getInt()];
+			buffer.get(previousHeader);
+			if (!Arrays.equals(previousHeader, header)) {
+				if (verbose) {
+					System.out.println("The columns changed since the previous delta. Every row will be added.");
+				}
+				return;
+			}
+			while (buffer.hasRemaining()) {
+				byte[] id = new byte[buffer.getInt()];
+				buffer.get(id);
+				IndexEntry entry = new IndexEntry();
+				entry.digest = new byte[16];
+				buffer.get(entry.digest);
+				entry.rowLength = buffer.getInt();
+				entry.rowOffset = buffer.position();
+				buffer.position(entry.rowOffset + entry.rowLength);
+				previous.put(new String(id, StandardCharsets.UTF_8), entry);
+			}
+			if (verbose) {
+				System.out.printf("Comparing with the %d rows of the previous delta index\n", previous.size());
+			}
+		} catch (IOException e) {
+			this.ignoreIndex(e);
+		} catch (BufferUnderflowException e) {
+			this.ignoreIndex(e);
+		} catch (IllegalArgumentException e) {
+			this.ignoreIndex(e);
+		}
+	}
+
+	private void ignoreIndex(Exception e) {
+		if (verbose) {
+			System.err.println("Could not read the previous delta index, every row will be added. Cause: " + e);
+		}
+		previous.clear();
+	}
+
+	private void appendChange(String change, byte[] bytes, int offset, int length) {
+		appendEnclosed(chunk, change).append(fieldSepparator).append(bytes, offset, length);
+	}
+
+	private static CSVEncoder appendEnclosed(CSVEncoder buffer, String text) {
+		return buffer.append('"').append(text).append('"');
+	}
+
+	private static void writeBytes(DataOutputStream output, byte[] bytes) throws IOException {
+		writeBytes(output, bytes, 0, bytes.length);
+	}
+
+	private static void writeBytes(DataOutputStream output, byte[] bytes, int offset, int length) throws IOException {
+		output.writeInt(length);
+		output.write(bytes, offset, length);
+	}
+
+	private CVSWriterException failure(IOException e) {
+		if (verbose) {
+			System.err.println("Could not write the delta. Cause: " + e.getMessage());
+		}
+		return new CVSWriterException(e.getMessage(), e);
+	}
+
+	private static class IndexEntry {
+		byte[] digest;
+		int rowOffset;
+		int rowLength;
+	}
+}
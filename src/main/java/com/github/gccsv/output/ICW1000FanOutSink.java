@@ -0,0 +1,309 @@
+package com.github.gccsv.output;
+
+import com.github.gccsv.RunMetrics;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Uploads the CSV to many ICW1000G phones. The chunks are spooled to a
+ * temporary file as they are rendered and, once the CSV is complete, read
+ * back for every phone from a bounded pool, each through an
+ * {@link ICW1000Sink} of its own. Every phone gets a timeout, a number of
+ * attempts and a deadline for all of them, after which the request in flight
+ * is dropped, so a slow or offline phone only holds up its own thread for so
+ * long. A summary of every phone is printed to stderr at the end, where it
+ * does not mix with a CSV printed to stdout, and the sink fails if any phone
+ * failed.
+ *
+ * A retry starts the phone over, so a phone is not retried once it was sent
+ * a batch, as it would import the batches it already took again.
+ */
+public class ICW1000FanOutSink implements CSVSink {
+	private static final long RETRY_DELAY_MILLIS = 1000;
+
+	private final List<String> devices;
+	private final int threads;
+	private SpoolFile spool;
+	private int batchRows;
+	private int batchBytes;
+	private int timeoutMillis;
+	private long deadlineMillis;
+	private int attempts = 1;
+	private boolean streaming;
+	private boolean verbose;
+	private RunMetrics metrics = new RunMetrics();
+
+	/**
+	 * @param devices
+	 *             the phones, as password@ip:port
+	 * @param threads
+	 *             the most phones to upload to at the same time
+	 */
+	public ICW1000FanOutSink(List<String> devices, int threads) {
+		this.devices = devices;
+		this.threads = threads;
+	}
+
+	public void setVerbose(boolean verbose) {
+		this.verbose = verbose;
+	}
+
+	/**
+	 * See {@link IncomICW1000GConnector#setMetrics(RunMetrics)}. Phones are
+	 * counted in icw1000.phones.ok and icw1000.phones.failed, their attempts
+	 * in icw1000.phones.attempts, and how long each took in the
+	 * icw1000.phone timer.
+	 */
+	public void setMetrics(RunMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * See {@link IncomICW1000GConnector#setStreaming(boolean)}.
+	 */
+	public void setStreaming(boolean streaming) {
+		this.streaming = streaming;
+	}
+
+	/**
+	 * See {@link ICW1000Sink#ICW1000Sink(IncomICW1000GConnector, int, int)}.
+	 * Both 0 sends the phonebook in one request.
+	 */
+	public void setBatches(int batchRows, int batchBytes) {
+		this.batchRows = batchRows;
+		this.batchBytes = batchBytes;
+	}
+
+	/**
+	 * How long to wait for a phone to connect or reply.
+	 */
+	public void setTimeoutMillis(int timeoutMillis) {
+		this.timeoutMillis = timeoutMillis;
+	}
+
+	/**
+	 * How long to keep at each phone, all attempts included, or 0 for no
+	 * limit. Past it the request in flight is dropped and the phone fails.
+	 */
+	public void setDeadlineMillis(long deadlineMillis) {
+		this.deadlineMillis = deadlineMillis;
+	}
+
+	/**
+	 * How many times to try each phone.
+	 */
+	public void setAttempts(int attempts) {
+		this.attempts = attempts;
+	}
+
+	public String getName() {
+		return "icw1000";
+	}
+
+	public void write(byte[] chunk) throws IOException {
+		if (spool == null) {
+			spool = new SpoolFile("gc-csv-icw1000");
+		}
+		spool.write(chunk);
+	}
+
+	public void finish() throws IOException {
+		if (spool == null) {
+			return;
+		}
+		try {
+			spool.close();
+			this.uploadAll();
+		} finally {
+			spool.delete();
+			spool = null;
+		}
+	}
+
+	private void uploadAll() throws IOException {
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, devices.size()), new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "icw1000-upload");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		final ScheduledExecutorService deadlines = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "icw1000-deadline");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		List<Future<DeviceResult>> futures = new ArrayList<Future<DeviceResult>>();
+		try {
+			for (final String device : devices) {
+				futures.add(executor.submit(new Callable<DeviceResult>() {
+					public DeviceResult call() {
+						return upload(device, deadlines);
+					}
+				}));
+			}
+			List<DeviceResult> results = new ArrayList<DeviceResult>();
+			for (Future<DeviceResult> future : futures) {
+				results.add(future.get());
+			}
+			this.report(results);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while uploading to the ICW 1000G phones", e);
+		} catch (ExecutionException e) {
+			throw new IOException("Could not upload to the ICW 1000G phones", e.getCause());
+		} finally {
+			executor.shutdownNow();
+			deadlines.shutdownNow();
+		}
+	}
+
+	public void abort() {
+		// nothing was sent yet
+		if (spool != null) {
+			spool.delete();
+			spool = null;
+		}
+	}
+
+	private DeviceResult upload(String device, ScheduledExecutorService deadlines) {
+		DeviceResult result = new DeviceResult(device);
+		long start = System.nanoTime();
+		final AtomicReference<ICW1000Session> session = new AtomicReference<ICW1000Session>();
+		final AtomicBoolean late = new AtomicBoolean();
+		ScheduledFuture<?> deadline = null;
+		if (deadlineMillis > 0) {
+			deadline = deadlines.schedule(new Runnable() {
+				public void run() {
+					late.set(true);
+					ICW1000Session current = session.get();
+					if (current != null) {
+						current.abort();
+					}
+				}
+			}, deadlineMillis, TimeUnit.MILLISECONDS);
+		}
+		// the first attempt is made even if late, so that the phone fails
+		while (result.attempts == 0 || (result.attempts < attempts && !late.get())) {
+			result.attempts++;
+			ICW1000Sink sink = null;
+			try {
+				ICW1000Session current = IncomICW1000GConnector.newSession(device, timeoutMillis);
+				session.set(current);
+				if (late.get()) {
+					current.abort();
+				}
+				IncomICW1000GConnector connector = new IncomICW1000GConnector(current);
+				connector.setStreaming(streaming);
+				connector.setMetrics(metrics);
+				sink = batchRows > 0 || batchBytes > 0 ? new ICW1000Sink(connector, batchRows, batchBytes) : new ICW1000Sink(connector);
+				InputStream csv = spool.open();
+				try {
+					sink.send(csv);
+				} finally {
+					csv.close();
+				}
+				result.imported = sink.getImported();
+				result.failure = null;
+				break;
+			} catch (IncomICW1000GConnectorException e) {
+				result.failure = e;
+			} catch (IOException e) {
+				result.failure = e;
+			}
+			if (sink != null) {
+				sink.abort();
+			}
+			if (verbose) {
+				System.err.printf("Attempt %d of %d to %s failed. Cause: %s\n", result.attempts, attempts, result.getAddress(),
+						result.failure.getMessage());
+			}
+			if (sink != null && sink.hasSentBatches()) {
+				if (verbose && result.attempts < attempts) {
+					System.err.printf("Not retrying %s, as it already took some of the batches\n", result.getAddress());
+				}
+				break;
+			}
+			if (result.attempts < attempts && !late.get()) {
+				long delay = RETRY_DELAY_MILLIS * result.attempts;
+				if (deadlineMillis > 0) {
+					delay = Math.min(delay, deadlineMillis - (System.nanoTime() - start) / 1000000);
+				}
+				try {
+					Thread.sleep(Math.max(0, delay));
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+		}
+		if (deadline != null) {
+			deadline.cancel(false);
+		}
+		if (result.failure != null && late.get()) {
+			result.failure = new IOException(String.format("Gave up after the deadline of %d ms. Last failure: %s", deadlineMillis,
+					result.failure.getMessage()), result.failure);
+		}
+		long end = System.nanoTime();
+		result.millis = (end - start) / 1000000;
+		metrics.timer("icw1000.phone").record(end - start);
+		metrics.counter("icw1000.phones.attempts").add(result.attempts);
+		metrics.counter(result.failure == null ? "icw1000.phones.ok" : "icw1000.phones.failed").increment();
+		return result;
+	}
+
+	private void report(List<DeviceResult> results) throws IOException {
+		System.err.printf("\nICW 1000G uploads:\n");
+		StringBuilder failures = new StringBuilder();
+		int failed = 0;
+		for (DeviceResult result : results) {
+			if (result.failure == null) {
+				System.err.printf("\t%-21s OK     %6d entries %7d ms %d attempt(s)\n", result.getAddress(), result.imported, result.millis,
+						result.attempts);
+			} else {
+				failed++;
+				failures.append(failed > 1 ? ", " : ": ").append(result.getAddress()).append(" (").append(result.failure.getMessage()).append(")");
+				System.err.printf("\t%-21s FAILED %6s         %7d ms %d attempt(s): %s\n", result.getAddress(), "", result.millis,
+						result.attempts, result.failure.getMessage());
+			}
+		}
+		if (failed > 0) {
+			throw new IOException(String.format("%d of %d ICW 1000G phones failed%s", failed, results.size(), failures));
+		}
+	}
+
+	private static class DeviceResult {
+		final String device;
+		int attempts;
+		int imported;
+		long millis;
+		Exception failure;
+
+		DeviceResult(String device) {
+			this.device = device;
+		}
+
+		/**
+		 * The device without its password.
+		 */
+		String getAddress() {
+			return device.substring(device.lastIndexOf('@') + 1);
+		}
+	}
+}
@@ -0,0 +1,246 @@
+package com.github.gccsv.output;
+
+import com.github.gccsv.Tracing;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A logged in session with an ICW1000G. The device is authenticated once and
+ * the cookies it sets are sent with every phonebook import. Responses are
+ * read to the end and closed, never disconnected, so that the imports reuse
+ * the kept alive connection.
+ *
+ * The session can be aborted from another thread, which drops the request in
+ * flight and fails the ones after it.
+ */
+public class ICW1000Session {
+	private final String host;
+	private final int port;
+	private final String password;
+	private String cookies;
+	private int timeoutMillis;
+	private boolean verbose;
+	private volatile boolean aborted;
+	private volatile HttpURLConnection authenticating;
+	private volatile MultipartBuilder importing;
+
+	public ICW1000Session(String host, int port, String password) {
+		this.host = host;
+		this.port = port;
+		this.password = password;
+	}
+
+	public void setVerbose(boolean verbose) {
+		this.verbose = verbose;
+	}
+
+	/**
+	 * How long to wait for the device to connect or reply, or 0 to wait
+	 * forever.
+	 */
+	public void setTimeoutMillis(int timeoutMillis) {
+		this.timeoutMillis = timeoutMillis;
+	}
+
+	public String getAddress() {
+		return String.format("%s:%d", host, port);
+	}
+
+	/**
+	 * Logs in, unless already logged in.
+	 */
+	public synchronized void login() throws IncomICW1000GConnectorException {
+		if (cookies != null) {
+			return;
+		}
+		this.checkAborted();
+		Object event = Tracing.beginICW1000Request();
+		try {
+			if (!this.authenticate()) {
+				Tracing.endICW1000Request(event, this.getAddress(), "login", 0, "not authenticated");
+				throw new IncomICW1000GConnectorException(String.format("Connection was made, but could not autenticate against http://%s:%d/",
+						host, port));
+			}
+		} catch (IOException e) {
+			Tracing.endICW1000Request(event, this.getAddress(), "login", 0, e.getMessage());
+			throw new IncomICW1000GConnectorException(String.format("Could not connect to %s:%s", host, port), e);
+		}
+		Tracing.endICW1000Request(event, this.getAddress(), "login", 0, null);
+		if (verbose) {
+			System.out.printf("Logged in to ICW 1000G at %s:%d\n", host, port);
+		}
+	}
+
+	/**
+	 * Starts a phonebook import request in the session.
+	 */
+	public MultipartBuilder newImport() throws IncomICW1000GConnectorException {
+		this.login();
+		try {
+			MultipartBuilder multipart = new MultipartBuilder(String.format("http://%s:%d/pbimport.html", host, port), "UTF-8");
+			multipart.setTimeout(timeoutMillis);
+			multipart.addHeaderField("User-Agent", "GC-TO-CSV");
+			if (cookies.length() > 0) {
+				multipart.addHeaderField("Cookie", cookies);
+			}
+			importing = multipart;
+			if (aborted) {
+				multipart.abort();
+				this.checkAborted();
+			}
+			return multipart;
+		} catch (IOException e) {
+			throw new IncomICW1000GConnectorException(String.format("Could not connect to %s:%s", host, port), e);
+		}
+	}
+
+	/**
+	 * Drops the request in flight, if any, by disconnecting it, and fails
+	 * every request after it. Can be called from any thread.
+	 */
+	public void abort() {
+		aborted = true;
+		HttpURLConnection connection = authenticating;
+		if (connection != null) {
+			connection.disconnect();
+		}
+		MultipartBuilder multipart = importing;
+		if (multipart != null) {
+			multipart.abort();
+		}
+	}
+
+	private void checkAborted() throws IncomICW1000GConnectorException {
+		if (aborted) {
+			throw new IncomICW1000GConnectorException(String.format("The session with %s:%d was aborted", host, port));
+		}
+	}
+
+	/**
+	 * Imports a complete CSV, header included, in one request and returns the
+	 * number of entries the device reports.
+	 */
+	public int importPhonebook(byte[] csv) throws IncomICW1000GConnectorException {
+		MultipartBuilder multipart = this.newImport();
+		try {
+			OutputStream outputStream = multipart.beginFilePart("upload", "text/csv");
+			outputStream.write(csv);
+			multipart.finishFilePart();
+		} catch (IOException e) {
+			throw new IncomICW1000GConnectorException(String.format("Could not upload file to %s:%s", host, port), e);
+		}
+		return this.finishImport(multipart);
+	}
+
+	/**
+	 * Sends the import and returns the number of entries the device reports.
+	 */
+	public int finishImport(MultipartBuilder multipart) throws IncomICW1000GConnectorException {
+		Object event = Tracing.beginICW1000Request();
+		String error = null;
+		int entries = 0;
+		try {
+			entries = this.readImport(multipart);
+			return entries;
+		} catch (IncomICW1000GConnectorException e) {
+			error = e.getMessage();
+			throw e;
+		} finally {
+			Tracing.endICW1000Request(event, this.getAddress(), "import", entries, error);
+		}
+	}
+
+	private int readImport(MultipartBuilder multipart) throws IncomICW1000GConnectorException {
+		try {
+			List<String> response = multipart.finish();
+			if (response != null && response.size() == 1) {
+				try {
+					return new Integer(response.get(0));
+				} catch (NumberFormatException e) {
+					throw new IncomICW1000GConnectorException(String.format("Unexpected reply from %s:%s. Was expecting a number but got %s",
+							host, port, response.get(0)), e);
+				}
+			} else {
+				StringBuffer responseText = new StringBuffer();
+				for (String line : response) {
+					responseText.append(line).append("\n");
+				}
+				throw new IncomICW1000GConnectorException(String.format(
+						"Unexpected reply from %s:%s. Was expecting exactline one line but got %d lines: %s ", host, port, response.size(),
+						responseText));
+			}
+		} catch (IOException e) {
+			throw new IncomICW1000GConnectorException(String.format("Could not upload file to %s:%s", host, port), e);
+		}
+	}
+
+	private boolean authenticate() throws IOException {
+		boolean result = false;
+		URL url = new URL(String.format("http://%s:%d/login.htm", host, port));
+		HttpURLConnection httpConn = (HttpURLConnection) url.openConnection();
+		httpConn.setUseCaches(false);
+		httpConn.setConnectTimeout(timeoutMillis);
+		httpConn.setReadTimeout(timeoutMillis);
+		httpConn.setDoOutput(true);
+		httpConn.setDoInput(true);
+		httpConn.setRequestMethod("POST");
+		httpConn.setRequestProperty("Content-Type", "application/x-www-form-urlencoded; charset=UTF-8");
+		authenticating = httpConn;
+		if (aborted) {
+			httpConn.disconnect();
+			throw new IOException("Aborted");
+		}
+		OutputStream outputStream = httpConn.getOutputStream();
+		PrintWriter writer = new PrintWriter(new OutputStreamWriter(outputStream, "UTF-8"), true);
+		writer.append("?id=user&password=" + password);
+		writer.flush();
+		writer.close();
+
+		List<String> response = new ArrayList<String>();
+
+		// checks server's status code first
+		int status = httpConn.getResponseCode();
+		if (status == HttpURLConnection.HTTP_OK) {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(httpConn.getInputStream()));
+			String line = null;
+			while ((line = reader.readLine()) != null) {
+				response.add(line);
+			}
+			reader.close();
+			cookies = this.readCookies(httpConn);
+			result = true;
+		}
+
+		return result;
+	}
+
+	/**
+	 * The name=value pairs of the Set-Cookie headers, as a Cookie header.
+	 */
+	private String readCookies(HttpURLConnection httpConn) {
+		StringBuilder result = new StringBuilder();
+		for (Map.Entry<String, List<String>> header : httpConn.getHeaderFields().entrySet()) {
+			if (!"Set-Cookie".equalsIgnoreCase(header.getKey())) {
+				continue;
+			}
+			for (String setCookie : header.getValue()) {
+				int end = setCookie.indexOf(';');
+				if (result.length() > 0) {
+					result.append("; ");
+				}
+				result.append(end == -1 ? setCookie : setCookie.substring(0, end));
+			}
+		}
+		return result.toString();
+	}
+}
@@ -0,0 +1,193 @@
+package com.github.gccsv.output;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Uploads the CSV to an ICW1000G as the phonebook, either in one request or
+ * in batches of a limited number of rows or bytes. Every batch is a CSV with
+ * a header of its own, and the number of entries the device reports for it
+ * is checked.
+ *
+ * Batches are only sent once the CSV is complete, so that an export that
+ * fails imports nothing; until then the CSV is kept in a temporary file. If
+ * a batch fails, the ones before it stay imported and the sink fails.
+ */
+public class ICW1000Sink implements CSVSink {
+	private final IncomICW1000GConnector connector;
+	private final OutputStream outputStream;
+	private final int batchRows;
+	private final int batchBytes;
+	private SpoolFile spool;
+	private CSVEncoder batch;
+	private CSVEncoder row;
+	private byte[] header;
+	private boolean quoted;
+	private int rows;
+	private int sent;
+	private int batchesSent;
+	private int imported;
+
+	public ICW1000Sink(IncomICW1000GConnector connector) throws IncomICW1000GConnectorException {
+		this.connector = connector;
+		this.outputStream = connector.getOutputStream();
+		this.batchRows = 0;
+		this.batchBytes = 0;
+	}
+
+	/**
+	 * @param batchRows
+	 *             the most rows in a batch, or 0 for no limit
+	 * @param batchBytes
+	 *             the most bytes in a batch, header included, or 0 for no
+	 *             limit. A row that does not fit in a batch on its own is
+	 *             sent alone.
+	 */
+	public ICW1000Sink(IncomICW1000GConnector connector, int batchRows, int batchBytes) {
+		this.connector = connector;
+		this.outputStream = null;
+		this.batchRows = batchRows;
+		this.batchBytes = batchBytes;
+		this.batch = new CSVEncoder(batchBytes > 0 ? batchBytes : 64 * 1024);
+		this.row = new CSVEncoder(1024);
+	}
+
+	public String getName() {
+		return "icw1000";
+	}
+
+	/**
+	 * The number of entries the device reported importing.
+	 */
+	public int getImported() {
+		return imported;
+	}
+
+	/**
+	 * Whether any batch was sent, even if the device did not take it.
+	 */
+	boolean hasSentBatches() {
+		return batchesSent > 0;
+	}
+
+	public void write(byte[] chunk) throws IOException {
+		if (outputStream != null) {
+			outputStream.write(chunk);
+			return;
+		}
+		if (spool == null) {
+			spool = new SpoolFile("gc-csv-icw1000");
+		}
+		spool.write(chunk);
+	}
+
+	public void finish() throws IOException {
+		if (outputStream == null) {
+			if (spool == null) {
+				return;
+			}
+			try {
+				spool.close();
+				InputStream csv = spool.open();
+				try {
+					this.send(csv);
+				} finally {
+					csv.close();
+				}
+			} finally {
+				spool.delete();
+				spool = null;
+			}
+			return;
+		}
+		try {
+			imported = connector.sendFile();
+		} catch (IncomICW1000GConnectorException e) {
+			throw new IOException(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Uploads the whole CSV, read from the stream, instead of writing and
+	 * finishing it.
+	 */
+	void send(InputStream csv) throws IOException {
+		byte[] chunk = new byte[64 * 1024];
+		int read;
+		if (outputStream != null) {
+			while ((read = csv.read(chunk)) != -1) {
+				outputStream.write(chunk, 0, read);
+			}
+			this.finish();
+			return;
+		}
+		while ((read = csv.read(chunk)) != -1) {
+			this.split(chunk, read);
+		}
+		if (header == null) {
+			return;
+		}
+		if (row.size() > 0) {
+			this.endRow();
+		}
+		if (rows > 0 || sent == 0) {
+			this.sendBatch();
+		}
+	}
+
+	private void split(byte[] chunk, int length) throws IOException {
+		// rows end at a line break outside quotes, as addresses may span
+		// lines; quotes in fields are doubled, so they do not change that
+		int rowStart = 0;
+		for (int i = 0; i < length; i++) {
+			if (chunk[i] == '"') {
+				quoted = !quoted;
+			} else if (chunk[i] == '\n' && !quoted) {
+				row.append(chunk, rowStart, i + 1 - rowStart);
+				this.endRow();
+				rowStart = i + 1;
+			}
+		}
+		row.append(chunk, rowStart, length - rowStart);
+	}
+
+	public void abort() {
+		// the multipart request is never finished and no batch was sent, so
+		// the device does not import anything
+		if (spool != null) {
+			spool.delete();
+			spool = null;
+		}
+		connector.abort();
+	}
+
+	private void endRow() throws IOException {
+		if (header == null) {
+			header = row.toByteArray();
+			batch.append(header, 0, header.length);
+		} else {
+			boolean full = (batchRows > 0 && rows == batchRows) || (batchBytes > 0 && batch.size() + row.size() > batchBytes);
+			if (full && rows > 0) {
+				this.sendBatch();
+			}
+			batch.append(row.buffer(), 0, row.size());
+			rows++;
+		}
+		row.reset();
+	}
+
+	private void sendBatch() throws IOException {
+		batchesSent++;
+		try {
+			connector.sendBatch(batch.toByteArray(), rows);
+		} catch (IncomICW1000GConnectorException e) {
+			throw new IOException(e.getMessage(), e);
+		}
+		sent += rows;
+		imported = sent;
+		batch.reset();
+		batch.append(header, 0, header.length);
+		rows = 0;
+	}
+}
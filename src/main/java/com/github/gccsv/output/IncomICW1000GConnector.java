@@ -1,28 +1,49 @@
 package com.github.gccsv.output;
 
-import java.io.BufferedReader;
+import com.github.gccsv.RunMetrics;
+
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.util.ArrayList;
-import java.util.List;
 
 //Tested for firmware v1.0.5
 public class IncomICW1000GConnector {
+	private final ICW1000Session session;
 	private MultipartBuilder multipart;
-	private int port;
-	private String host;
-	private String password;
+	private boolean streaming;
 	private boolean verbose;
+	private RunMetrics metrics = new RunMetrics();
+
+	private static final int STREAMING_CHUNK_LENGTH = 8192;
 
 	public static final String[] REQUIRED_HEADER = { "Name", "Group", "Number", "Number1", "Number2", "Number3", "Number4", "Key Number",
 			"Number Type", "Email", "Email1", "Messenger", "Contents" };
 
 	public IncomICW1000GConnector(String connection) throws IncomICW1000GConnectorException {
+		this(connection, 0);
+	}
+
+	/**
+	 * @param timeoutMillis
+	 *             how long to wait for the device to connect or reply, or 0 to
+	 *             wait forever
+	 */
+	public IncomICW1000GConnector(String connection, int timeoutMillis) throws IncomICW1000GConnectorException {
+		this(newSession(connection, timeoutMillis));
+		session.login();
+	}
+
+	/**
+	 * A connector for the session, which logs in with the first request
+	 * instead of right away.
+	 */
+	IncomICW1000GConnector(ICW1000Session session) {
+		this.session = session;
+	}
+
+	/**
+	 * A session, not yet logged in, with the device at password@ip:port.
+	 */
+	static ICW1000Session newSession(String connection, int timeoutMillis) throws IncomICW1000GConnectorException {
 		if (connection.indexOf(":") == -1 || connection.indexOf("@") == 1) {
 			throw new IncomICW1000GConnectorException("Argument has to be in the form of password@ip:port. Received: " + connection);
 		}
@@ -31,29 +52,47 @@ public class IncomICW1000GConnector {
 		if (addressAndPassword.length != 2 || addressAndPort.length != 2) {
 			throw new IncomICW1000GConnectorException("Argument has to be in the form of password@ip:port. Received: " + connection);
 		}
-		this.host = addressAndPort[0];
+		int port;
 		try {
-			this.port = new Integer(addressAndPort[1]);
+			port = new Integer(addressAndPort[1]);
 		} catch (NumberFormatException e) {
 			throw new IncomICW1000GConnectorException("Port has to be an integer. Received: " + addressAndPort[1]);
 		}
-		this.password = addressAndPassword[0];
-		try {
-			if (!this.authenticate()) {
-				throw new IncomICW1000GConnectorException(String.format("Connection was made, but could not autenticate against http://%s:%d/",
-						host, port));
-			}
-			multipart = new MultipartBuilder(String.format("http://%s:%d/pbimport.html", host, port), "UTF-8");
-		} catch (IOException e) {
-			throw new IncomICW1000GConnectorException(String.format("Could not connect to %s:%s", host, port), e);
-		}
-		multipart.addHeaderField("User-Agent", "GC-TO-CSV");
+		ICW1000Session session = new ICW1000Session(addressAndPort[0], port, addressAndPassword[0]);
+		session.setTimeoutMillis(timeoutMillis);
+		return session;
 	}
 
 	public void setVerbose(boolean verbose) {		this.verbose = verbose;
+		this.session.setVerbose(verbose);
+	}
+
+	/**
+	 * Where to count the uploads, the entries the device took and the
+	 * failures, as icw1000.upload, icw1000.entries and icw1000.failures.
+	 */
+	public void setMetrics(RunMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	public ICW1000Session getSession() {
+		return session;
+	}
+
+	/**
+	 * Whether the phonebook is sent as it is written, with chunked transfer
+	 * encoding, instead of being buffered until it is complete. Has to be set
+	 * before {@link #getOutputStream()}.
+	 */
+	public void setStreaming(boolean streaming) {
+		this.streaming = streaming;
 	}
 
 	public OutputStream getOutputStream() throws IncomICW1000GConnectorException {
+		multipart = session.newImport();
+		if (streaming) {
+			multipart.setChunkedStreamingMode(STREAMING_CHUNK_LENGTH);
+		}
 		try {
 			return multipart.beginFilePart("upload", "text/csv");
 		} catch (IOException e) {
@@ -63,63 +102,52 @@ public class IncomICW1000GConnector {
 	}
 
 	public int sendFile() throws IncomICW1000GConnectorException {
+		long start = System.nanoTime();
+		int result;
 		try {
-			List<String> response = multipart.finish();
-			if (response != null && response.size() == 1) {
-				try {
-					int result = new Integer(response.get(0));
-					if (verbose) {
-						System.out.printf("Sent %d entries to ICW 1000G", result);
-					}
-					return result;
-				} catch (NumberFormatException e) {
-					throw new IncomICW1000GConnectorException(String.format("Unexpected reply from %s:%s. Was expecting a number but got %s",
-							host, port, response.get(0)), e);
-				}
-			} else {
-				StringBuffer responseText = new StringBuffer();
-				for (String line : response) {
-					responseText.append(line).append("\n");
-				}
-				throw new IncomICW1000GConnectorException(String.format(
-						"Unexpected reply from %s:%s. Was expecting exactline one line but got %d lines: %s ", host, port, response.size(),
-						responseText));
-			}
-		} catch (IOException e) {
-			throw new IncomICW1000GConnectorException(String.format("Could not upload file to %s:%s", host, port), e);
+			result = session.finishImport(multipart);
+		} catch (IncomICW1000GConnectorException e) {
+			metrics.counter("icw1000.failures").increment();
+			throw e;
+		}
+		metrics.timer("icw1000.upload").recordSince(start);
+		metrics.counter("icw1000.entries").add(result);
+		if (verbose) {
+			System.out.printf("Sent %d entries to ICW 1000G", result);
 		}
+		return result;
 	}
 
-	private boolean authenticate() throws IOException {
-		boolean result = false;
-		URL url = new URL(String.format("http://%s:%d/login.htm", host, port));
-		HttpURLConnection httpConn = (HttpURLConnection) url.openConnection();
-		httpConn.setUseCaches(false);
-		httpConn.setDoOutput(true);
-		httpConn.setDoInput(true);
-		httpConn.setRequestMethod("POST");
-		httpConn.setRequestProperty("Content-Type", "application/x-www-form-urlencoded; charset=UTF-8");
-		OutputStream outputStream = httpConn.getOutputStream();
-		PrintWriter writer = new PrintWriter(new OutputStreamWriter(outputStream, "UTF-8"), true);
-		writer.append("?id=user&password=" + password);
-		writer.flush();
-		writer.close();
-
-		List<String> response = new ArrayList<String>();
-
-		// checks server's status code first
-		int status = httpConn.getResponseCode();
-		if (status == HttpURLConnection.HTTP_OK) {
-			BufferedReader reader = new BufferedReader(new InputStreamReader(httpConn.getInputStream()));
-			String line = null;
-			while ((line = reader.readLine()) != null) {
-				response.add(line);
-			}
-			reader.close();
-			httpConn.disconnect();
-			result = true;
+	/**
+	 * Imports a batch of the phonebook, a CSV with its own header, in a
+	 * request of its own and checks that the device took every row.
+	 */
+	public int sendBatch(byte[] csv, int rows) throws IncomICW1000GConnectorException {
+		long start = System.nanoTime();
+		int result;
+		try {
+			result = session.importPhonebook(csv);
+		} catch (IncomICW1000GConnectorException e) {
+			metrics.counter("icw1000.failures").increment();
+			throw e;
+		}
+		metrics.timer("icw1000.upload").recordSince(start);
+		metrics.counter("icw1000.entries").add(result);
+		if (result != rows) {
+			metrics.counter("icw1000.failures").increment();
+			throw new IncomICW1000GConnectorException(String.format("%s imported %d entries of a batch of %d", session.getAddress(), result, rows));
+		}
+		if (verbose) {
+			System.out.printf("Sent a batch of %d entries to ICW 1000G\n", result);
 		}
-
 		return result;
 	}
+
+	/**
+	 * Drops the upload before it is complete, so nothing gets imported, and
+	 * fails any request after it. See {@link ICW1000Session#abort()}.
+	 */
+	public void abort() {
+		session.abort();
+	}
 }
@@ -0,0 +1,196 @@
+package com.github.gccsv.output;
+
+import com.github.gccsv.RunMetrics;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Tees the rendered CSV to several sinks. Every chunk is encoded once and
+ * the same bytes are queued to each sink, which is drained by a thread of
+ * its own, so a slow sink (e.g. the upload to a phone) does not hold back
+ * the others for as long as its queue has room.
+ *
+ * A sink that fails stops receiving chunks; the failure is reported when the
+ * output is closed, after the other sinks are done.
+ */
+public class MultiSinkOutput {
+	private static final byte[] END = new byte[0];
+	private static final byte[] ABORT = new byte[0];
+	private static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+	private final List<SinkWorker> workers = new ArrayList<SinkWorker>();
+	private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+	private boolean verbose;
+	private RunMetrics metrics = new RunMetrics();
+
+	public void setVerbose(boolean verbose) {
+		this.verbose = verbose;
+	}
+
+	/**
+	 * Where to count, for every sink, the rows handed to it, the bytes it
+	 * wrote, how long it took to finish and whether it failed, as
+	 * sink.&lt;name&gt;.rows, .bytes, .finish and .failures. Has to be set
+	 * before the sinks are added.
+	 */
+	public void setMetrics(RunMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * The number of chunks each sink may fall behind before the writer has to
+	 * wait for it.
+	 */
+	public void setQueueCapacity(int queueCapacity) {
+		this.queueCapacity = queueCapacity;
+	}
+
+	public void addSink(CSVSink sink) {
+		SinkWorker worker = new SinkWorker(sink, new ArrayBlockingQueue<byte[]>(queueCapacity), metrics);
+		Thread thread = new Thread(worker, "csv-sink-" + sink.getName());
+		thread.setDaemon(true);
+		worker.thread = thread;
+		workers.add(worker);
+		thread.start();
+	}
+
+	public boolean isEmpty() {
+		return workers.isEmpty();
+	}
+
+	public void write(byte[] chunk) throws CVSWriterException {
+		this.write(chunk, 0);
+	}
+
+	/**
+	 * Writes a chunk of the given number of rows.
+	 */
+	public void write(byte[] chunk, int rows) throws CVSWriterException {
+		try {
+			for (SinkWorker worker : workers) {
+				if (worker.failure == null) {
+					worker.queue.put(chunk);
+					worker.rows.add(rows);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new CVSWriterException("Interrupted while writing the CSV", e);
+		}
+	}
+
+	/**
+	 * Waits for every sink to write and finish. The first failure, if any, is
+	 * thrown.
+	 */
+	public void close() throws CVSWriterException {
+		SinkWorker failed = null;
+		try {
+			for (SinkWorker worker : workers) {
+				worker.queue.put(END);
+			}
+			for (SinkWorker worker : workers) {
+				worker.thread.join();
+				if (worker.failure != null) {
+					if (verbose) {
+						System.err.printf("Could not write to %s. Cause: %s\n", worker.sink.getName(), worker.failure.getMessage());
+					}
+					if (failed == null) {
+						failed = worker;
+					}
+				} else if (verbose) {
+					System.out.printf("Finished writing to %s, %d bytes\n", worker.sink.getName(), worker.bytes);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new CVSWriterException("Interrupted while writing the CSV", e);
+		}
+		if (failed != null) {
+			throw new CVSWriterException(String.format("Could not write to %s: %s", failed.sink.getName(), failed.failure.getMessage()),
+					failed.failure);
+		}
+	}
+
+	/**
+	 * Aborts every sink instead of finishing it, e.g. the phonebook is not
+	 * sent when the contacts could not be read. Failures are ignored.
+	 */
+	public void abort() {
+		try {
+			for (SinkWorker worker : workers) {
+				worker.queue.put(ABORT);
+			}
+			for (SinkWorker worker : workers) {
+				worker.thread.join();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static class SinkWorker implements Runnable {
+		private final CSVSink sink;
+		private final BlockingQueue<byte[]> queue;
+		private Thread thread;
+		private volatile IOException failure;
+		private long bytes;
+		private final LongAdder rows;
+		private final LongAdder bytesWritten;
+		private final LongAdder failures;
+		private final RunMetrics.Timer finish;
+
+		SinkWorker(CSVSink sink, BlockingQueue<byte[]> queue, RunMetrics metrics) {
+			this.sink = sink;
+			this.queue = queue;
+			this.rows = metrics.counter("sink." + sink.getName() + ".rows");
+			this.bytesWritten = metrics.counter("sink." + sink.getName() + ".bytes");
+			this.failures = metrics.counter("sink." + sink.getName() + ".failures");
+			this.finish = metrics.timer("sink." + sink.getName() + ".finish");
+		}
+
+		public void run() {
+			try {
+				byte[] chunk;
+				while ((chunk = queue.take()) != END) {
+					if (chunk == ABORT) {
+						if (failure == null) {
+							sink.abort();
+						}
+						return;
+					}
+					if (failure == null) {
+						try {
+							sink.write(chunk);
+							bytes += chunk.length;
+							bytesWritten.add(chunk.length);
+						} catch (IOException e) {
+							failure = e;
+							sink.abort();
+						}
+					}
+				}
+				if (failure == null) {
+					long start = System.nanoTime();
+					sink.finish();
+					finish.recordSince(start);
+				}
+			} catch (IOException e) {
+				failure = e;
+				sink.abort();
+			} catch (InterruptedException e) {
+				failure = new IOException("Interrupted while writing to " + sink.getName(), e);
+				sink.abort();
+			} finally {
+				if (failure != null) {
+					failures.increment();
+				}
+			}
+		}
+	}
+}
@@ -52,8 +52,36 @@ public class MultipartBuilder {
 		httpConn.setDoOutput(true); // indicates POST method
 		httpConn.setDoInput(true);
 		httpConn.setRequestProperty("Content-Type", "multipart/form-data; boundary=" + boundary);
-		outputStream = httpConn.getOutputStream();
-		writer = new PrintWriter(new OutputStreamWriter(outputStream, charset), true);
+	}
+
+	/**
+	 * Fails the request if connecting, or waiting for the server, takes
+	 * longer than the given time. 0 waits forever.
+	 */
+	public void setTimeout(int timeoutMillis) {
+		httpConn.setConnectTimeout(timeoutMillis);
+		httpConn.setReadTimeout(timeoutMillis);
+	}
+
+	/**
+	 * Sends the body as it is written, in chunks of the given length, instead
+	 * of buffering all of it in memory to learn its length. Has to be called
+	 * before any part is added.
+	 */
+	public void setChunkedStreamingMode(int chunkLength) {
+		httpConn.setChunkedStreamingMode(chunkLength);
+	}
+
+	/**
+	 * The request body, opened on first use so that the request headers and
+	 * the streaming mode can be set until then.
+	 */
+	private PrintWriter body() throws IOException {
+		if (writer == null) {
+			outputStream = httpConn.getOutputStream();
+			writer = new PrintWriter(new OutputStreamWriter(outputStream, charset), true);
+		}
+		return writer;
 	}
 
 	/**
@@ -64,7 +92,8 @@ public class MultipartBuilder {
 	 * @param value
 	 *             field value
 	 */
-	public void addFormField(String name, String value) {
+	public void addFormField(String name, String value) throws IOException {
+		PrintWriter writer = this.body();
 		writer.append("--" + boundary).append(LINE_FEED);
 		writer.append("Content-Disposition: form-data; name=\"" + name + "\"").append(LINE_FEED);
 		writer.append("Content-Type: text/plain; charset=" + charset).append(LINE_FEED);
@@ -88,6 +117,7 @@ public class MultipartBuilder {
 	}
 
 	public OutputStream beginFilePart(String fieldName, String contentType) throws IOException {
+		PrintWriter writer = this.body();
 		writer.append("--" + boundary).append(LINE_FEED);
 		writer.append("Content-Disposition: form-data; name=\"" + fieldName + "\"; filename=\"" + fieldName + "\"").append(LINE_FEED);
 		writer.append("Content-Type: " + contentType).append(LINE_FEED);
@@ -103,7 +133,8 @@ public class MultipartBuilder {
 	}
 
 	/**
-	 * Adds a header field to the request.
+	 * Adds a header field to the request. Has to be called before any part is
+	 * added.
 	 * 
 	 * @param name
 	 *             - name of the header field
@@ -111,8 +142,15 @@ public class MultipartBuilder {
 	 *             - value of the header field
 	 */
 	public void addHeaderField(String name, String value) {
-		writer.append(name + ": " + value).append(LINE_FEED);
-		writer.flush();
+		httpConn.setRequestProperty(name, value);
+	}
+
+	/**
+	 * Drops the request without finishing the body, so the server does not
+	 * get a complete upload.
+	 */
+	public void abort() {
+		httpConn.disconnect();
 	}
 
 	/**
@@ -125,6 +163,7 @@ public class MultipartBuilder {
 	public List<String> finish() throws IOException {
 		List<String> response = new ArrayList<String>();
 
+		PrintWriter writer = this.body();
 		writer.append(LINE_FEED);
 		writer.append("--" + boundary + "--").append(LINE_FEED);
 		writer.flush();
@@ -137,8 +176,9 @@ public class MultipartBuilder {
 			while ((line = reader.readLine()) != null) {
 				response.add(line);
 			}
+			// closing the fully read response, rather than disconnecting, lets
+			// the next request reuse the connection
 			reader.close();
-			httpConn.disconnect();
 		} else {
 			throw new IOException("Server returned non-OK status: " + status);
 		}
@@ -0,0 +1,170 @@
+package com.github.gccsv.output;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Gzips the CSV on its way to another sink, compressing blocks of it on a
+ * thread pool, the way pigz does. Each block is deflated on its own, primed
+ * with the end of the previous block as dictionary so that little ratio is
+ * lost, and flushed to a byte boundary, so the compressed blocks can simply
+ * be concatenated, in order, into one standard gzip member. The CRC of the
+ * whole CSV is computed as the chunks arrive.
+ */
+public class ParallelGzipSink implements CSVSink {
+	public static final int DEFAULT_BLOCK_SIZE = 128 * 1024;
+	private static final int DICTIONARY_SIZE = 32 * 1024;
+	private static final byte[] HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+
+	private final CSVSink target;
+	private final int threads;
+	private final int blockSize;
+	private final ExecutorService executor;
+	private final LinkedList<Future<byte[]>> blocks = new LinkedList<Future<byte[]>>();
+	private final CRC32 crc = new CRC32();
+	private byte[] block;
+	private int blockLength;
+	private byte[] dictionary;
+	private long size;
+	private boolean headerWritten;
+
+	public ParallelGzipSink(CSVSink target, int threads) {
+		this(target, threads, DEFAULT_BLOCK_SIZE);
+	}
+
+	public ParallelGzipSink(CSVSink target, int threads, int blockSize) {
+		this.target = target;
+		this.threads = threads;
+		this.blockSize = blockSize;
+		this.block = new byte[blockSize];
+		this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "gzip-" + ParallelGzipSink.this.target.getName());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	public String getName() {
+		return target.getName();
+	}
+
+	public void write(byte[] chunk) throws IOException {
+		this.writeHeader();
+		crc.update(chunk, 0, chunk.length);
+		size += chunk.length;
+		int offset = 0;
+		while (offset < chunk.length) {
+			int length = Math.min(blockSize - blockLength, chunk.length - offset);
+			System.arraycopy(chunk, offset, block, blockLength, length);
+			blockLength += length;
+			offset += length;
+			if (blockLength == blockSize) {
+				this.submit(false);
+			}
+		}
+	}
+
+	public void finish() throws IOException {
+		try {
+			this.writeHeader();
+			this.submit(true);
+			while (!blocks.isEmpty()) {
+				target.write(this.await(blocks.removeFirst()));
+			}
+			long crcValue = crc.getValue();
+			target.write(new byte[] { (byte) crcValue, (byte) (crcValue >> 8), (byte) (crcValue >> 16), (byte) (crcValue >> 24), (byte) size,
+					(byte) (size >> 8), (byte) (size >> 16), (byte) (size >> 24) });
+		} finally {
+			executor.shutdownNow();
+		}
+		target.finish();
+	}
+
+	public void abort() {
+		executor.shutdownNow();
+		target.abort();
+	}
+
+	private void writeHeader() throws IOException {
+		if (!headerWritten) {
+			target.write(HEADER);
+			headerWritten = true;
+		}
+	}
+
+	/**
+	 * Hands the current block over to the pool, first writing out the oldest
+	 * blocks if too many are pending.
+	 */
+	private void submit(final boolean last) throws IOException {
+		while (blocks.size() >= 2 * threads) {
+			target.write(this.await(blocks.removeFirst()));
+		}
+		final byte[] input = block;
+		final int length = blockLength;
+		final byte[] previous = dictionary;
+		blocks.add(executor.submit(new Callable<byte[]>() {
+			public byte[] call() {
+				return deflate(input, length, previous, last);
+			}
+		}));
+		if (!last) {
+			dictionary = Arrays.copyOfRange(input, Math.max(0, length - DICTIONARY_SIZE), length);
+			block = new byte[blockSize];
+			blockLength = 0;
+		}
+	}
+
+	private byte[] await(Future<byte[]> compressed) throws IOException {
+		try {
+			return compressed.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while compressing");
+		} catch (ExecutionException e) {
+			throw new IOException("Could not compress the CSV", e.getCause());
+		}
+	}
+
+	static byte[] deflate(byte[] input, int length, byte[] dictionary, boolean last) {
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		try {
+			if (dictionary != null) {
+				deflater.setDictionary(dictionary);
+			}
+			deflater.setInput(input, 0, length);
+			if (last) {
+				deflater.finish();
+			}
+			byte[] output = new byte[length / 2 + 64];
+			int outputLength = 0;
+			while (true) {
+				if (outputLength == output.length) {
+					output = Arrays.copyOf(output, output.length * 2);
+				}
+				int deflated = deflater.deflate(output, outputLength, output.length - outputLength, last ? Deflater.NO_FLUSH
+						: Deflater.SYNC_FLUSH);
+				outputLength += deflated;
+				// a flush is complete once it leaves room in the output
+				if (last ? deflater.finished() : outputLength < output.length && deflater.needsInput()) {
+					break;
+				}
+			}
+			return Arrays.copyOf(output, outputLength);
+		} finally {
+			deflater.end();
+		}
+	}
+}
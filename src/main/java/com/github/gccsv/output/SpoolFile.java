@@ -0,0 +1,49 @@
+package com.github.gccsv.output;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+
+/**
+ * The CSV kept in a temporary file, readable only by its owner, until it is
+ * complete, instead of in memory. It can then be read back any number of
+ * times.
+ */
+class SpoolFile {
+	private final File file;
+	private final OutputStream output;
+
+	SpoolFile(String prefix) throws IOException {
+		this.file = Files.createTempFile(prefix, ".csv").toFile();
+		this.output = new BufferedOutputStream(new FileOutputStream(file), 1 << 16);
+	}
+
+	void write(byte[] chunk) throws IOException {
+		output.write(chunk);
+	}
+
+	/**
+	 * Ends the CSV, before it is read back.
+	 */
+	void close() throws IOException {
+		output.close();
+	}
+
+	InputStream open() throws IOException {
+		return new FileInputStream(file);
+	}
+
+	void delete() {
+		try {
+			output.close();
+		} catch (IOException e) {
+			// nothing else we can do
+		}
+		file.delete();
+	}
+}
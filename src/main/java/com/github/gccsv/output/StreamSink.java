@@ -0,0 +1,49 @@
+package com.github.gccsv.output;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes the CSV to an output stream, such as a file or the standard output.
+ */
+public class StreamSink implements CSVSink {
+	private final String name;
+	private final OutputStream outputStream;
+	private final boolean close;
+
+	/**
+	 * @param close
+	 *             whether the stream should be closed when finished, which is
+	 *             not the case for the standard output
+	 */
+	public StreamSink(String name, OutputStream outputStream, boolean close) {
+		this.name = name;
+		this.outputStream = outputStream;
+		this.close = close;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void write(byte[] chunk) throws IOException {
+		outputStream.write(chunk);
+	}
+
+	public void finish() throws IOException {
+		outputStream.flush();
+		if (close) {
+			outputStream.close();
+		}
+	}
+
+	public void abort() {
+		if (close) {
+			try {
+				outputStream.close();
+			} catch (IOException e) {
+				// nothing else we can do
+			}
+		}
+	}
+}
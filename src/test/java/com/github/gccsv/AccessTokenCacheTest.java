@@ -0,0 +1,136 @@
+package com.github.gccsv;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+public class AccessTokenCacheTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private FakeContactsFeed feed;
+	private String storageDir;
+	private File storeDir;
+
+	@Before
+	public void startFeed() throws Exception {
+		feed = new FakeContactsFeed(20);
+		storageDir = FakeContactsFeed.authorize(folder.getRoot());
+		storeDir = GCConnector.storeDir(storageDir);
+	}
+
+	@After
+	public void stopFeed() {
+		feed.stop();
+	}
+
+	@Test
+	public void tokenIsReusedUntilItIsAboutToExpire() throws Exception {
+		AccessTokenCache cache = this.newCache(false);
+
+		assertEquals("token-1", cache.getAccessToken());
+		assertEquals("token-1", cache.getAccessToken());
+		assertEquals(1, feed.getTokens().size());
+	}
+
+	@Test
+	public void tokenWithinAMinuteOfExpiringIsRefreshed() throws Exception {
+		feed.setExpiresInSeconds(59);
+		AccessTokenCache cache = this.newCache(false);
+
+		assertEquals("token-1", cache.getAccessToken());
+		assertEquals("token-2", cache.getAccessToken());
+	}
+
+	@Test
+	public void tokenAfterTheMarginIsReused() throws Exception {
+		feed.setExpiresInSeconds(120);
+		AccessTokenCache cache = this.newCache(false);
+
+		assertEquals("token-1", cache.getAccessToken());
+		assertEquals("token-1", cache.getAccessToken());
+	}
+
+	@Test
+	public void invalidatedTokenIsReplaced() throws Exception {
+		AccessTokenCache cache = this.newCache(false);
+		cache.getAccessToken();
+		// a token rejected earlier, already replaced, is ignored
+		cache.invalidate("token-0");
+		assertEquals("token-1", cache.getAccessToken());
+
+		cache.invalidate("token-1");
+		assertEquals("token-2", cache.getAccessToken());
+	}
+
+	@Test
+	public void rejectedTokenIsRefreshedAndTheQueryRetried() throws Exception {
+		feed.rejectToken("token-1");
+		GCConnector connector = feed.connect(storageDir, 10, 100);
+
+		assertEquals(20, connector.readContacts().size());
+		assertEquals(Arrays.asList("token-1", "token-2"), feed.getTokens());
+		// the first page twice, then the second page
+		assertEquals(Arrays.asList("1:10", "1:10", "11:10"), feed.getRequests());
+	}
+
+	@Test
+	public void persistedTokenIsReusedByTheNextRun() throws Exception {
+		long before = System.currentTimeMillis();
+		assertEquals("token-1", this.newCache(true).getAccessToken());
+
+		List<String> stored = Files.readAllLines(new File(storeDir, "at").toPath(), StandardCharsets.UTF_8);
+		assertEquals("token-1", stored.get(0));
+		long expiresAt = Long.parseLong(stored.get(1));
+		assertTrue(expiresAt >= before + 3600 * 1000 && expiresAt <= System.currentTimeMillis() + 3600 * 1000);
+
+		assertEquals("token-1", this.newCache(true).getAccessToken());
+		assertEquals(1, feed.getTokens().size());
+	}
+
+	@Test
+	public void persistedTokenAboutToExpireIsRefreshed() throws Exception {
+		PrintWriter writer = new PrintWriter(new File(storeDir, "at"));
+		writer.println("stale");
+		writer.println(System.currentTimeMillis() + 30 * 1000);
+		writer.close();
+
+		assertEquals("token-1", this.newCache(true).getAccessToken());
+	}
+
+	@Test
+	public void invalidatedTokenIsRemovedFromDisk() throws Exception {
+		AccessTokenCache cache = this.newCache(true);
+		cache.getAccessToken();
+		cache.invalidate("token-1");
+
+		assertFalse(new File(storeDir, "at").exists());
+	}
+
+	@Test
+	public void tokenIsNotWrittenUnlessPersistent() throws Exception {
+		this.newCache(false).getAccessToken();
+
+		assertFalse(new File(storeDir, "at").exists());
+	}
+
+	private AccessTokenCache newCache(boolean persistent) {
+		AccessTokenCache cache = new AccessTokenCache("client-id", "client-secret", storeDir);
+		cache.setTokenServerUrl(feed.getTokenUrl());
+		cache.setPersistent(persistent);
+		return cache;
+	}
+}
@@ -0,0 +1,220 @@
+package com.github.gccsv;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.gdata.data.contacts.ContactEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+
+public class ContactSnapshotTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private FakeContactsFeed feed;
+	private String storageDir;
+	private ContactSnapshot snapshot;
+
+	@Before
+	public void startFeed() throws Exception {
+		feed = new FakeContactsFeed(20);
+		storageDir = FakeContactsFeed.authorize(folder.getRoot());
+		snapshot = new ContactSnapshot(GCConnector.storeDir(storageDir));
+	}
+
+	@After
+	public void stopFeed() {
+		feed.stop();
+	}
+
+	@Test
+	public void resumeSkipsTheContactsSaved() throws Exception {
+		this.failAfterTwoPages();
+		feed.failPage(11, 0);
+		int requests = feed.getRequests().size();
+
+		Names names = new Names();
+		snapshot.readContacts(feed.connect(storageDir, 5, 100), names, true);
+
+		assertEquals(expectedNames(20), names.names);
+		List<String> resumed = feed.getRequests().subList(requests, feed.getRequests().size());
+		// from the last contact saved on, to check it is still there
+		assertEquals("10:5", resumed.get(0));
+		for (String request : resumed) {
+			assertFalse(request, request.startsWith("1:") || request.startsWith("6:"));
+		}
+		Names replayed = new Names();
+		snapshot.replay(replayed, 7, EnumSet.allOf(GC_FIELD.class));
+		assertEquals(expectedNames(20), replayed.names);
+	}
+
+	@Test
+	public void resumeReadsAllTheContactsAgainIfOneBeforeWasDeleted() throws Exception {
+		this.failAfterTwoPages();
+		feed.failPage(11, 0);
+		feed.deleteContact(3);
+
+		Names names = new Names();
+		snapshot.readContacts(feed.connect(storageDir, 5, 100), names, true);
+
+		List<String> expected = expectedNames(20);
+		expected.remove("Contact 3");
+		assertEquals(expected, names.names);
+	}
+
+	@Test
+	public void resumeReadsAllTheContactsAgainIfTheLastSavedChanged() throws Exception {
+		this.failAfterTwoPages();
+		feed.failPage(11, 0);
+		feed.updateContact(10);
+
+		Names names = new Names();
+		snapshot.readContacts(feed.connect(storageDir, 5, 100), names, true);
+
+		List<String> expected = expectedNames(20);
+		expected.set(9, FakeContactsFeed.name(10, 1));
+		assertEquals(expected, names.names);
+	}
+
+	@Test
+	public void readWithoutResumeStartsOver() throws Exception {
+		this.failAfterTwoPages();
+		feed.failPage(11, 0);
+		int requests = feed.getRequests().size();
+
+		Names names = new Names();
+		snapshot.readContacts(feed.connect(storageDir, 5, 100), names, false);
+
+		assertEquals(expectedNames(20), names.names);
+		assertEquals("1:5", feed.getRequests().get(requests));
+	}
+
+	@Test
+	public void replayHasTheContactsAsRead() throws Exception {
+		GCConnector connector = feed.connect(storageDir, 5, 100);
+		connector.setFields(EnumSet.of(GC_FIELD.NAME, GC_FIELD.EMAIL));
+		Entries read = new Entries();
+		snapshot.readContacts(connector, read, false);
+
+		Entries replayed = new Entries();
+		snapshot.replay(replayed, 7, EnumSet.of(GC_FIELD.EMAIL, GC_FIELD.NAME, GC_FIELD.NONE));
+		assertEquals(20, replayed.entries.size());
+		for (int i = 0; i < 20; i++) {
+			ContactEntry expected = read.entries.get(i);
+			ContactEntry actual = replayed.entries.get(i);
+			assertEquals(expected.getId(), actual.getId());
+			assertEquals(expected.getEtag(), actual.getEtag());
+			assertEquals(expected.getUpdated(), actual.getUpdated());
+			assertEquals(expected.getTitle().getPlainText(), actual.getTitle().getPlainText());
+			assertEquals(expected.getEmailAddresses().get(0).getAddress(), actual.getEmailAddresses().get(0).getAddress());
+		}
+	}
+
+	@Test
+	public void replayRefusesFieldsTheSnapshotWasNotReadWith() throws Exception {
+		GCConnector connector = feed.connect(storageDir, 5, 100);
+		connector.setFields(EnumSet.of(GC_FIELD.NAME));
+		snapshot.readContacts(connector, new Names(), false);
+
+		Names names = new Names();
+		try {
+			snapshot.replay(names, 7, EnumSet.of(GC_FIELD.NAME, GC_FIELD.PHONE_NUMBER));
+			fail("the snapshot has no phone numbers");
+		} catch (GCCSVException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("without the fields [PHONE_NUMBER]"));
+		}
+		assertTrue(names.names.isEmpty());
+		try {
+			snapshot.checkReplay(EnumSet.of(GC_FIELD.EMAIL));
+			fail("the snapshot has no emails");
+		} catch (GCCSVException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("without the fields [EMAIL]"));
+		}
+		snapshot.checkReplay(EnumSet.of(GC_FIELD.NAME, GC_FIELD.NONE));
+	}
+
+	@Test
+	public void exportFromSnapshotRefusesMissingFieldsBeforeOpeningTheOutputs() throws Exception {
+		File first = new File(folder.getRoot(), "first.csv");
+		Main export = new Main(Main.parseJobOptions(new String[] { "-C", "client-id", "-S", "client-secret", "-d", storageDir, "--feed-url",
+				feed.getFeedUrl(), "--token-url", feed.getTokenUrl(), "--output-header", "Name", "--output-mapping", "NAME", "-f",
+				first.getPath() }));
+		export.setInteractive(false);
+		export.execute();
+		assertTrue(first.isFile());
+
+		// to stdout, where the header would show; an aborted file is removed
+		Main replay = new Main(Main.parseJobOptions(new String[] { "-d", storageDir, "--from-snapshot", "--output-header", "Name", "Number",
+				"--output-mapping", "NAME", "PHONE_NUMBER", "-p" }));
+		PrintStream out = System.out;
+		ByteArrayOutputStream printed = new ByteArrayOutputStream();
+		System.setOut(new PrintStream(printed, true, "UTF-8"));
+		try {
+			replay.execute();
+			fail("the snapshot has no phone numbers");
+		} catch (GCCSVException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("without the fields [PHONE_NUMBER]"));
+		} finally {
+			System.setOut(out);
+		}
+		assertEquals("", printed.toString("UTF-8"));
+	}
+
+	/**
+	 * Reads the first two pages and fails on the third, leaving the first 10
+	 * contacts saved.
+	 */
+	private void failAfterTwoPages() throws Exception {
+		feed.failPage(11, 1);
+		Names names = new Names();
+		try {
+			snapshot.readContacts(feed.connect(storageDir, 5, 100), names, false);
+			fail("the third page failed");
+		} catch (GoogleConnectorException e) {
+			assertEquals(expectedNames(10), names.names);
+		}
+		assertFalse(snapshot.exists());
+	}
+
+	static List<String> expectedNames(int count) {
+		List<String> names = new ArrayList<String>();
+		for (int i = 1; i <= count; i++) {
+			names.add(FakeContactsFeed.name(i, 0));
+		}
+		return names;
+	}
+
+	/**
+	 * Collects the names of the contacts handed over.
+	 */
+	static class Entries implements ContactPageHandler {
+		final List<ContactEntry> entries = new ArrayList<ContactEntry>();
+
+		public void handlePage(List<ContactEntry> page) {
+			entries.addAll(page);
+		}
+	}
+
+	static class Names implements ContactPageHandler {
+		final List<String> names = new ArrayList<String>();
+
+		public void handlePage(List<ContactEntry> page) {
+			for (ContactEntry entry : page) {
+				names.add(entry.getTitle().getPlainText());
+			}
+		}
+	}
+}
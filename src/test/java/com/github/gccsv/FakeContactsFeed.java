@@ -0,0 +1,319 @@
+package com.github.gccsv;
+
+import com.google.gdata.data.DateTime;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.Executors;
+
+/**
+ * Google's token endpoint and contacts feed on the loopback interface, with
+ * contacts that can be updated, deleted and added, and pages that can be
+ * delayed or fail on purpose. Honors start-index, max-results, updated-min
+ * and showdeleted. The feed is updated as of the time it is served, like
+ * google's.
+ */
+class FakeContactsFeed {
+	static final String FEED_PATH = "/m8/feeds/contacts/default/full";
+	static final String TOKEN_PATH = "/token";
+	private static final long INITIAL_UPDATED = 1420070400000L;
+
+	private final HttpServer server;
+	private int totalContacts;
+	private long lastChange = INITIAL_UPDATED;
+	private long expiresInSeconds = 3600;
+	private final Map<Integer, Long> updated = new HashMap<Integer, Long>();
+	private final Map<Integer, Integer> revisions = new HashMap<Integer, Integer>();
+	private final Set<Integer> deleted = new HashSet<Integer>();
+	private final Map<Integer, Integer> failures = new HashMap<Integer, Integer>();
+	private final Map<Integer, Long> delays = new HashMap<Integer, Long>();
+	private final Set<String> rejectedTokens = new HashSet<String>();
+	private final List<String> requests = Collections.synchronizedList(new ArrayList<String>());
+	private final List<String> tokens = Collections.synchronizedList(new ArrayList<String>());
+
+	FakeContactsFeed(int totalContacts) throws IOException {
+		this.totalContacts = totalContacts;
+		this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.createContext(TOKEN_PATH, new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				drain(exchange);
+				String token = "token-" + (tokens.size() + 1);
+				tokens.add(token);
+				respond(exchange, 200, "application/json; charset=UTF-8", String.format(
+						"{\"access_token\":\"%s\",\"token_type\":\"Bearer\",\"expires_in\":%d}", token, expiresInSeconds));
+			}
+		});
+		server.createContext(FEED_PATH, new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				drain(exchange);
+				Map<String, String> parameters = parameters(exchange.getRequestURI());
+				int startIndex = intParameter(parameters, "start-index", 1);
+				int maxResults = intParameter(parameters, "max-results", 25);
+				requests.add(startIndex + ":" + maxResults);
+				String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+				if (authorization == null || rejectedTokens.contains(authorization.substring(authorization.indexOf(' ') + 1))) {
+					// like google, which the client needs to tell a rejected token
+					exchange.getResponseHeaders().set("WWW-Authenticate", "Bearer realm=\"https://accounts.google.com/\"");
+					respond(exchange, 401, "text/plain", "Token invalid");
+					return;
+				}
+				if (fail(startIndex)) {
+					respond(exchange, 503, "text/plain", "Busy");
+					return;
+				}
+				delay(startIndex);
+				long updatedMin = parameters.containsKey("updated-min") ? DateTime.parseDateTime(parameters.get("updated-min")).getValue() : Long.MIN_VALUE;
+				respond(exchange, 200, "application/atom+xml; charset=UTF-8",
+						feed(startIndex, maxResults, updatedMin, "true".equals(parameters.get("showdeleted"))));
+			}
+		});
+		server.start();
+	}
+
+	void stop() {
+		server.stop(0);
+	}
+
+	String getFeedUrl() {
+		return "http://127.0.0.1:" + server.getAddress().getPort() + FEED_PATH;
+	}
+
+	String getTokenUrl() {
+		return "http://127.0.0.1:" + server.getAddress().getPort() + TOKEN_PATH;
+	}
+
+	/**
+	 * Writes a refresh token to the storage dir, as an authorized export
+	 * would, and returns the storage dir argument for the connector.
+	 */
+	static String authorize(File storageDir) throws IOException {
+		File refreshToken = new File(GCConnector.storeDir(storageDir.getPath() + "/"), GCConnector.REFRESH_TOKEN_FILE);
+		refreshToken.getParentFile().mkdirs();
+		PrintWriter writer = new PrintWriter(refreshToken);
+		writer.print("refresh-token");
+		writer.close();
+		return storageDir.getPath() + "/";
+	}
+
+	/**
+	 * A connector to the feed, for the given storage dir, that does not
+	 * retry.
+	 */
+	GCConnector connect(String storageDir, int pageSize, int maxResults) {
+		GCConnector connector = new GCConnector("client-id", "client-secret", pageSize, maxResults, storageDir);
+		connector.setFeedUrl(this.getFeedUrl());
+		connector.setTokenServerUrl(this.getTokenUrl());
+		connector.setInteractive(false);
+		return connector;
+	}
+
+	/**
+	 * How long the access tokens handed out are valid for.
+	 */
+	synchronized void setExpiresInSeconds(long expiresInSeconds) {
+		this.expiresInSeconds = expiresInSeconds;
+	}
+
+	/**
+	 * Answers the feed with 401 for the given access token from now on.
+	 */
+	synchronized void rejectToken(String token) {
+		rejectedTokens.add(token);
+	}
+
+	/**
+	 * Answers the next requests for the page at the start index with 503.
+	 */
+	synchronized void failPage(int startIndex, int times) {
+		failures.put(startIndex, times);
+	}
+
+	/**
+	 * Waits before answering the page at the start index.
+	 */
+	synchronized void delayPage(int startIndex, long millis) {
+		delays.put(startIndex, millis);
+	}
+
+	/**
+	 * The start-index:max-results of every feed request so far.
+	 */
+	List<String> getRequests() {
+		synchronized (requests) {
+			return new ArrayList<String>(requests);
+		}
+	}
+
+	/**
+	 * The access tokens handed out so far.
+	 */
+	List<String> getTokens() {
+		synchronized (tokens) {
+			return new ArrayList<String>(tokens);
+		}
+	}
+
+	/**
+	 * Renames the contact at the (1 based) index.
+	 */
+	synchronized void updateContact(int index) {
+		Integer revision = revisions.get(index);
+		revisions.put(index, revision == null ? 1 : revision + 1);
+		this.changed(index);
+	}
+
+	synchronized void deleteContact(int index) {
+		deleted.add(index);
+		this.changed(index);
+	}
+
+	synchronized void addContacts(int count) {
+		for (int i = 0; i < count; i++) {
+			this.changed(++totalContacts);
+		}
+	}
+
+	private void changed(int index) {
+		lastChange = Math.max(lastChange + 1, System.currentTimeMillis());
+		updated.put(index, lastChange);
+	}
+
+	private synchronized boolean fail(int startIndex) {
+		Integer remaining = failures.get(startIndex);
+		if (remaining == null || remaining == 0) {
+			return false;
+		}
+		failures.put(startIndex, remaining - 1);
+		return true;
+	}
+
+	private void delay(int startIndex) throws IOException {
+		Long millis;
+		synchronized (this) {
+			millis = delays.get(startIndex);
+		}
+		if (millis != null) {
+			try {
+				Thread.sleep(millis);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted", e);
+			}
+		}
+	}
+
+	private synchronized String feed(int startIndex, int maxResults, long updatedMin, boolean showDeleted) {
+		List<Integer> selected = new ArrayList<Integer>();
+		for (int i = 1; i <= totalContacts; i++) {
+			if ((showDeleted || !deleted.contains(i)) && this.updated(i) >= updatedMin) {
+				selected.add(i);
+			}
+		}
+		StringBuilder feed = new StringBuilder();
+		feed.append("<?xml version='1.0' encoding='UTF-8'?>");
+		feed.append("<feed xmlns='http://www.w3.org/2005/Atom' xmlns:openSearch='http://a9.com/-/spec/opensearch/1.1/'")
+				.append(" xmlns:gd='http://schemas.google.com/g/2005'>");
+		feed.append("<id>test@example.com</id><updated>").append(timestamp(System.currentTimeMillis())).append("</updated>");
+		feed.append("<title>Contacts</title>");
+		feed.append("<openSearch:totalResults>").append(selected.size()).append("</openSearch:totalResults>");
+		feed.append("<openSearch:startIndex>").append(startIndex).append("</openSearch:startIndex>");
+		feed.append("<openSearch:itemsPerPage>").append(maxResults).append("</openSearch:itemsPerPage>");
+		for (int position = startIndex; position <= Math.min(selected.size(), startIndex + maxResults - 1); position++) {
+			int i = selected.get(position - 1);
+			String id = Integer.toHexString(i);
+			feed.append("<entry gd:etag='&quot;").append(id).append('.').append(this.revision(i)).append("&quot;'>");
+			feed.append("<id>http://www.google.com/m8/feeds/contacts/test%40example.com/base/").append(id).append("</id>");
+			feed.append("<updated>").append(timestamp(this.updated(i))).append("</updated>");
+			if (deleted.contains(i)) {
+				feed.append("<gd:deleted/></entry>");
+				continue;
+			}
+			feed.append("<title>").append(name(i, this.revision(i))).append("</title>");
+			feed.append("<gd:email rel='http://schemas.google.com/g/2005#home' address='contact").append(i).append("@example.com'/>");
+			feed.append("<gd:phoneNumber rel='http://schemas.google.com/g/2005#mobile'>+351 91").append(1000000 + i).append("</gd:phoneNumber>");
+			feed.append("</entry>");
+		}
+		feed.append("</feed>");
+		return feed.toString();
+	}
+
+	/**
+	 * The name of the contact at the index, as the feed has it.
+	 */
+	static String name(int index, int revision) {
+		return revision == 0 ? "Contact " + index : "Contact " + index + " v" + revision;
+	}
+
+	private int revision(int index) {
+		Integer revision = revisions.get(index);
+		return revision == null ? 0 : revision;
+	}
+
+	private long updated(int index) {
+		Long time = updated.get(index);
+		return time == null ? INITIAL_UPDATED : time;
+	}
+
+	private static String timestamp(long millis) {
+		SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		return format.format(new Date(millis));
+	}
+
+	private static void drain(HttpExchange exchange) throws IOException {
+		byte[] buffer = new byte[4096];
+		while (exchange.getRequestBody().read(buffer) != -1) {
+			// discard
+		}
+	}
+
+	private static void respond(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", contentType);
+		exchange.sendResponseHeaders(status, bytes.length);
+		OutputStream responseBody = exchange.getResponseBody();
+		responseBody.write(bytes);
+		responseBody.close();
+	}
+
+	private static Map<String, String> parameters(URI uri) throws IOException {
+		Map<String, String> parameters = new HashMap<String, String>();
+		String query = uri.getRawQuery();
+		if (query != null) {
+			for (String pair : query.split("&")) {
+				int separator = pair.indexOf('=');
+				if (separator > 0) {
+					parameters.put(URLDecoder.decode(pair.substring(0, separator), "UTF-8"), URLDecoder.decode(pair.substring(separator + 1), "UTF-8"));
+				}
+			}
+		}
+		return parameters;
+	}
+
+	private static int intParameter(Map<String, String> parameters, String name, int defaultValue) {
+		String value = parameters.get(name);
+		return value == null ? defaultValue : Integer.parseInt(value);
+	}
+}
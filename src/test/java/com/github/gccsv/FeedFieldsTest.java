@@ -0,0 +1,67 @@
+package com.github.gccsv;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.gdata.data.contacts.ContactEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.EnumSet;
+import java.util.List;
+
+public class FeedFieldsTest {
+	private static final String ALWAYS = "openSearch:totalResults,updated,entry(@gd:etag,id,updated,gd:deleted";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private FakeContactsFeed feed;
+
+	@Before
+	public void startFeed() throws Exception {
+		feed = new FakeContactsFeed(3);
+	}
+
+	@After
+	public void stopFeed() {
+		feed.stop();
+	}
+
+	@Test
+	public void selectorHasOnlyTheFieldsOfTheMapping() {
+		assertEquals(ALWAYS + ",title)", new FeedFields(EnumSet.of(GC_FIELD.NAME)).getSelector());
+		assertEquals(ALWAYS + ",title,gd:phoneNumber)", new FeedFields(EnumSet.of(GC_FIELD.PHONE_NUMBER, GC_FIELD.NAME)).getSelector());
+		assertEquals(ALWAYS + ",gd:email,gd:postalAddress,gd:structuredPostalAddress)",
+				new FeedFields(EnumSet.of(GC_FIELD.EMAIL, GC_FIELD.ADDRESS)).getSelector());
+		assertEquals(ALWAYS + ",title,gd:phoneNumber,gd:email,gd:postalAddress,gd:structuredPostalAddress)",
+				new FeedFields(EnumSet.allOf(GC_FIELD.class)).getSelector());
+	}
+
+	@Test
+	public void mappingWithoutFieldsAsksForTheIdsOnly() {
+		assertEquals(ALWAYS + ")", new FeedFields(EnumSet.of(GC_FIELD.NONE)).getSelector());
+		assertEquals(ALWAYS + ")", new FeedFields(EnumSet.noneOf(GC_FIELD.class)).getSelector());
+	}
+
+	@Test
+	public void onlyTheExtensionsOfTheFieldsAreParsed() throws Exception {
+		String storageDir = FakeContactsFeed.authorize(folder.getRoot());
+		GCConnector connector = feed.connect(storageDir, 10, 100);
+		connector.setFields(EnumSet.of(GC_FIELD.NAME, GC_FIELD.EMAIL));
+		List<ContactEntry> contacts = connector.readContacts();
+
+		assertEquals(3, contacts.size());
+		for (ContactEntry contact : contacts) {
+			assertEquals(1, contact.getEmailAddresses().size());
+			// the feed has a phone number, which is not declared
+			assertTrue(contact.getPhoneNumbers().isEmpty());
+		}
+		assertEquals("contact1@example.com", contacts.get(0).getEmailAddresses().get(0).getAddress());
+		assertEquals(FakeContactsFeed.name(1, 0), contacts.get(0).getTitle().getPlainText());
+	}
+}
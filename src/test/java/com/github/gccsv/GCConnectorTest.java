@@ -0,0 +1,115 @@
+package com.github.gccsv;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.gdata.data.contacts.ContactEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class GCConnectorTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private FakeContactsFeed feed;
+	private String storageDir;
+
+	@Before
+	public void startFeed() throws Exception {
+		feed = new FakeContactsFeed(20);
+		storageDir = FakeContactsFeed.authorize(folder.getRoot());
+	}
+
+	@After
+	public void stopFeed() {
+		feed.stop();
+	}
+
+	@Test
+	public void concurrentPagesAreHandedOverInIndexOrder() throws Exception {
+		// the later pages are answered before the earlier ones
+		feed.delayPage(6, 600);
+		feed.delayPage(11, 300);
+		GCConnector connector = feed.connect(storageDir, 5, 100);
+		connector.setFetchThreads(3);
+		ContactSnapshotTest.Names names = new ContactSnapshotTest.Names();
+
+		long start = System.nanoTime();
+		connector.readContacts(names);
+		long millis = (System.nanoTime() - start) / 1000000;
+
+		assertEquals(ContactSnapshotTest.expectedNames(20), names.names);
+		assertEquals(requests("1:5", "6:5", "11:5", "16:5"), requests(feed.getRequests()));
+		// fetched at the same time, not one delay after the other
+		assertTrue(String.valueOf(millis), millis < 900);
+	}
+
+	@Test
+	public void maxResultsCapsTheLastConcurrentPage() throws Exception {
+		GCConnector connector = feed.connect(storageDir, 5, 13);
+		connector.setFetchThreads(3);
+		ContactSnapshotTest.Names names = new ContactSnapshotTest.Names();
+		connector.readContacts(names);
+
+		assertEquals(ContactSnapshotTest.expectedNames(13), names.names);
+		assertEquals(requests("1:5", "6:5", "11:3"), requests(feed.getRequests()));
+	}
+
+	@Test
+	public void busyPageIsAskedForAgainAfterAWait() throws Exception {
+		feed.failPage(6, 2);
+		GCConnector connector = feed.connect(storageDir, 5, 100);
+		connector.setFetchAttempts(3);
+		RunMetrics metrics = new RunMetrics();
+		connector.setMetrics(metrics);
+
+		long start = System.nanoTime();
+		List<ContactEntry> contacts = connector.readContacts();
+		long millis = (System.nanoTime() - start) / 1000000;
+
+		assertEquals(20, contacts.size());
+		assertEquals(3, Collections.frequency(feed.getRequests(), "6:5"));
+		assertEquals(2, metrics.getCount("fetch.retries"));
+		// at least half of 500 and then of 1000 ms
+		assertTrue(String.valueOf(millis), millis >= 750);
+	}
+
+	@Test
+	public void pageStillBusyAfterTheLastAttemptFails() throws Exception {
+		feed.failPage(6, 5);
+		GCConnector connector = feed.connect(storageDir, 5, 100);
+		connector.setFetchAttempts(2);
+		try {
+			connector.readContacts();
+			fail("the page was busy on every attempt");
+		} catch (GoogleConnectorException e) {
+			assertEquals(2, Collections.frequency(feed.getRequests(), "6:5"));
+		}
+	}
+
+	/**
+	 * How many times each page was asked for, in whatever order.
+	 */
+	private static Map<String, Integer> requests(List<String> requests) {
+		Map<String, Integer> result = new HashMap<String, Integer>();
+		for (String request : requests) {
+			result.put(request, Collections.frequency(requests, request));
+		}
+		return result;
+	}
+
+	private static Map<String, Integer> requests(String... requests) {
+		return requests(Arrays.asList(requests));
+	}
+}
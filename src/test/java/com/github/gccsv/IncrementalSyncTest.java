@@ -0,0 +1,114 @@
+package com.github.gccsv;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import com.github.gccsv.output.CSVWriter;
+import com.google.gdata.data.contacts.ContactEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class IncrementalSyncTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private FakeContactsFeed feed;
+
+	@Before
+	public void startFeed() throws Exception {
+		feed = new FakeContactsFeed(20);
+	}
+
+	@After
+	public void stopFeed() {
+		feed.stop();
+	}
+
+	@Test
+	public void mergedContactsAreTheSameAsAFullRead() throws Exception {
+		String storageDir = FakeContactsFeed.authorize(folder.newFolder("incremental"));
+		this.sync(storageDir, new RunMetrics());
+
+		feed.updateContact(4);
+		feed.deleteContact(7);
+		feed.addContacts(2);
+		RunMetrics metrics = new RunMetrics();
+		byte[] merged = this.sync(storageDir, metrics);
+
+		// only the updated, deleted and added contacts were read
+		assertEquals(4, metrics.getCount("fetch.entries"));
+		assertArrayEquals(new String(merged, "UTF-8"), this.fullRead(), merged);
+	}
+
+	@Test
+	public void snapshotReadTooLongAgoIsReadInFull() throws Exception {
+		String storageDir = FakeContactsFeed.authorize(folder.newFolder("incremental"));
+		ContactSnapshot snapshot = new ContactSnapshot(GCConnector.storeDir(storageDir));
+		GCConnector connector = feed.connect(storageDir, 5, 100);
+		// contacts served just now, but read 26 days ago
+		ContactSnapshot.Writer writer = snapshot.create(connector.getQueryKey(), System.currentTimeMillis() - 26L * 24 * 60 * 60 * 1000);
+		for (ContactEntry entry : connector.readContacts()) {
+			writer.add(ContactRecord.fromEntry(entry));
+		}
+		writer.commit(connector.getFeedUpdated().getValue());
+
+		RunMetrics metrics = new RunMetrics();
+		this.sync(storageDir, metrics);
+
+		assertEquals(20, metrics.getCount("fetch.entries"));
+	}
+
+	private byte[] sync(String storageDir, RunMetrics metrics) throws Exception {
+		GCConnector connector = feed.connect(storageDir, 5, 100);
+		connector.setMetrics(metrics);
+		CSV csv = new CSV();
+		new IncrementalSync(connector, new ContactSnapshot(GCConnector.storeDir(storageDir))).readContacts(csv);
+		return csv.toByteArray();
+	}
+
+	private byte[] fullRead() throws Exception {
+		File storageDir = folder.newFolder("full");
+		CSV csv = new CSV();
+		feed.connect(FakeContactsFeed.authorize(storageDir), 5, 100).readContacts(csv);
+		return csv.toByteArray();
+	}
+
+	/**
+	 * Renders the contacts handed over as a CSV of their name, phones and
+	 * email.
+	 */
+	private static class CSV implements ContactPageHandler {
+		private final CSVWriter writer;
+		private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+		CSV() {
+			Map<String, GC_FIELD> mapping = new LinkedHashMap<String, GC_FIELD>();
+			mapping.put("Name", GC_FIELD.NAME);
+			mapping.put("Phone", GC_FIELD.PHONE_NUMBER);
+			mapping.put("Mobile", GC_FIELD.PHONE_NUMBER);
+			mapping.put("Email", GC_FIELD.EMAIL);
+			writer = new CSVWriter(mapping, false);
+			byte[] header = writer.renderHeader();
+			output.write(header, 0, header.length);
+		}
+
+		public void handlePage(List<ContactEntry> page) {
+			byte[] rows = writer.renderPage(page);
+			output.write(rows, 0, rows.length);
+		}
+
+		byte[] toByteArray() {
+			return output.toByteArray();
+		}
+	}
+}
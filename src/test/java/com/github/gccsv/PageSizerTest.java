@@ -0,0 +1,96 @@
+package com.github.gccsv;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class PageSizerTest {
+	private static final long MILLIS = 1000000;
+	private static final long KB = 1024;
+
+	@Test
+	public void fastPageGrowsAtMostTwice() {
+		PageSizer sizer = new PageSizer(100, 1000);
+		sizer.pageRead(100, 100, 700 * MILLIS, 100 * KB);
+		assertEquals(143, sizer.getPageSize());
+		sizer.pageRead(143, 143, 10 * MILLIS, 143 * KB);
+		assertEquals(286, sizer.getPageSize());
+	}
+
+	@Test
+	public void slowPageShrinksAtMostToHalf() {
+		PageSizer sizer = new PageSizer(100, 1000);
+		sizer.pageRead(100, 100, 1600 * MILLIS, 100 * KB);
+		assertEquals(63, sizer.getPageSize());
+		sizer.pageRead(63, 63, 60000 * MILLIS, 63 * KB);
+		assertEquals(32, sizer.getPageSize());
+	}
+
+	@Test
+	public void pageCloseToTheTargetKeepsTheSize() {
+		PageSizer sizer = new PageSizer(100, 1000);
+		sizer.pageRead(100, 100, 850 * MILLIS, 100 * KB);
+		sizer.pageRead(100, 100, 1150 * MILLIS, 100 * KB);
+		assertEquals(100, sizer.getPageSize());
+	}
+
+	@Test
+	public void lastPageIsIgnored() {
+		PageSizer sizer = new PageSizer(100, 1000);
+		sizer.pageRead(100, 30, 10 * MILLIS, 30 * KB);
+		sizer.pageRead(100, 0, 10 * MILLIS, 0);
+		assertEquals(100, sizer.getPageSize());
+	}
+
+	@Test
+	public void fastSmallerPageDoesNotShrinkTheSize() {
+		PageSizer sizer = new PageSizer(100, 1000);
+		sizer.pageRead(100, 100, 10 * MILLIS, 100 * KB);
+		assertEquals(200, sizer.getPageSize());
+		// asked for before the page size grew
+		sizer.pageRead(100, 100, 700 * MILLIS, 100 * KB);
+		assertEquals(200, sizer.getPageSize());
+	}
+
+	@Test
+	public void failedPageHalvesTheSizeDownToTheMinimum() {
+		PageSizer sizer = new PageSizer(100, 1000);
+		sizer.pageFailed(100);
+		assertEquals(50, sizer.getPageSize());
+		// a smaller page asked for before halves the size it had
+		sizer.pageFailed(40);
+		assertEquals(20, sizer.getPageSize());
+		sizer.pageFailed(20);
+		sizer.pageFailed(10);
+		assertEquals(PageSizer.MIN_PAGE_SIZE, sizer.getPageSize());
+	}
+
+	@Test
+	public void smallFirstPageIsTheMinimum() {
+		PageSizer sizer = new PageSizer(4, 1000);
+		sizer.pageFailed(4);
+		assertEquals(4, sizer.getPageSize());
+	}
+
+	@Test
+	public void pagesStayUnderFourMegabytes() {
+		PageSizer sizer = new PageSizer(100, 1000);
+		// 30 KB an entry, so that 2 x 100 entries would be 6 MB
+		sizer.pageRead(100, 100, 10 * MILLIS, 3000 * KB);
+		assertEquals(136, sizer.getPageSize());
+	}
+
+	@Test
+	public void pageOverFourMegabytesShrinksEvenOnTime() {
+		PageSizer sizer = new PageSizer(100, 1000);
+		sizer.pageRead(100, 100, 1000 * MILLIS, 8 * 1024 * KB);
+		assertEquals(50, sizer.getPageSize());
+	}
+
+	@Test
+	public void pageSizeStaysUnderTheMaximum() {
+		PageSizer sizer = new PageSizer(8000, 1000);
+		sizer.pageRead(8000, 8000, 10 * MILLIS, 8000);
+		assertEquals(PageSizer.MAX_PAGE_SIZE, sizer.getPageSize());
+	}
+}
@@ -0,0 +1,57 @@
+package com.github.gccsv.output;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+public class CSVEncoderTest {
+
+	@Test
+	public void quotesInAFieldAreDoubled() {
+		assertEquals("\"Smith, \"\"Jo\"\"\"", enclosed("Smith, \"Jo\""));
+		assertEquals("\"\"\"\"\"\"", enclosed("\"\""));
+		assertEquals("\"Jo\"", enclosed("Jo"));
+	}
+
+	@Test
+	public void lineBreaksStayInTheField() {
+		assertEquals("\"1 Main St\nSecond line\r\nThird \"\"line\"\"\"", enclosed("1 Main St\nSecond line\r\nThird \"line\""));
+	}
+
+	@Test
+	public void nonAsciiIsEncodedAsUTF8() {
+		String[] texts = { "São João", "Ærøskøbing", "北京", "😀 smile", "a\"é\"b", "lone \uD800 surrogate" };
+		for (String text : texts) {
+			CSVEncoder encoder = new CSVEncoder(1);
+			encoder.append(text);
+			assertArrayEquals(text, text.getBytes(StandardCharsets.UTF_8), encoder.toByteArray());
+			assertArrayEquals(text, ("\"" + text.replace("\"", "\"\"") + "\"").getBytes(StandardCharsets.UTF_8),
+					new CSVEncoder(1).appendEnclosed(text).toByteArray());
+		}
+	}
+
+	@Test
+	public void nullIsWrittenLikeAStringBuilderWould() {
+		CSVEncoder encoder = new CSVEncoder(4);
+		encoder.append((String) null).append(',').appendEnclosed(null);
+		assertEquals(new StringBuilder().append((String) null).append(",\"").append((String) null).append('"').toString(),
+				new String(encoder.toByteArray(), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void resetReusesTheBuffer() {
+		CSVEncoder encoder = new CSVEncoder(2);
+		encoder.appendEnclosed("first, longer than the buffer");
+		encoder.reset();
+		encoder.append('x').append("é");
+		assertEquals(3, encoder.size());
+		assertEquals("xé", new String(encoder.toByteArray(), StandardCharsets.UTF_8));
+	}
+
+	private static String enclosed(String text) {
+		return new String(new CSVEncoder(16).appendEnclosed(text).toByteArray(), StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,84 @@
+package com.github.gccsv.output;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.nio.file.Files;
+import java.util.Random;
+
+public class ChannelFileSinkTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void smallMappedExportKeepsTheTemporaryFileSmall() throws Exception {
+		File destination = new File(folder.getRoot(), "contacts.csv");
+		ChannelFileSink sink = new ChannelFileSink(destination, true);
+		byte[] csv = bytes(new Random(3), 10 * 1024);
+		sink.write(csv);
+
+		File[] temporary = folder.getRoot().listFiles(new FileFilter() {
+			public boolean accept(File file) {
+				return file.getName().endsWith(".tmp");
+			}
+		});
+		assertEquals(1, temporary.length);
+		assertTrue(String.valueOf(temporary[0].length()), temporary[0].length() <= 1 << 20);
+
+		sink.finish();
+		assertArrayEquals(csv, Files.readAllBytes(destination.toPath()));
+	}
+
+	@Test
+	public void mappedExportSpanningWindowsRoundTrips() throws Exception {
+		this.roundTrip(true, 7 << 20);
+	}
+
+	@Test
+	public void bufferedExportRoundTrips() throws Exception {
+		this.roundTrip(false, 3 << 20);
+	}
+
+	@Test
+	public void abortedExportLeavesNothing() throws Exception {
+		File destination = new File(folder.getRoot(), "contacts.csv");
+		ChannelFileSink sink = new ChannelFileSink(destination, true);
+		sink.write(bytes(new Random(5), 1024));
+		sink.abort();
+
+		assertEquals(0, folder.getRoot().listFiles().length);
+	}
+
+	private void roundTrip(boolean mapped, int length) throws Exception {
+		Random random = new Random(length);
+		byte[] csv = bytes(random, length);
+		File destination = new File(folder.getRoot(), "contacts.csv");
+		ChannelFileSink sink = new ChannelFileSink(destination, mapped);
+		int offset = 0;
+		while (offset < csv.length) {
+			// chunks within a window and across several, of the buffer too
+			int chunk = Math.min(csv.length - offset, random.nextInt(3 << 20));
+			byte[] bytes = new byte[chunk];
+			System.arraycopy(csv, offset, bytes, 0, chunk);
+			sink.write(bytes);
+			offset += chunk;
+		}
+		sink.finish();
+
+		assertArrayEquals(csv, Files.readAllBytes(destination.toPath()));
+		assertEquals(1, folder.getRoot().listFiles().length);
+	}
+
+	private static byte[] bytes(Random random, int length) {
+		byte[] bytes = new byte[length];
+		random.nextBytes(bytes);
+		return bytes;
+	}
+}
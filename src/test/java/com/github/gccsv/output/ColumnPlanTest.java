@@ -0,0 +1,94 @@
+package com.github.gccsv.output;
+
+import static org.junit.Assert.assertEquals;
+
+import com.github.gccsv.GC_FIELD;
+import com.google.gdata.data.PlainTextConstruct;
+import com.google.gdata.data.contacts.ContactEntry;
+import com.google.gdata.data.extensions.Email;
+import com.google.gdata.data.extensions.FormattedAddress;
+import com.google.gdata.data.extensions.PhoneNumber;
+import com.google.gdata.data.extensions.StructuredPostalAddress;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class ColumnPlanTest {
+
+	@Test
+	public void repeatedColumnsReadTheNextNumberOrEmail() {
+		ColumnPlan plan = new ColumnPlan(mapping(), new DeAccenter());
+		ContactEntry entry = contact("José", Arrays.asList("5550001", "5550002"), Arrays.asList("jo@example.com"));
+
+		assertEquals(Arrays.asList("Jose", "5550001", "jo@example.com", "5550002", "", "", "", "1 Main St"), read(plan, entry));
+	}
+
+	@Test
+	public void rowsDoNotCarryOverToTheNext() {
+		ColumnPlan plan = new ColumnPlan(mapping(), null);
+		ContactEntry many = contact("Many", Arrays.asList("1", "2", "3"), Arrays.asList("a@example.com", "b@example.com"));
+		ContactEntry none = contact("None", new ArrayList<String>(), new ArrayList<String>());
+
+		// the same columns for the same contact, whatever was read before
+		assertEquals(Arrays.asList("Many", "1", "a@example.com", "2", "", "b@example.com", "3", "1 Main St"), read(plan, many));
+		assertEquals(Arrays.asList("None", "", "", "", "", "", "", "1 Main St"), read(plan, none));
+		assertEquals(read(plan, many), read(plan, many));
+	}
+
+	@Test
+	public void headersAndFieldsKeepTheMappingOrder() {
+		ColumnPlan plan = new ColumnPlan(mapping(), null);
+
+		assertEquals(8, plan.size());
+		assertEquals("Number1", plan.getHeader(3));
+		assertEquals(GC_FIELD.PHONE_NUMBER, plan.getField(3));
+		assertEquals("Other", plan.getHeader(4));
+		assertEquals(GC_FIELD.NONE, plan.getField(4));
+	}
+
+	private static Map<String, GC_FIELD> mapping() {
+		Map<String, GC_FIELD> mapping = new LinkedHashMap<String, GC_FIELD>();
+		mapping.put("Name", GC_FIELD.NAME);
+		mapping.put("Number", GC_FIELD.PHONE_NUMBER);
+		mapping.put("Email", GC_FIELD.EMAIL);
+		mapping.put("Number1", GC_FIELD.PHONE_NUMBER);
+		mapping.put("Other", GC_FIELD.NONE);
+		mapping.put("Email1", GC_FIELD.EMAIL);
+		mapping.put("Number2", GC_FIELD.PHONE_NUMBER);
+		mapping.put("Address", GC_FIELD.ADDRESS);
+		return mapping;
+	}
+
+	private static ContactEntry contact(String name, List<String> numbers, List<String> emails) {
+		ContactEntry entry = new ContactEntry();
+		entry.setTitle(new PlainTextConstruct(name));
+		for (String number : numbers) {
+			PhoneNumber phoneNumber = new PhoneNumber();
+			phoneNumber.setPhoneNumber(number);
+			entry.addPhoneNumber(phoneNumber);
+		}
+		for (String email : emails) {
+			Email address = new Email();
+			address.setAddress(email);
+			entry.addEmailAddress(address);
+		}
+		StructuredPostalAddress address = new StructuredPostalAddress();
+		address.setFormattedAddress(new FormattedAddress("1 Main St"));
+		address.setPrimary(true);
+		entry.addStructuredPostalAddress(address);
+		return entry;
+	}
+
+	private static List<String> read(ColumnPlan plan, ContactEntry entry) {
+		List<String> row = new ArrayList<String>();
+		for (int i = 0; i < plan.size(); i++) {
+			row.add(plan.read(i, entry));
+		}
+		return row;
+	}
+}
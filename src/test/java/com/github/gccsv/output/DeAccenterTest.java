@@ -0,0 +1,82 @@
+package com.github.gccsv.output;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import com.github.gccsv.RunMetrics;
+
+import org.junit.Test;
+
+import java.text.Normalizer;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+public class DeAccenterTest {
+	/**
+	 * Characters to build names from: ASCII, the Latin letters of the table,
+	 * Greek and Cyrillic, combining marks on their own, CJK, a surrogate
+	 * pair and spaces.
+	 */
+	private static final String ALPHABET = "aeioucnAZ09-' \u00E9\u00E8\u00EA\u00E7\u00E3\u00F5\u00C1\u00D8\u00DF\u00E6"
+			+ "\u0131\u0142\u0144\u01A1\u01B0\u0219\u021B\u024F\u03AC\u03AE\u0390\u0439\u0451"
+			+ "\u0301\u0308\u0327\u0303\u1E9E\u1EC7\u4E2D\uD83D\uDE00 ";
+
+	/**
+	 * What CSVWriter.deAccent did before DeAccenter.
+	 */
+	private static String old(String str) {
+		String nfdNormalizedString = Normalizer.normalize(str, Normalizer.Form.NFD);
+		Pattern pattern = Pattern.compile("\\p{InCombiningDiacriticalMarks}+");
+		return pattern.matcher(nfdNormalizedString).replaceAll("");
+	}
+
+	@Test
+	public void asciiIsReturnedAsItIs() {
+		String name = "Jo Smith-O'Neil";
+		assertSame(name, new DeAccenter().deAccent(name));
+	}
+
+	@Test
+	public void everyCharacterOfTheTableMatchesTheOldBehavior() {
+		DeAccenter deAccenter = new DeAccenter();
+		for (char c = '\u0080'; c <= '\u024F'; c++) {
+			String text = "x" + c + "y";
+			assertEquals(Integer.toHexString(c), old(text), deAccenter.deAccent(text));
+		}
+	}
+
+	@Test
+	public void randomNamesMatchTheOldBehavior() {
+		Random random = new Random(42);
+		// a small cache, so that words are evicted and normalized again
+		DeAccenter deAccenter = new DeAccenter(8);
+		for (int i = 0; i < 20000; i++) {
+			StringBuilder name = new StringBuilder();
+			int length = random.nextInt(16);
+			for (int j = 0; j < length; j++) {
+				char c = ALPHABET.charAt(random.nextInt(ALPHABET.length()));
+				name.append(c);
+				if (Character.isHighSurrogate(c)) {
+					name.append(ALPHABET.charAt(ALPHABET.indexOf(c) + 1));
+				}
+			}
+			String text = name.toString();
+			assertEquals(text, old(text), deAccenter.deAccent(text));
+		}
+	}
+
+	@Test
+	public void repeatedWordsAreNormalizedOnce() {
+		RunMetrics metrics = new RunMetrics();
+		DeAccenter deAccenter = new DeAccenter();
+		deAccenter.setMetrics(metrics);
+		for (int i = 0; i < 3; i++) {
+			assertEquals("Zhong \u4E2D Jose", deAccenter.deAccent("Zho\u0304ng \u4E2D Jos\u00E9"));
+		}
+
+		assertEquals(3, metrics.getCount("deaccent.calls"));
+		// the word with a combining macron and the CJK one; \u00E9 is in the
+		// table
+		assertEquals(2, metrics.getCount("deaccent.normalized"));
+	}
+}
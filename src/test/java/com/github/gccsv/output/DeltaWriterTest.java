@@ -0,0 +1,127 @@
+package com.github.gccsv.output;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import com.github.gccsv.GC_FIELD;
+import com.google.gdata.data.PlainTextConstruct;
+import com.google.gdata.data.contacts.ContactEntry;
+import com.google.gdata.data.extensions.PhoneNumber;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class DeltaWriterTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private String delta;
+	private CSVWriter writer;
+
+	@Before
+	public void createWriter() {
+		delta = new File(folder.getRoot(), "delta.csv").getPath();
+		writer = new CSVWriter(mapping(false), false);
+	}
+
+	@Test
+	public void firstRunAddsEveryRow() throws Exception {
+		this.run(writer, contact(1, "Ann"), contact(2, "Bob"));
+
+		assertEquals(header(writer) + change(writer, "ADDED", contact(1, "Ann")) + change(writer, "ADDED", contact(2, "Bob")), this.read());
+	}
+
+	@Test
+	public void nextRunHasTheAddedChangedAndRemovedRows() throws Exception {
+		this.run(writer, contact(1, "Ann"), contact(2, "Bob"), contact(3, "Cy"));
+		this.run(writer, contact(1, "Ann"), contact(2, "Bobby"), contact(4, "Di"));
+
+		assertEquals(header(writer) + change(writer, "CHANGED", contact(2, "Bobby")) + change(writer, "ADDED", contact(4, "Di"))
+				+ change(writer, "REMOVED", contact(3, "Cy")), this.read());
+	}
+
+	@Test
+	public void unchangedContactsGiveAnEmptyDelta() throws Exception {
+		this.run(writer, contact(1, "Ann"), contact(2, "Bob"));
+		this.run(writer, contact(1, "Ann"), contact(2, "Bob"));
+
+		assertEquals(header(writer), this.read());
+	}
+
+	@Test
+	public void indexWrittenWithOtherColumnsIsIgnored() throws Exception {
+		this.run(writer, contact(1, "Ann"), contact(2, "Bob"));
+		CSVWriter withEmail = new CSVWriter(mapping(true), false);
+		this.run(withEmail, contact(1, "Ann"), contact(3, "Cy"));
+
+		// every row is added and nothing is removed
+		assertEquals(header(withEmail) + change(withEmail, "ADDED", contact(1, "Ann")) + change(withEmail, "ADDED", contact(3, "Cy")),
+				this.read());
+	}
+
+	@Test
+	public void abortedRunKeepsThePreviousIndex() throws Exception {
+		this.run(writer, contact(1, "Ann"), contact(2, "Bob"));
+		DeltaWriter aborted = new DeltaWriter(writer, delta);
+		aborted.open();
+		aborted.writePage(Arrays.asList(contact(1, "Annie")));
+		aborted.abort();
+		assertFalse(new File(delta + ".index.tmp").exists());
+
+		this.run(writer, contact(1, "Ann"), contact(2, "Bob"));
+		assertEquals(header(writer), this.read());
+	}
+
+	private void run(CSVWriter writer, ContactEntry... contacts) throws Exception {
+		DeltaWriter deltaWriter = new DeltaWriter(writer, delta);
+		deltaWriter.open();
+		// in two pages, as they come from google
+		List<ContactEntry> entries = Arrays.asList(contacts);
+		deltaWriter.writePage(entries.subList(0, 1));
+		deltaWriter.writePage(entries.subList(1, entries.size()));
+		deltaWriter.finish();
+	}
+
+	private String read() throws Exception {
+		return new String(Files.readAllBytes(new File(delta).toPath()), StandardCharsets.UTF_8);
+	}
+
+	private static String header(CSVWriter writer) {
+		return "\"Change\"," + new String(writer.renderHeader(), StandardCharsets.UTF_8);
+	}
+
+	private static String change(CSVWriter writer, String change, ContactEntry entry) {
+		return "\"" + change + "\"," + new String(writer.renderPage(Collections.singletonList(entry)), StandardCharsets.UTF_8);
+	}
+
+	private static Map<String, GC_FIELD> mapping(boolean email) {
+		Map<String, GC_FIELD> mapping = new LinkedHashMap<String, GC_FIELD>();
+		mapping.put("Name", GC_FIELD.NAME);
+		mapping.put("Number", GC_FIELD.PHONE_NUMBER);
+		if (email) {
+			mapping.put("Email", GC_FIELD.EMAIL);
+		}
+		return mapping;
+	}
+
+	private static ContactEntry contact(int id, String name) {
+		ContactEntry entry = new ContactEntry();
+		entry.setId("http://www.google.com/m8/feeds/contacts/test%40example.com/base/" + id);
+		entry.setTitle(new PlainTextConstruct(name));
+		PhoneNumber phoneNumber = new PhoneNumber();
+		phoneNumber.setPhoneNumber("555000" + id);
+		entry.addPhoneNumber(phoneNumber);
+		return entry;
+	}
+}
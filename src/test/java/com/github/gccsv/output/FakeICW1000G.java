@@ -0,0 +1,183 @@
+package com.github.gccsv.output;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+
+/**
+ * An ICW1000G on the loopback interface: logs in with a session cookie and
+ * imports phonebooks, replying with the number of entries imported. Keeps
+ * the uploaded CSVs and the cookies they came with. Logins and imports can be
+ * answered late, like a phone that hangs.
+ */
+class FakeICW1000G {
+	private final HttpServer server;
+	private final List<String> sessions = Collections.synchronizedList(new ArrayList<String>());
+	private final List<String> imports = Collections.synchronizedList(new ArrayList<String>());
+	private final List<String> cookies = Collections.synchronizedList(new ArrayList<String>());
+	private volatile int importLimit = Integer.MAX_VALUE;
+	private volatile long loginDelayMillis;
+	private volatile long importDelayMillis;
+
+	FakeICW1000G() throws IOException {
+		this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.createContext("/login.htm", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				read(exchange.getRequestBody());
+				delay(loginDelayMillis);
+				String session = "s" + sessions.size();
+				sessions.add(session);
+				exchange.getResponseHeaders().add("Set-Cookie", "SESSION=" + session + "; Path=/");
+				respond(exchange, 200, "ok");
+			}
+		});
+		server.createContext("/pbimport.html", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				String body = new String(read(exchange.getRequestBody()), StandardCharsets.UTF_8);
+				String cookie = exchange.getRequestHeaders().getFirst("Cookie");
+				cookies.add(cookie);
+				if (cookie == null || !sessions.contains(cookie.replace("SESSION=", ""))) {
+					respond(exchange, 403, "login first");
+					return;
+				}
+				delay(importDelayMillis);
+				String csv = fileOf(body);
+				imports.add(csv);
+				respond(exchange, 200, String.valueOf(Math.min(importLimit, countRows(csv))));
+			}
+		});
+		server.start();
+	}
+
+	void stop() {
+		server.stop(0);
+	}
+
+	/**
+	 * The password@ip:port argument for the connector.
+	 */
+	String getConnection() {
+		return "secret@127.0.0.1:" + server.getAddress().getPort();
+	}
+
+	/**
+	 * The most entries a single import takes, like a full phonebook would.
+	 */
+	void setImportLimit(int importLimit) {
+		this.importLimit = importLimit;
+	}
+
+	/**
+	 * How long to wait before answering a login.
+	 */
+	void setLoginDelayMillis(long loginDelayMillis) {
+		this.loginDelayMillis = loginDelayMillis;
+	}
+
+	/**
+	 * How long to wait before taking an import and answering it.
+	 */
+	void setImportDelayMillis(long importDelayMillis) {
+		this.importDelayMillis = importDelayMillis;
+	}
+
+	/**
+	 * The uploaded CSV of every import so far.
+	 */
+	List<String> getImports() {
+		synchronized (imports) {
+			return new ArrayList<String>(imports);
+		}
+	}
+
+	/**
+	 * The Cookie header of every import so far.
+	 */
+	List<String> getCookies() {
+		synchronized (cookies) {
+			return new ArrayList<String>(cookies);
+		}
+	}
+
+	int getLogins() {
+		return sessions.size();
+	}
+
+	/**
+	 * The CSV rows of an uploaded file, less the header.
+	 */
+	private static int countRows(String csv) {
+		int rows = 0;
+		boolean quoted = false;
+		boolean content = false;
+		for (int i = 0; i < csv.length(); i++) {
+			char c = csv.charAt(i);
+			if (c == '"') {
+				quoted = !quoted;
+			}
+			if (c == '\n' && !quoted) {
+				rows += content ? 1 : 0;
+				content = false;
+			} else if (c != '\r') {
+				content = true;
+			}
+		}
+		rows += content ? 1 : 0;
+		return Math.max(0, rows - 1);
+	}
+
+	private static String fileOf(String body) {
+		int start = body.indexOf("\r\n\r\n", body.indexOf("filename="));
+		int end = body.lastIndexOf("\r\n--");
+		if (start == -1 || end < start) {
+			return "";
+		}
+		String file = body.substring(start + 4, end);
+		// the part ends with a line break of its own before the closing boundary
+		return file.endsWith("\r\n") ? file.substring(0, file.length() - 2) : file;
+	}
+
+	private static void delay(long millis) throws IOException {
+		if (millis > 0) {
+			try {
+				Thread.sleep(millis);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted", e);
+			}
+		}
+	}
+
+	private static byte[] read(InputStream input) throws IOException {
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int read;
+		while ((read = input.read(buffer)) != -1) {
+			result.write(buffer, 0, read);
+		}
+		return result.toByteArray();
+	}
+
+	private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/html");
+		exchange.sendResponseHeaders(status, bytes.length);
+		OutputStream responseBody = exchange.getResponseBody();
+		responseBody.write(bytes);
+		responseBody.close();
+	}
+}
@@ -0,0 +1,151 @@
+package com.github.gccsv.output;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.github.gccsv.RunMetrics;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+public class ICW1000FanOutSinkTest {
+	private static final String CSV = "Name,Number\nContact 1,5550001\nContact 2,5550002\nContact 3,5550003\n";
+
+	private FakeICW1000G first;
+	private FakeICW1000G second;
+	private RunMetrics metrics;
+
+	@Before
+	public void startDevices() throws IOException {
+		first = new FakeICW1000G();
+		second = new FakeICW1000G();
+		metrics = new RunMetrics();
+	}
+
+	@After
+	public void stopDevices() {
+		first.stop();
+		second.stop();
+	}
+
+	@Test
+	public void everyPhoneGetsTheWholeCSV() throws Exception {
+		ICW1000FanOutSink sink = this.newSink(3);
+		sink.write("Name,Number\nContact 1,5550001\n".getBytes(StandardCharsets.UTF_8));
+		sink.write("Contact 2,5550002\nContact 3,5550003\n".getBytes(StandardCharsets.UTF_8));
+		sink.finish();
+
+		assertEquals(Arrays.asList(CSV), first.getImports());
+		assertEquals(Arrays.asList(CSV), second.getImports());
+		assertEquals(2, metrics.getCount("icw1000.phones.ok"));
+	}
+
+	@Test
+	public void phoneThatTookABatchIsNotRetried() throws Exception {
+		second.setImportLimit(1);
+		ICW1000FanOutSink sink = this.newSink(3);
+		sink.setBatches(2, 0);
+		sink.write(CSV.getBytes(StandardCharsets.UTF_8));
+		try {
+			sink.finish();
+			fail("the second phone imported only part of a batch");
+		} catch (IOException e) {
+			assertTrue(e.getMessage(), e.getMessage().startsWith("1 of 2 ICW 1000G phones failed"));
+		}
+
+		assertEquals(2, first.getImports().size());
+		assertEquals(1, second.getImports().size());
+		assertEquals(1, metrics.getCount("icw1000.phones.failed"));
+		assertEquals(2, metrics.getCount("icw1000.phones.attempts"));
+	}
+
+	@Test
+	public void hungLoginFailsAtTheDeadline() throws Exception {
+		second.setLoginDelayMillis(20000);
+		ICW1000FanOutSink sink = this.newSink(3);
+		sink.setTimeoutMillis(30000);
+		sink.setDeadlineMillis(500);
+		sink.write(CSV.getBytes(StandardCharsets.UTF_8));
+		long start = System.nanoTime();
+		this.finishFailing(sink, "Gave up after the deadline of 500 ms");
+
+		assertTrue((System.nanoTime() - start) / 1000000 < 5000);
+		assertEquals(Arrays.asList(CSV), first.getImports());
+		assertEquals(0, second.getImports().size());
+		assertEquals(1, metrics.getCount("icw1000.phones.ok"));
+	}
+
+	@Test
+	public void hungImportFailsAtTheDeadline() throws Exception {
+		second.setImportDelayMillis(20000);
+		ICW1000FanOutSink sink = this.newSink(3);
+		sink.setTimeoutMillis(30000);
+		sink.setDeadlineMillis(500);
+		sink.write(CSV.getBytes(StandardCharsets.UTF_8));
+		long start = System.nanoTime();
+		this.finishFailing(sink, "Gave up after the deadline of 500 ms");
+
+		assertTrue((System.nanoTime() - start) / 1000000 < 5000);
+		assertEquals(Arrays.asList(CSV), first.getImports());
+		assertEquals(0, second.getImports().size());
+		assertEquals(1, metrics.getCount("icw1000.phones.failed"));
+	}
+
+	@Test
+	public void summaryIsPrintedWithoutVerbose() throws Exception {
+		ICW1000FanOutSink sink = this.newSink(1);
+		sink.write(CSV.getBytes(StandardCharsets.UTF_8));
+		PrintStream err = System.err;
+		ByteArrayOutputStream summary = new ByteArrayOutputStream();
+		System.setErr(new PrintStream(summary, true, "UTF-8"));
+		try {
+			sink.finish();
+		} finally {
+			System.setErr(err);
+		}
+
+		String printed = summary.toString("UTF-8");
+		assertTrue(printed, printed.contains("ICW 1000G uploads:"));
+		for (FakeICW1000G device : Arrays.asList(first, second)) {
+			String address = device.getConnection().substring(device.getConnection().indexOf('@') + 1);
+			assertTrue(printed, printed.matches("(?s).*" + address + " +OK +3 entries.*"));
+		}
+	}
+
+	@Test
+	public void abortedExportSendsNothing() throws Exception {
+		ICW1000FanOutSink sink = this.newSink(1);
+		sink.write(CSV.getBytes(StandardCharsets.UTF_8));
+		sink.abort();
+		sink.finish();
+
+		assertEquals(0, first.getImports().size());
+		assertEquals(0, second.getImports().size());
+	}
+
+	private void finishFailing(ICW1000FanOutSink sink, String cause) {
+		try {
+			sink.finish();
+			fail("the second phone did not answer");
+		} catch (IOException e) {
+			assertTrue(e.getMessage(), e.getMessage().startsWith("1 of 2 ICW 1000G phones failed"));
+			assertTrue(e.getMessage(), e.getMessage().contains(cause));
+		}
+	}
+
+	private ICW1000FanOutSink newSink(int attempts) {
+		ICW1000FanOutSink sink = new ICW1000FanOutSink(Arrays.asList(first.getConnection(), second.getConnection()), 2);
+		sink.setTimeoutMillis(5000);
+		sink.setAttempts(attempts);
+		sink.setMetrics(metrics);
+		return sink;
+	}
+}
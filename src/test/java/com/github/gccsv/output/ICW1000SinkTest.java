@@ -0,0 +1,123 @@
+package com.github.gccsv.output;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+public class ICW1000SinkTest {
+	private static final String HEADER = "Name,Number\n";
+
+	private FakeICW1000G device;
+
+	@Before
+	public void startDevice() throws IOException {
+		device = new FakeICW1000G();
+	}
+
+	@After
+	public void stopDevice() {
+		device.stop();
+	}
+
+	@Test
+	public void batchesAreLimitedInRows() throws Exception {
+		ICW1000Sink sink = this.newSink(2, 0);
+		this.write(sink, HEADER + row(1) + row(2) + row(3) + row(4) + row(5));
+		sink.finish();
+
+		assertEquals(Arrays.asList(HEADER + row(1) + row(2), HEADER + row(3) + row(4), HEADER + row(5)), device.getImports());
+		assertEquals(5, sink.getImported());
+	}
+
+	@Test
+	public void batchesAreLimitedInBytes() throws Exception {
+		int batchBytes = HEADER.length() + 2 * row(1).length();
+		ICW1000Sink sink = this.newSink(0, batchBytes);
+		this.write(sink, HEADER + row(1) + row(2) + row(3) + row(4) + row(5));
+		sink.finish();
+
+		List<String> imports = device.getImports();
+		assertEquals(Arrays.asList(HEADER + row(1) + row(2), HEADER + row(3) + row(4), HEADER + row(5)), imports);
+		for (String csv : imports) {
+			assertTrue(csv.length() <= batchBytes);
+		}
+	}
+
+	@Test
+	public void rowLargerThanABatchIsSentAlone() throws Exception {
+		String large = "Contact with a name far longer than any batch may be,5550000\n";
+		ICW1000Sink sink = this.newSink(0, HEADER.length() + 2 * row(1).length());
+		this.write(sink, HEADER + row(1) + large + row(2));
+		sink.finish();
+
+		assertEquals(Arrays.asList(HEADER + row(1), HEADER + large, HEADER + row(2)), device.getImports());
+		assertEquals(3, sink.getImported());
+	}
+
+	@Test
+	public void quotedLineBreaksAndQuotesStayInTheirRow() throws Exception {
+		String quoted = "\"Smith, \"\"Jo\"\"\nSecond line\",5550009\n";
+		ICW1000Sink sink = this.newSink(1, 0);
+		// one byte at a time, so that rows and quotes span chunks
+		for (byte b : (HEADER + quoted + row(1)).getBytes(StandardCharsets.UTF_8)) {
+			sink.write(new byte[] { b });
+		}
+		sink.finish();
+
+		assertEquals(Arrays.asList(HEADER + quoted, HEADER + row(1)), device.getImports());
+	}
+
+	@Test
+	public void fewerEntriesImportedThanSentFails() throws Exception {
+		device.setImportLimit(1);
+		ICW1000Sink sink = this.newSink(2, 0);
+		this.write(sink, HEADER + row(1) + row(2) + row(3));
+		try {
+			sink.finish();
+			fail("the device imported only part of a batch");
+		} catch (IOException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("imported 1 entries of a batch of 2"));
+		}
+		assertEquals(1, device.getImports().size());
+	}
+
+	@Test
+	public void batchesShareOneLogin() throws Exception {
+		ICW1000Sink sink = this.newSink(1, 0);
+		this.write(sink, HEADER + row(1) + row(2) + row(3));
+		sink.finish();
+
+		assertEquals(1, device.getLogins());
+		assertEquals(Arrays.asList("SESSION=s0", "SESSION=s0", "SESSION=s0"), device.getCookies());
+	}
+
+	@Test
+	public void abortedExportImportsNothing() throws Exception {
+		ICW1000Sink sink = this.newSink(1, 0);
+		this.write(sink, HEADER + row(1) + row(2));
+		sink.abort();
+
+		assertEquals(0, device.getImports().size());
+	}
+
+	private ICW1000Sink newSink(int batchRows, int batchBytes) throws IncomICW1000GConnectorException {
+		return new ICW1000Sink(new IncomICW1000GConnector(device.getConnection(), 5000), batchRows, batchBytes);
+	}
+
+	private void write(ICW1000Sink sink, String csv) throws IOException {
+		sink.write(csv.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static String row(int i) {
+		return "Contact " + i + ",555000" + i + "\n";
+	}
+}
@@ -0,0 +1,110 @@
+package com.github.gccsv.output;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+public class ParallelGzipSinkTest {
+	private static final int BLOCK_SIZE = 4096;
+
+	@Test
+	public void chunksOfAnySizeRoundTrip() throws Exception {
+		Random random = new Random(7);
+		byte[] csv = csv(random, 300000);
+		ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+		ParallelGzipSink sink = new ParallelGzipSink(new StreamSink("test", gzipped, true), 4, BLOCK_SIZE);
+		int offset = 0;
+		while (offset < csv.length) {
+			// empty chunks, chunks within a block and chunks spanning several
+			int length = Math.min(csv.length - offset, random.nextInt(3 * BLOCK_SIZE));
+			sink.write(copy(csv, offset, length));
+			offset += length;
+		}
+		sink.finish();
+
+		assertArrayEquals(csv, gunzip(gzipped.toByteArray()));
+	}
+
+	@Test
+	public void chunksOfExactlyABlockRoundTrip() throws Exception {
+		byte[] csv = csv(new Random(11), 4 * BLOCK_SIZE);
+		ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+		ParallelGzipSink sink = new ParallelGzipSink(new StreamSink("test", gzipped, true), 2, BLOCK_SIZE);
+		for (int offset = 0; offset < csv.length; offset += BLOCK_SIZE) {
+			sink.write(copy(csv, offset, BLOCK_SIZE));
+		}
+		sink.finish();
+
+		assertArrayEquals(csv, gunzip(gzipped.toByteArray()));
+	}
+
+	@Test
+	public void emptyFirstChunkWritesOneHeader() throws Exception {
+		byte[] csv = "\"Name\",\"Number\"\n\"Contact 1\",\"5550001\"\n".getBytes(StandardCharsets.UTF_8);
+		ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+		ParallelGzipSink sink = new ParallelGzipSink(new StreamSink("test", gzipped, true), 2, BLOCK_SIZE);
+		sink.write(new byte[0]);
+		sink.write(csv);
+		sink.write(new byte[0]);
+		sink.finish();
+
+		assertArrayEquals(csv, gunzip(gzipped.toByteArray()));
+	}
+
+	@Test
+	public void nothingWrittenIsAnEmptyGzip() throws Exception {
+		ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+		ParallelGzipSink sink = new ParallelGzipSink(new StreamSink("test", gzipped, true), 2, BLOCK_SIZE);
+		sink.finish();
+
+		assertArrayEquals(new byte[0], gunzip(gzipped.toByteArray()));
+	}
+
+	/**
+	 * Rows of CSV, which compress well, with some random bytes, which do not.
+	 */
+	private static byte[] csv(Random random, int length) {
+		ByteArrayOutputStream csv = new ByteArrayOutputStream();
+		int i = 0;
+		while (csv.size() < length) {
+			byte[] row = String.format("\"Contact %d\",\"+351 91%07d\",\"contact%d@example.com\"\n", i, random.nextInt(10000000), i)
+					.getBytes(StandardCharsets.UTF_8);
+			csv.write(row, 0, row.length);
+			if (i++ % 50 == 0) {
+				byte[] noise = new byte[random.nextInt(200)];
+				random.nextBytes(noise);
+				csv.write(noise, 0, noise.length);
+			}
+		}
+		return copy(csv.toByteArray(), 0, length);
+	}
+
+	private static byte[] copy(byte[] bytes, int offset, int length) {
+		byte[] result = new byte[length];
+		System.arraycopy(bytes, offset, result, 0, length);
+		return result;
+	}
+
+	private static byte[] gunzip(byte[] gzipped) throws IOException {
+		InputStream input = new GZIPInputStream(new ByteArrayInputStream(gzipped));
+		try {
+			ByteArrayOutputStream result = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = input.read(buffer)) != -1) {
+				result.write(buffer, 0, read);
+			}
+			return result.toByteArray();
+		} finally {
+			input.close();
+		}
+	}
+}